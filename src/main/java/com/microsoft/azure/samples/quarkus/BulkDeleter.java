@@ -0,0 +1,218 @@
+package com.microsoft.azure.samples.quarkus;
+
+import com.azure.cosmos.CosmosAsyncContainer;
+import com.azure.cosmos.models.CosmosBulkOperationResponse;
+import com.azure.cosmos.models.CosmosBulkOperations;
+import com.azure.cosmos.models.CosmosItemOperation;
+import com.azure.cosmos.models.CosmosQueryRequestOptions;
+import com.azure.cosmos.models.PartitionKey;
+import com.azure.cosmos.models.SqlParameter;
+import com.azure.cosmos.models.SqlQuerySpec;
+import com.microsoft.azure.samples.quarkus.jsonmapper.BulkDeleteResult;
+import com.microsoft.azure.samples.quarkus.jsonmapper.Person;
+import com.microsoft.azure.samples.quarkus.jsonmapper.RequestBulkDelete;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * 条件に一致する Person をバルク操作でまとめて削除します。
+ *
+ * 条件の項目と演算子はホワイト・リストで制限し、値はクエリ・パラメータ (@value) で渡すため
+ * SQL インジェクションは発生しません。対象の id とパーティション・キーだけを SELECT し、
+ * app.bulk-delete.chunk-size 件毎に executeBulkOperations() で削除します。SDK はパーティション毎に
+ * 操作をまとめて並列に実行します。
+ *
+ * 他のリクエストの RU を使い切らないよう、チャンク毎に消費した RU (対象を検索したクエリのページの RU を含む) が
+ * app.bulk-delete.max-ru-per-second を超えないように待ち時間を入れます。
+ */
+
+@ApplicationScoped
+public class BulkDeleter {
+
+    private static final Logger LOGGER = Logger.getLogger(BulkDeleter.class);
+    private static final String QUERY_SELECT_KEYS = "SELECT P.id, P.lastName, P.partitionKey FROM Person P WHERE ";
+
+    private static final Set<String> FIELDS = new HashSet<>(
+            Arrays.asList("id", "firstName", "lastName", "age", "partitionKey", "_ts"));
+    private static final Map<String, String> OPERATORS = new HashMap<>();
+
+    static {
+        Arrays.asList("=", "!=", "<", "<=", ">", ">=").forEach(op -> OPERATORS.put(op, op));
+        OPERATORS.put("startswith", "STARTSWITH");
+    }
+
+    @ConfigProperty(name = "app.bulk-delete.max-ru-per-second", defaultValue = "1000")
+    double maxRequestUnitsPerSecond;
+
+    @ConfigProperty(name = "app.bulk-delete.chunk-size", defaultValue = "100")
+    int chunkSize;
+
+    @ConfigProperty(name = "app.bulk-delete.max-items", defaultValue = "100000")
+    int maxItems;
+
+    @Inject
+    PartitionKeyStrategy partitionKeyStrategy;
+
+    @Inject
+    CosmosSchedulers schedulers;
+
+    // ThroughputAutoScaler の入力としてコンテナの RU と 429 を記録
+    @Inject
+    HotPartitionDetector hotPartitionDetector;
+
+    /**
+     * 条件に一致する Person を削除
+     *
+     * @param request 削除の条件 (不正な場合は IllegalArgumentException)
+     * @return 削除の結果 (dryRun の場合は件数のみ)
+     */
+    public Mono<BulkDeleteResult> delete(CosmosAsyncContainer container, RequestBulkDelete request) {
+        SqlQuerySpec querySpec = toQuerySpec(request);
+        String usageKey = container.getDatabase().getId() + "/" + container.getId();
+        Progress progress = new Progress();
+        Flux<Person> targets = container.queryItems(querySpec, new CosmosQueryRequestOptions(), Person.class)
+                .handle(page -> {
+                    progress.recordQuery(page.getRequestCharge());
+                    hotPartitionDetector.recordUsage(usageKey, page.getRequestCharge(), 200);
+                })
+                .doOnError(error -> hotPartitionDetector.recordUsageError(usageKey, error))
+                .take(maxItems);
+        if (request.isDryRun()) {
+            return targets.count().map(count -> new BulkDeleteResult(true, count, 0, 0, 0, 0,
+                    progress.requestCharge.sum()));
+        }
+
+        return targets.doOnNext(person -> progress.matched.incrementAndGet()).buffer(chunkSize)
+                .concatMap(chunk -> {
+                    long startNanos = System.nanoTime();
+                    // このチャンクまでに読んだクエリのページの RU も待ち時間の計算に含める
+                    double queryCharge = progress.takeQueryCharge();
+                    Flux<CosmosItemOperation> operations = Flux.fromIterable(chunk)
+                            .map(person -> CosmosBulkOperations.getDeleteItemOperation(person.getId(),
+                                    partitionKeyOf(person)));
+                    return container.executeBulkOperations(operations).publishOn(schedulers.io())
+                            .doOnNext(response -> hotPartitionDetector.recordUsage(usageKey, response))
+                            .map(progress::record).reduce(queryCharge, Double::sum)
+                            .flatMap(requestCharge -> throttle(requestCharge, System.nanoTime() - startNanos));
+                }).then(Mono.fromCallable(() -> {
+                    BulkDeleteResult result = progress.toResult();
+                    LOGGER.info("BULK DELETE COMPLETED: " + result);
+                    return result;
+                }));
+    }
+
+    /*
+     * 合成パーティション・キーで保存したドキュメントは保存済みの partitionKey を優先
+     */
+    private PartitionKey partitionKeyOf(Person person) {
+        if (partitionKeyStrategy.isSynthetic() && person.getPartitionKey() != null) {
+            return new PartitionKey(person.getPartitionKey());
+        }
+        return partitionKeyStrategy.partitionKeyFor(person.getLastName(), person.getId());
+    }
+
+    /*
+     * チャンクで消費した RU が上限に収まるまで待つ
+     */
+    private Mono<Void> throttle(double requestCharge, long elapsedNanos) {
+        long requiredNanos = (long) (requestCharge / maxRequestUnitsPerSecond * 1_000_000_000L);
+        long waitNanos = requiredNanos - elapsedNanos;
+        return waitNanos > 0 ? Mono.delay(Duration.ofNanos(waitNanos)).then() : Mono.empty();
+    }
+
+    /**
+     * 削除の条件からパラメータ化したクエリを作成
+     */
+    static SqlQuerySpec toQuerySpec(RequestBulkDelete request) {
+        String field = request.getField();
+        String operator = request.getOperator() == null ? null : OPERATORS.get(request.getOperator().toLowerCase());
+        if (field == null || !FIELDS.contains(field)) {
+            throw new IllegalArgumentException("Unsupported field for bulk delete: " + field);
+        }
+        if (operator == null) {
+            throw new IllegalArgumentException("Unsupported operator for bulk delete: " + request.getOperator());
+        }
+        Object value = request.getValue();
+        if (value == null || !(value instanceof String || value instanceof Number)) {
+            throw new IllegalArgumentException("Value for bulk delete must be a string or a number");
+        }
+        if (operator.equals("STARTSWITH") && !(value instanceof String)) {
+            throw new IllegalArgumentException("Value for startswith must be a string");
+        }
+
+        String condition = operator.equals("STARTSWITH") ? "STARTSWITH(P." + field + ", @value)"
+                : "P." + field + " " + operator + " @value";
+        List<SqlParameter> parameters = Arrays.asList(new SqlParameter("@value", value));
+        return new SqlQuerySpec(QUERY_SELECT_KEYS + condition, parameters);
+    }
+
+    static final class Progress {
+        private final AtomicLong matched = new AtomicLong();
+        private final AtomicLong deleted = new AtomicLong();
+        private final AtomicLong notFound = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong throttled = new AtomicLong();
+        private final DoubleAdder requestCharge = new DoubleAdder();
+        // まだ待ち時間の計算に含めていないクエリの RU
+        private final DoubleAdder pendingQueryCharge = new DoubleAdder();
+
+        /*
+         * 対象を検索したクエリのページの RU を記録
+         */
+        void recordQuery(double charge) {
+            requestCharge.add(charge);
+            pendingQueryCharge.add(charge);
+        }
+
+        /*
+         * @return 前回の呼び出し以降に記録したクエリの RU
+         */
+        double takeQueryCharge() {
+            return pendingQueryCharge.sumThenReset();
+        }
+
+        /*
+         * @return この操作で消費した RU
+         */
+        double record(CosmosBulkOperationResponse<?> response) {
+            if (response.getResponse() == null) {
+                LOGGER.error("BULK DELETE FAILED: " + response.getOperation().getId(), response.getException());
+                failed.incrementAndGet();
+                return 0;
+            }
+            int statusCode = response.getResponse().getStatusCode();
+            double charge = response.getResponse().getRequestCharge();
+            requestCharge.add(charge);
+            if (response.getResponse().isSuccessStatusCode()) {
+                deleted.incrementAndGet();
+            } else if (statusCode == 404) {
+                notFound.incrementAndGet();
+            } else {
+                if (statusCode == 429) {
+                    throttled.incrementAndGet();
+                }
+                failed.incrementAndGet();
+            }
+            return charge;
+        }
+
+        BulkDeleteResult toResult() {
+            return new BulkDeleteResult(false, matched.get(), deleted.get(), notFound.get(), failed.get(),
+                    throttled.get(), requestCharge.sum());
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package com.microsoft.azure.samples.quarkus;
+
+import com.azure.cosmos.CosmosException;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricID;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+import org.eclipse.microprofile.metrics.Tag;
+import org.jboss.logging.Logger;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * コンテナ毎のサーキット・ブレーカー (app.circuit-breaker.enabled=true の場合)。
+ *
+ * app.circuit-breaker.window の間に app.circuit-breaker.minimum-requests 件以上のリクエストがあり、
+ * 失敗の割合が failure-rate-threshold を超えた場合は OPEN にし、open-duration の間は Cosmos DB に
+ * リクエストを送らずにすぐに OpenException で失敗させます (ルートは 503 と Retry-After を返します)。
+ * open-duration の経過後は 1 件だけ試し (HALF_OPEN)、成功した場合は CLOSED に戻します。
+ *
+ * 失敗として数えるのは 408, 429 (SDK の再試行後), 5xx と TimeoutException です。
+ * 404 や 409 などはサービスが応答しているため成功として数えます。
+ *
+ * ブレーカーは ContainerRegistry に登録したコンテナに対してのみ作成し、コンテナが LRU から削除された場合や
+ * invalidate された場合はメトリクスと共に破棄します (存在しないコンテナ名のリクエストで無制限に増えないように)。
+ *
+ * circuit.breaker.state : コンテナ毎の状態 (0 = CLOSED, 1 = HALF_OPEN, 2 = OPEN)
+ *
+ * circuit.breaker.rejected : OPEN のために送信しなかったリクエストの数
+ */
+
+@ApplicationScoped
+public class CircuitBreakers {
+
+    private static final Logger LOGGER = Logger.getLogger(CircuitBreakers.class);
+    private static final String STATE_METRIC = "circuit.breaker.state";
+
+    @ConfigProperty(name = "app.circuit-breaker.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "app.circuit-breaker.failure-rate-threshold", defaultValue = "0.5")
+    double failureRateThreshold;
+
+    @ConfigProperty(name = "app.circuit-breaker.minimum-requests", defaultValue = "20")
+    int minimumRequests;
+
+    @ConfigProperty(name = "app.circuit-breaker.window", defaultValue = "PT10S")
+    Duration window;
+
+    @ConfigProperty(name = "app.circuit-breaker.open-duration", defaultValue = "PT30S")
+    Duration openDuration;
+
+    @Inject
+    ContainerRegistry containerRegistry;
+
+    @Inject
+    MetricRegistry metricRegistry;
+
+    private final Map<String, Breaker> breakers = new ConcurrentHashMap<>();
+    private final LongAdder rejected = new LongAdder();
+
+    @PostConstruct
+    void init() {
+        containerRegistry.addRemovalListener(this::remove);
+        metricRegistry.register(Metadata.builder().withName("circuit.breaker.rejected").withType(MetricType.GAUGE)
+                .withDescription("Number of requests rejected by an open circuit breaker").build(),
+                (Gauge<Long>) rejected::sum);
+    }
+
+    /**
+     * コンテナのサーキット・ブレーカーを通して call を実行
+     *
+     * @return OPEN の場合は OpenException で失敗する Mono
+     */
+    public <T> Mono<T> protect(String databaseName, String containerName, Mono<T> call) {
+        if (!enabled) {
+            return call;
+        }
+        Breaker breaker = breaker(databaseName, containerName);
+        return Mono.defer(() -> {
+            if (!breaker.tryAcquire()) {
+                rejected.increment();
+                return Mono.error(new OpenException(breaker.name, breaker.retryAfter()));
+            }
+            return call.doOnSuccess(unused -> breaker.onSuccess()).doOnError(error -> onError(breaker, error))
+                    .doOnCancel(breaker::onCancel);
+        });
+    }
+
+    /**
+     * ストリーム (SSE) 用。完了を成功、エラーを失敗 (isFailure の場合) として数え、
+     * 途中でキャンセルされた場合は 1 ページでも受け取っていれば成功として数える
+     *
+     * @return OPEN の場合は OpenException で失敗する Flux
+     */
+    public <T> Flux<T> protect(String databaseName, String containerName, Flux<T> call) {
+        if (!enabled) {
+            return call;
+        }
+        Breaker breaker = breaker(databaseName, containerName);
+        return Flux.defer(() -> {
+            if (!breaker.tryAcquire()) {
+                rejected.increment();
+                return Flux.error(new OpenException(breaker.name, breaker.retryAfter()));
+            }
+            AtomicBoolean received = new AtomicBoolean();
+            return call.doOnNext(unused -> received.set(true)).doOnComplete(breaker::onSuccess)
+                    .doOnError(error -> onError(breaker, error)).doOnCancel(() -> {
+                        if (received.get()) {
+                            breaker.onSuccess();
+                        } else {
+                            breaker.onCancel();
+                        }
+                    });
+        });
+    }
+
+    private static void onError(Breaker breaker, Throwable error) {
+        if (isFailure(error)) {
+            breaker.onFailure();
+        } else {
+            breaker.onSuccess();
+        }
+    }
+
+    static boolean isFailure(Throwable error) {
+        if (error instanceof CosmosException) {
+            int statusCode = ((CosmosException) error).getStatusCode();
+            return statusCode == 408 || statusCode == 429 || statusCode >= 500;
+        }
+        return error instanceof TimeoutException;
+    }
+
+    State state(String databaseName, String containerName) {
+        Breaker breaker = breakers.get(databaseName + "/" + containerName);
+        return breaker != null ? breaker.state() : null;
+    }
+
+    private Breaker breaker(String databaseName, String containerName) {
+        String name = databaseName + "/" + containerName;
+        Breaker breaker = breakers.get(name);
+        if (breaker != null) {
+            return breaker;
+        }
+        // ContainerRegistry の LRU に登録してから作成し、LRU から削除された時に remove で破棄する
+        containerRegistry.track(databaseName, containerName);
+        Breaker created = breakers.computeIfAbsent(name, key -> {
+            Breaker newBreaker = new Breaker(key, failureRateThreshold, minimumRequests, window, openDuration,
+                    System::nanoTime);
+            metricRegistry.register(Metadata.builder().withName(STATE_METRIC).withType(MetricType.GAUGE)
+                    .withDescription("Circuit breaker state (0 = closed, 1 = half-open, 2 = open)").build(),
+                    (Gauge<Integer>) () -> newBreaker.state().ordinal(), new Tag("container", key));
+            return newBreaker;
+        });
+        // 作成する間に LRU から削除された場合は残さない (このリクエストだけは作成したブレーカーを使う)
+        if (!containerRegistry.isCached(databaseName, containerName)) {
+            remove(databaseName, containerName);
+        }
+        return created;
+    }
+
+    private void remove(String databaseName, String containerName) {
+        String name = databaseName + "/" + containerName;
+        if (breakers.remove(name) != null) {
+            metricRegistry.remove(new MetricID(STATE_METRIC, new Tag("container", name)));
+        }
+    }
+
+    enum State {
+        CLOSED, HALF_OPEN, OPEN
+    }
+
+    /**
+     * 1 コンテナの状態 (状態の遷移は synchronized)
+     */
+    static final class Breaker {
+        private final String name;
+        private final double failureRateThreshold;
+        private final int minimumRequests;
+        private final long windowNanos;
+        private final long openNanos;
+        private final LongSupplier clock;
+
+        private State state = State.CLOSED;
+        private long windowStart;
+        private int successes;
+        private int failures;
+        private long openedAt;
+        private boolean probing;
+
+        Breaker(String name, double failureRateThreshold, int minimumRequests, Duration window,
+                Duration openDuration, LongSupplier clock) {
+            this.name = name;
+            this.failureRateThreshold = failureRateThreshold;
+            this.minimumRequests = minimumRequests;
+            this.windowNanos = window.toNanos();
+            this.openNanos = openDuration.toNanos();
+            this.clock = clock;
+            this.windowStart = clock.getAsLong();
+        }
+
+        synchronized State state() {
+            return state;
+        }
+
+        /**
+         * @return リクエストを送信してよい場合は true (HALF_OPEN では試しの 1 件のみ)
+         */
+        synchronized boolean tryAcquire() {
+            switch (state) {
+                case OPEN:
+                    if (clock.getAsLong() - openedAt < openNanos) {
+                        return false;
+                    }
+                    state = State.HALF_OPEN;
+                    probing = true;
+                    return true;
+                case HALF_OPEN:
+                    if (probing) {
+                        return false;
+                    }
+                    probing = true;
+                    return true;
+                default:
+                    return true;
+            }
+        }
+
+        synchronized void onSuccess() {
+            if (state == State.HALF_OPEN) {
+                LOGGER.info("CIRCUIT CLOSED: " + name);
+                state = State.CLOSED;
+                probing = false;
+                resetWindow(clock.getAsLong());
+                return;
+            }
+            rollWindow();
+            successes++;
+        }
+
+        synchronized void onFailure() {
+            if (state == State.HALF_OPEN) {
+                open();
+                return;
+            }
+            if (state == State.OPEN) {
+                return;
+            }
+            rollWindow();
+            failures++;
+            int total = successes + failures;
+            if (total >= minimumRequests && (double) failures / total >= failureRateThreshold) {
+                open();
+            }
+        }
+
+        /**
+         * 結果を待たずにキャンセルされた場合 (試しのリクエストであれば次のリクエストで再度試す)
+         */
+        synchronized void onCancel() {
+            if (state == State.HALF_OPEN) {
+                probing = false;
+            }
+        }
+
+        synchronized Duration retryAfter() {
+            return Duration.ofNanos(Math.max(0, openNanos - (clock.getAsLong() - openedAt)));
+        }
+
+        private void open() {
+            LOGGER.warn("CIRCUIT OPENED: " + name + " (" + failures + " failures / " + (successes + failures)
+                    + " requests)");
+            state = State.OPEN;
+            probing = false;
+            openedAt = clock.getAsLong();
+            resetWindow(openedAt);
+        }
+
+        private void rollWindow() {
+            long now = clock.getAsLong();
+            if (now - windowStart >= windowNanos) {
+                resetWindow(now);
+            }
+        }
+
+        private void resetWindow(long now) {
+            windowStart = now;
+            successes = 0;
+            failures = 0;
+        }
+    }
+
+    /**
+     * サーキット・ブレーカーが OPEN のため、リクエストを送信しなかった
+     */
+    public static final class OpenException extends RuntimeException {
+        private final Duration retryAfter;
+
+        OpenException(String name, Duration retryAfter) {
+            super("Circuit breaker is open: " + name);
+            this.retryAfter = retryAfter;
+        }
+
+        public Duration getRetryAfter() {
+            return retryAfter;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.microsoft.azure.samples.quarkus;
+
+import io.quarkus.vertx.web.RouteFilter;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.ext.web.RoutingContext;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.enterprise.context.ApplicationScoped;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 読み込み系のルートの ETag を記憶し、If-None-Match による条件付き GET に応答します。
+ *
+ * ルートはレスポンスを返す際に remember() で ETag を記録します。同じ URL に対して If-None-Match
+ * 付きのリクエストが来た場合、記録した ETag が一致し、有効期限 (app.conditional-get.ttl) 内で、
+ * かつこのアプリケーションからそのコンテナへの書き込みが無ければ、Cosmos DB に問い合わせずに 304 を返します。
+ *
+ * 他のアプリケーションやリージョンからの書き込みは検知できないため、有効期限はポーリング間隔と
+ * 許容できる古さに合わせて短く設定してください。有効期限切れの場合はルートがクエリを実行し、
+ * ETag が一致すれば 304 (ボディ無し) を返します。
+ *
+ * セッション・トークン (x-ms-session-token) のヘッダーはキーに含めます (別のセッションで記録した ETag を、
+ * 別の読み込みの 304 に使わないため)。整合性レベルは ?consistency= で指定するため、クエリ文字列としてキーに含まれます。
+ */
+
+@ApplicationScoped
+public class ConditionalGetCache {
+
+    static final String SESSION_TOKEN_HEADER = "x-ms-session-token";
+    // 読み込みの結果を変えるため、キーに含めるヘッダー
+    private static final String[] KEY_HEADERS = { SESSION_TOKEN_HEADER };
+
+    @ConfigProperty(name = "app.conditional-get.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "app.conditional-get.ttl", defaultValue = "PT10S")
+    Duration ttl;
+
+    @ConfigProperty(name = "app.conditional-get.max-entries", defaultValue = "10000")
+    int maxEntries;
+
+    // 記録した順 (有効期限は一定のため、期限の早い順でもある)。max-entries を超えた場合は最も古い記録を O(1) で削除する
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > maxEntries;
+        }
+    };
+    // コンテナ毎の世代番号 (書き込み毎に加算し、それ以前に記録した ETag を無効にする)
+    private final Map<String, AtomicLong> generations = new ConcurrentHashMap<>();
+
+    /**
+     * If-None-Match の ETag が有効期限内の記録と一致する場合は、ルートを呼ばずに 304 を返す
+     */
+    @RouteFilter(100)
+    void notModified(RoutingContext rc) {
+        HttpServerRequest request = rc.request();
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (request.method() == HttpMethod.GET && ifNoneMatch != null) {
+            String etag = freshETag(keyOf(request), ifNoneMatch);
+            if (etag != null) {
+                rc.response().setStatusCode(304).putHeader(HttpHeaders.ETAG, etag).end();
+                return;
+            }
+        }
+        rc.next();
+    }
+
+    /**
+     * @return URL (パスとクエリ文字列) と、セッション・トークンのヘッダーから作成したキー
+     */
+    static String keyOf(HttpServerRequest request) {
+        StringBuilder key = new StringBuilder(request.path());
+        String query = request.query();
+        if (query != null) {
+            key.append('?').append(query);
+        }
+        // 改行は URL とヘッダーの値に含まれないため、区切りに利用
+        for (String header : KEY_HEADERS) {
+            String value = request.getHeader(header);
+            if (value != null) {
+                key.append('\n').append(header).append(':').append(value);
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * ルートが返した ETag を記録
+     */
+    public void remember(String key, String databaseName, String containerName, String etag) {
+        if (!enabled || etag == null) {
+            return;
+        }
+        String containerKey = databaseName + "/" + containerName;
+        long now = System.nanoTime();
+        Entry entry = new Entry(etag, containerKey, generation(containerKey).get(), now);
+        synchronized (entries) {
+            // 先頭から期限切れの記録を削除 (記録した順のため、期限内の記録に達した時点で終了)
+            Iterator<Entry> oldest = entries.values().iterator();
+            while (oldest.hasNext() && now - oldest.next().createdNanos >= ttl.toNanos()) {
+                oldest.remove();
+            }
+            // 同じキーの記録は末尾 (最も新しい位置) に移す
+            entries.remove(key);
+            entries.put(key, entry);
+        }
+    }
+
+    /**
+     * コンテナへの書き込み時に呼び出し、そのコンテナについて記録した ETag を無効にする
+     */
+    public void invalidate(String databaseName, String containerName) {
+        generation(databaseName + "/" + containerName).incrementAndGet();
+    }
+
+    /**
+     * @return 有効期限内で If-None-Match と一致する記録がある場合はその ETag、無い場合は null
+     */
+    String freshETag(String key, String ifNoneMatch) {
+        Entry entry = enabled ? entry(key) : null;
+        if (entry == null || System.nanoTime() - entry.createdNanos >= ttl.toNanos()
+                || entry.generation != generation(entry.containerKey).get() || !matches(ifNoneMatch, entry.etag)) {
+            return null;
+        }
+        return entry.etag;
+    }
+
+    private Entry entry(String key) {
+        synchronized (entries) {
+            return entries.get(key);
+        }
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private AtomicLong generation(String containerKey) {
+        return generations.computeIfAbsent(containerKey, k -> new AtomicLong());
+    }
+
+    /**
+     * If-None-Match (カンマ区切りの複数指定、*, 弱い ETag W/ を含む) と ETag の比較
+     */
+    static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || etag == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String trimmed = candidate.trim();
+            if (trimmed.equals("*") || stripWeak(trimmed).equals(stripWeak(etag))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String stripWeak(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    /**
+     * 一覧の ETag (各ドキュメントの id と _etag から計算したハッシュ)
+     */
+    static String etagOf(Stream<String> parts) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        parts.forEach(part -> {
+            digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        });
+        StringBuilder builder = new StringBuilder("\"");
+        byte[] hash = digest.digest();
+        for (int i = 0; i < 16; i++) {
+            builder.append(String.format("%02x", hash[i]));
+        }
+        return builder.append('"').toString();
+    }
+
+    private static final class Entry {
+        private final String etag;
+        private final String containerKey;
+        private final long generation;
+        private final long createdNanos;
+
+        Entry(String etag, String containerKey, long generation, long createdNanos) {
+            this.etag = etag;
+            this.containerKey = containerKey;
+            this.generation = generation;
+            this.createdNanos = createdNanos;
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package com.microsoft.azure.samples.quarkus;
+
+import com.azure.cosmos.CosmosAsyncClient;
+import com.azure.cosmos.CosmosAsyncContainer;
+import com.azure.cosmos.CosmosAsyncDatabase;
+import com.azure.cosmos.CosmosException;
+import com.azure.cosmos.models.CosmosContainerProperties;
+import com.azure.cosmos.models.FeedRange;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * データベース / コンテナ毎に CosmosAsyncContainer のハンドルとメタデータをキャッシュします。
+ *
+ * ハンドル : getDatabase().getContainer() で作成したハンドルをクライアント毎に保持します
+ * (RegionalReadClients のリージョン毎のクライアントと、共有のクライアントで別のハンドル)。
+ *
+ * メタデータ : コンテナのプロパティ (パーティション・キーのパスなど) とフィード範囲を最初に必要になった時点で
+ * 1 回だけ読み込み、app.container-registry.metadata-ttl の間は Cosmos DB に問い合わせません
+ * (パーティションの分割でフィード範囲が変わるため期限を設けています。読み込みに失敗した場合はキャッシュしません)。
+ * データベースの存在確認も、存在した場合は同じ期間だけキャッシュします。
+ * データベースのハンドル (スループットやコンテナの作成、一覧用) も共有のクライアントの分を保持します。
+ *
+ * コンテナ数が app.container-registry.max-entries を超えた場合は、最後に利用した時刻の古いものから 1 割を削除します (LRU)。
+ * コンテナやデータベースを削除、変更するルートでは invalidate / invalidateDatabase を呼び出してください。
+ *
+ * container.registry.size / hits / misses / evictions : キャッシュしているコンテナ数とヒット、ミス、削除の回数
+ */
+
+@ApplicationScoped
+public class ContainerRegistry {
+
+    // 1 コンテナで保持するクライアント毎のハンドルの上限 (作り直したリージョンのクライアントのハンドルを残さない)
+    private static final int MAX_CLIENTS = 4;
+
+    @ConfigProperty(name = "app.container-registry.max-entries", defaultValue = "1000")
+    int maxEntries;
+
+    @ConfigProperty(name = "app.container-registry.metadata-ttl", defaultValue = "PT5M")
+    Duration metadataTtl;
+
+    // CosmosClientProducer で生成した共有のクライアント
+    @Inject
+    CosmosAsyncClient asyncClient;
+
+    @Inject
+    MetricRegistry metricRegistry;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // 存在を確認したデータベースと、確認の有効期限 (System.nanoTime())
+    private final Map<String, Long> databases = new ConcurrentHashMap<>();
+    private final Map<String, CosmosAsyncDatabase> databaseHandles = new ConcurrentHashMap<>();
+    private final List<BiConsumer<String, String>> removalListeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong ticks = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    @PostConstruct
+    void registerMetrics() {
+        metricRegistry.register(Metadata.builder().withName("container.registry.size").withType(MetricType.GAUGE)
+                .withDescription("Number of cached container handles").build(), (Gauge<Integer>) entries::size);
+        metricRegistry.register(Metadata.builder().withName("container.registry.hits").withType(MetricType.GAUGE)
+                .withDescription("Number of container lookups served from the cache").build(),
+                (Gauge<Long>) hits::sum);
+        metricRegistry.register(Metadata.builder().withName("container.registry.misses").withType(MetricType.GAUGE)
+                .withDescription("Number of container lookups that created a new handle").build(),
+                (Gauge<Long>) misses::sum);
+        metricRegistry.register(Metadata.builder().withName("container.registry.evictions")
+                .withType(MetricType.GAUGE).withDescription("Number of containers evicted from the cache").build(),
+                (Gauge<Long>) evictions::sum);
+    }
+
+    /**
+     * @return 共有のクライアントのコンテナのハンドル
+     */
+    public CosmosAsyncContainer container(String databaseName, String containerName) {
+        return container(asyncClient, databaseName, containerName);
+    }
+
+    /**
+     * @return client のコンテナのハンドル (RegionalReadClients.current() など)
+     */
+    public CosmosAsyncContainer container(CosmosAsyncClient client, String databaseName, String containerName) {
+        return entry(databaseName, containerName).container(client);
+    }
+
+    /**
+     * @return コンテナのプロパティとフィード範囲 (キャッシュした値、もしくは読み込んだ値を返す Mono)
+     */
+    public Mono<ContainerMetadata> metadata(String databaseName, String containerName) {
+        return entry(databaseName, containerName).metadata;
+    }
+
+    /**
+     * @return 共有のクライアントのデータベースのハンドル
+     */
+    public CosmosAsyncDatabase database(String databaseName) {
+        CosmosAsyncDatabase database = databaseHandles.get(databaseName);
+        if (database != null) {
+            return database;
+        }
+        // 存在しない名前で呼び出され続けても増え続けないよう、コンテナと同じ上限で空にする
+        if (databaseHandles.size() >= maxEntries) {
+            databaseHandles.clear();
+        }
+        return databaseHandles.computeIfAbsent(databaseName, asyncClient::getDatabase);
+    }
+
+    /**
+     * @return データベースが存在する場合は true (存在した場合は metadata-ttl の間キャッシュ)
+     */
+    public Mono<Boolean> existsDatabase(String databaseName) {
+        Long expiresAt = databases.get(databaseName);
+        if (expiresAt != null && System.nanoTime() - expiresAt < 0) {
+            return Mono.just(true);
+        }
+        return database(databaseName).read().map(response -> true)
+                .onErrorResume(error -> error instanceof CosmosException
+                        && ((CosmosException) error).getStatusCode() == 404, error -> Mono.just(false))
+                .doOnNext(exists -> {
+                    if (exists) {
+                        databases.put(databaseName, System.nanoTime() + metadataTtl.toNanos());
+                    } else {
+                        databases.remove(databaseName);
+                    }
+                });
+    }
+
+    /**
+     * コンテナを削除、作成、変更した場合に呼び出す
+     */
+    public void invalidate(String databaseName, String containerName) {
+        Entry entry = entries.remove(key(databaseName, containerName));
+        if (entry != null) {
+            notifyRemoved(entry);
+        }
+    }
+
+    /**
+     * データベースを削除した場合に呼び出す (データベースのすべてのコンテナを削除)
+     */
+    public void invalidateDatabase(String databaseName) {
+        databases.remove(databaseName);
+        databaseHandles.remove(databaseName);
+        for (Entry entry : entries.values()) {
+            if (entry.databaseName.equals(databaseName)
+                    && entries.remove(key(databaseName, entry.containerName), entry)) {
+                notifyRemoved(entry);
+            }
+        }
+    }
+
+    /**
+     * コンテナを LRU に登録 (ハンドルは利用時に作成)。
+     * コンテナ毎の状態を持つクラス (CircuitBreakers など) は、状態を作成する前に呼び出し、
+     * addRemovalListener で削除を受け取ることで、状態の数を max-entries までに制限します。
+     */
+    public void track(String databaseName, String containerName) {
+        entry(databaseName, containerName);
+    }
+
+    /**
+     * コンテナが LRU から削除された場合、もしくは invalidate された場合に (databaseName, containerName) で呼ばれる
+     */
+    public void addRemovalListener(BiConsumer<String, String> listener) {
+        removalListeners.add(listener);
+    }
+
+    boolean isCached(String databaseName, String containerName) {
+        return entries.containsKey(key(databaseName, containerName));
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private Entry entry(String databaseName, String containerName) {
+        String key = key(databaseName, containerName);
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            hits.increment();
+            entry.lastAccess = ticks.incrementAndGet();
+            return entry;
+        }
+        misses.increment();
+        entry = entries.computeIfAbsent(key, unused -> new Entry(databaseName, containerName));
+        // 追加したコンテナを削除の対象にしないよう、先に利用した時刻を記録する
+        entry.lastAccess = ticks.incrementAndGet();
+        if (entries.size() > maxEntries) {
+            evict();
+        }
+        return entry;
+    }
+
+    /*
+     * 最後に利用した時刻の古いものから削除し、max-entries の 9 割にする (削除の度に全件を並べ替えないため)
+     */
+    private synchronized void evict() {
+        int target = maxEntries - maxEntries / 10;
+        int excess = entries.size() - target;
+        if (excess <= 0) {
+            return;
+        }
+        List<Map.Entry<String, Entry>> oldest = new ArrayList<>(entries.entrySet());
+        oldest.sort(Comparator.comparingLong(mapEntry -> mapEntry.getValue().lastAccess));
+        for (Map.Entry<String, Entry> mapEntry : oldest.subList(0, Math.min(excess, oldest.size()))) {
+            if (entries.remove(mapEntry.getKey(), mapEntry.getValue())) {
+                evictions.increment();
+                notifyRemoved(mapEntry.getValue());
+            }
+        }
+    }
+
+    private void notifyRemoved(Entry entry) {
+        for (BiConsumer<String, String> listener : removalListeners) {
+            listener.accept(entry.databaseName, entry.containerName);
+        }
+    }
+
+    private static String key(String databaseName, String containerName) {
+        return databaseName + "/" + containerName;
+    }
+
+    /**
+     * 1 コンテナのハンドルとメタデータ
+     */
+    private final class Entry {
+        private final String databaseName;
+        private final String containerName;
+        private final Map<CosmosAsyncClient, CosmosAsyncContainer> handles = new ConcurrentHashMap<>();
+        private final Mono<ContainerMetadata> metadata;
+        private volatile long lastAccess;
+
+        Entry(String databaseName, String containerName) {
+            this.databaseName = databaseName;
+            this.containerName = containerName;
+            this.metadata = Mono.defer(() -> {
+                CosmosAsyncContainer container = container(asyncClient);
+                return container.read().zipWith(container.getFeedRanges(),
+                        (response, feedRanges) -> new ContainerMetadata(response.getProperties(), feedRanges));
+            }).cache(value -> metadataTtl, error -> Duration.ZERO, () -> Duration.ZERO);
+        }
+
+        CosmosAsyncContainer container(CosmosAsyncClient client) {
+            CosmosAsyncContainer container = handles.get(client);
+            if (container != null) {
+                return container;
+            }
+            if (handles.size() >= MAX_CLIENTS) {
+                handles.clear();
+            }
+            return handles.computeIfAbsent(client, unused -> (client == asyncClient
+                    ? database(databaseName) : client.getDatabase(databaseName)).getContainer(containerName));
+        }
+    }
+
+    /**
+     * コンテナのプロパティとフィード範囲
+     */
+    public static final class ContainerMetadata {
+        private final CosmosContainerProperties properties;
+        private final List<FeedRange> feedRanges;
+
+        ContainerMetadata(CosmosContainerProperties properties, List<FeedRange> feedRanges) {
+            this.properties = properties;
+            this.feedRanges = feedRanges;
+        }
+
+        public CosmosContainerProperties getProperties() {
+            return properties;
+        }
+
+        /**
+         * @return パーティション・キーのパス (階層型でない場合は /lastName などの 1 つ)
+         */
+        public String getPartitionKeyPath() {
+            return properties.getPartitionKeyDefinition().getPaths().get(0);
+        }
+
+        public List<FeedRange> getFeedRanges() {
+            return feedRanges;
+        }
+    }
+}
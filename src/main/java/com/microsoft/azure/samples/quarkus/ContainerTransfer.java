@@ -0,0 +1,311 @@
+package com.microsoft.azure.samples.quarkus;
+
+import com.azure.cosmos.CosmosAsyncContainer;
+import com.azure.cosmos.models.CosmosBulkOperationResponse;
+import com.azure.cosmos.models.CosmosBulkOperations;
+import com.azure.cosmos.models.CosmosItemOperation;
+import com.azure.cosmos.models.CosmosQueryRequestOptions;
+import com.azure.cosmos.models.FeedResponse;
+import com.azure.cosmos.models.PartitionKey;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.microsoft.azure.samples.quarkus.jsonmapper.TransferResult;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+import org.eclipse.microprofile.metrics.Tag;
+import org.jboss.logging.Logger;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * コンテナのドキュメントをローカルの NDJSON (gzip) ファイルにエクスポート、もしくはファイルからインポートします。
+ *
+ * export : SELECT * のクエリを app.transfer.page-size 件のページ単位で読み込み、app.transfer.chunk-documents
+ * 件毎のファイルに書き込みます。書き込みが終わるまで次のページを要求しないため、メモリの使用量は一定です。
+ *
+ * import : ファイルを 1 行ずつ読み込み、コンテナのパーティション・キーのパスから値を取り出して upsert の
+ * バルク操作に変換します。SDK はパーティション毎に操作をまとめて並列に実行します (upsert のため再実行可能)。
+ *
+ * generate : SyntheticPersons が生成したダミー・データを、import と同じバルク操作でコンテナに書き込むか、
+ * export と同じ形式のファイルに書き込みます (後で import で何度でも同じデータを投入できます)。
+ *
+ * 進捗は transfer.documents / transfer.bytes / transfer.failed (direction=export|import|generate) のメトリクスで公開し、
+ * スループット (件/秒) は transfer.documents.per.second で直近の実行中もしくは完了した転送の値を公開します。
+ */
+
+@ApplicationScoped
+public class ContainerTransfer {
+
+    private static final Logger LOGGER = Logger.getLogger(ContainerTransfer.class);
+    private static final String QUERY_SELECT_ALL = "SELECT * FROM c";
+
+    @ConfigProperty(name = "app.transfer.directory", defaultValue = "transfer")
+    String directory;
+
+    @ConfigProperty(name = "app.transfer.page-size", defaultValue = "1000")
+    int pageSize;
+
+    @ConfigProperty(name = "app.transfer.chunk-documents", defaultValue = "100000")
+    long chunkDocuments;
+
+    @Inject
+    ContainerRegistry containerRegistry;
+
+    @Inject
+    CosmosSchedulers schedulers;
+
+    // ThroughputAutoScaler の入力としてコンテナの RU と 429 を記録
+    @Inject
+    HotPartitionDetector hotPartitionDetector;
+
+    @Inject
+    MetricRegistry metricRegistry;
+
+    private final Progress exportProgress = new Progress();
+    private final Progress importProgress = new Progress();
+    private final Progress generateProgress = new Progress();
+
+    @PostConstruct
+    void registerMetrics() {
+        register("export", exportProgress);
+        register("import", importProgress);
+        register("generate", generateProgress);
+    }
+
+    /**
+     * コンテナの全ドキュメントを app.transfer.directory/name にエクスポート
+     *
+     * @throws IllegalArgumentException 不正な名前の場合
+     */
+    public Mono<TransferResult> exportContainer(String databaseName, String containerName, String name) {
+        Path target = NdjsonFiles.resolve(Paths.get(directory), name);
+        CosmosAsyncContainer container = containerRegistry.container(databaseName, containerName);
+        String usageKey = databaseName + "/" + containerName;
+        Run run = exportProgress.start();
+
+        Flux<JsonNode> documents = container
+                .queryItems(QUERY_SELECT_ALL, new CosmosQueryRequestOptions(), JsonNode.class).byPage(pageSize)
+                .doOnNext(page -> {
+                    run.requestCharge.add(page.getRequestCharge());
+                    hotPartitionDetector.recordUsage(usageKey, page.getRequestCharge(), 200);
+                })
+                .doOnError(error -> hotPartitionDetector.recordUsageError(usageKey, error))
+                .concatMapIterable(FeedResponse::getResults).map(RawDocuments::stripSystemProperties);
+        return writeFiles(target, documents, run, "export", name)
+                .doOnSuccess(result -> LOGGER.info("EXPORT COMPLETED: " + result))
+                .doFinally(signal -> exportProgress.finish(run));
+    }
+
+    /**
+     * app.transfer.directory/name のファイルをコンテナにインポート (同じ id のドキュメントは上書き)
+     *
+     * @throws IllegalArgumentException 不正な名前の場合
+     */
+    public Mono<TransferResult> importContainer(String databaseName, String containerName, String name) {
+        Path source = NdjsonFiles.resolve(Paths.get(directory), name);
+        Run run = importProgress.start();
+
+        return Mono.fromCallable(() -> NdjsonFiles.listParts(source)).subscribeOn(schedulers.io())
+                .flatMap(files -> {
+                    Flux<JsonNode> documents = Flux.fromIterable(files).concatMap(file -> {
+                        run.bytes(run.bytes.sum() + file.toFile().length());
+                        return NdjsonFiles.read(file);
+                    }).map(RawDocuments::stripSystemProperties);
+                    return upsertAll(databaseName, containerName, documents, run)
+                            .then(Mono.fromCallable(() -> run.toResult("import", name, files.size())));
+                })
+                .doOnSuccess(result -> LOGGER.info("IMPORT COMPLETED: " + result))
+                .doFinally(signal -> importProgress.finish(run));
+    }
+
+    /**
+     * 生成したドキュメントをコンテナに書き込む (同じ id のドキュメントは上書き)
+     */
+    public Mono<TransferResult> generateInto(String databaseName, String containerName, Flux<JsonNode> documents) {
+        Run run = generateProgress.start();
+
+        return upsertAll(databaseName, containerName, documents, run)
+                .then(Mono.fromCallable(() -> run.toResult("generate", containerName, 0)))
+                .doOnSuccess(result -> LOGGER.info("GENERATE COMPLETED: " + result))
+                .doFinally(signal -> generateProgress.finish(run));
+    }
+
+    /**
+     * 生成したドキュメントを app.transfer.directory/name に書き込む (import でコンテナに投入可能)
+     *
+     * @throws IllegalArgumentException 不正な名前の場合
+     */
+    public Mono<TransferResult> generateFiles(String name, Flux<JsonNode> documents) {
+        Path target = NdjsonFiles.resolve(Paths.get(directory), name);
+        Run run = generateProgress.start();
+
+        return writeFiles(target, documents, run, "generate", name)
+                .doOnSuccess(result -> LOGGER.info("GENERATE COMPLETED: " + result))
+                .doFinally(signal -> generateProgress.finish(run));
+    }
+
+    private Mono<TransferResult> writeFiles(Path target, Flux<JsonNode> documents, Run run, String direction,
+            String name) {
+        return Mono.using(() -> new NdjsonFiles.ChunkWriter(target, chunkDocuments), writer -> documents
+                // ファイルへの書き込みが追いつくまで 1 ページ分を超えて要求しない
+                .publishOn(schedulers.io(), pageSize).doOnNext(document -> {
+                    writer.write(document);
+                    run.documents(1);
+                    if (writer.getDocuments() % pageSize == 0) {
+                        run.bytes(writer.getBytes());
+                    }
+                }).then(Mono.fromCallable(() -> {
+                    writer.close();
+                    run.bytes(writer.getBytes());
+                    return run.toResult(direction, name, writer.getFiles());
+                }))
+                // 途中のファイルが残ると、同じ名前で再実行した場合に 409 になるため削除
+                .doOnError(writer::abort), NdjsonFiles.ChunkWriter::close)
+                .subscribeOn(schedulers.io());
+    }
+
+    private Mono<Void> upsertAll(String databaseName, String containerName, Flux<JsonNode> documents, Run run) {
+        CosmosAsyncContainer container = containerRegistry.container(databaseName, containerName);
+        // パーティション・キーのパスは ContainerRegistry にキャッシュしたコンテナのプロパティから取得
+        return containerRegistry.metadata(databaseName, containerName)
+                .map(ContainerRegistry.ContainerMetadata::getPartitionKeyPath)
+                .flatMap(partitionKeyPath -> {
+                    Flux<CosmosItemOperation> operations = documents
+                            .map(document -> CosmosBulkOperations.getUpsertItemOperation(document,
+                                    partitionKeyOf(document, partitionKeyPath)))
+                            .subscribeOn(schedulers.io());
+                    return container.executeBulkOperations(operations).publishOn(schedulers.io())
+                            .doOnNext(response -> {
+                                run.record(response);
+                                hotPartitionDetector.recordUsage(databaseName + "/" + containerName, response);
+                            }).then();
+                });
+    }
+
+    /**
+     * ドキュメントからパーティション・キーの値を取り出す (パス /a/b は JSON Pointer と同じ形式)
+     */
+    static PartitionKey partitionKeyOf(JsonNode document, String partitionKeyPath) {
+        JsonNode value = document.at(partitionKeyPath);
+        if (value.isMissingNode()) {
+            return PartitionKey.NONE;
+        }
+        if (value.isNull()) {
+            return new PartitionKey(null);
+        }
+        if (value.isNumber()) {
+            return new PartitionKey(value.doubleValue());
+        }
+        if (value.isBoolean()) {
+            return new PartitionKey(value.booleanValue());
+        }
+        return new PartitionKey(value.asText());
+    }
+
+    private void register(String direction, Progress progress) {
+        Tag tag = new Tag("direction", direction);
+        metricRegistry.register(Metadata.builder().withName("transfer.documents").withType(MetricType.GAUGE)
+                .withDescription("Number of documents exported or imported").build(),
+                (Gauge<Long>) progress.documents::sum, tag);
+        metricRegistry.register(Metadata.builder().withName("transfer.bytes").withType(MetricType.GAUGE)
+                .withDescription("Compressed bytes written or read").build(), (Gauge<Long>) progress.bytes::sum, tag);
+        metricRegistry.register(Metadata.builder().withName("transfer.failed").withType(MetricType.GAUGE)
+                .withDescription("Number of documents that could not be imported").build(),
+                (Gauge<Long>) progress.failed::sum, tag);
+        metricRegistry.register(Metadata.builder().withName("transfer.documents.per.second")
+                .withType(MetricType.GAUGE)
+                .withDescription("Throughput of the running or the last completed transfer").build(),
+                (Gauge<Double>) progress::documentsPerSecond, tag);
+    }
+
+    /**
+     * 方向 (export / import) 毎の累計と、直近の転送
+     */
+    private static final class Progress {
+        private final LongAdder documents = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private volatile Run latest;
+
+        Run start() {
+            Run run = new Run(this);
+            latest = run;
+            return run;
+        }
+
+        void finish(Run run) {
+            run.finishedNanos = System.nanoTime();
+        }
+
+        double documentsPerSecond() {
+            Run run = latest;
+            return run == null ? 0 : run.documentsPerSecond();
+        }
+    }
+
+    /**
+     * 1 回の転送の進捗
+     */
+    private static final class Run {
+        private final Progress progress;
+        private final long startNanos = System.nanoTime();
+        private volatile long finishedNanos;
+        private final LongAdder documents = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final DoubleAdder requestCharge = new DoubleAdder();
+
+        Run(Progress progress) {
+            this.progress = progress;
+        }
+
+        void documents(long count) {
+            documents.add(count);
+            progress.documents.add(count);
+        }
+
+        // 累計のバイト数を設定 (差分を全体の累計に加算)
+        void bytes(long total) {
+            long delta = total - bytes.sum();
+            bytes.add(delta);
+            progress.bytes.add(delta);
+        }
+
+        void record(CosmosBulkOperationResponse<?> response) {
+            if (response.getResponse() != null) {
+                requestCharge.add(response.getResponse().getRequestCharge());
+            }
+            if (response.getResponse() != null && response.getResponse().isSuccessStatusCode()) {
+                documents(1);
+            } else {
+                LOGGER.error("IMPORT FAILED: " + response.getOperation().getId() + " "
+                        + (response.getResponse() != null ? response.getResponse().getStatusCode() : ""),
+                        response.getException());
+                failed.increment();
+                progress.failed.increment();
+            }
+        }
+
+        double documentsPerSecond() {
+            long end = finishedNanos != 0 ? finishedNanos : System.nanoTime();
+            double seconds = (end - startNanos) / 1_000_000_000.0;
+            return seconds <= 0 ? 0 : documents.sum() / seconds;
+        }
+
+        TransferResult toResult(String direction, String name, int files) {
+            long elapsedMillis = (System.nanoTime() - startNanos) / 1_000_000;
+            return new TransferResult(direction, name, files, documents.sum(), failed.sum(), bytes.sum(),
+                    requestCharge.sum(), elapsedMillis, documentsPerSecond());
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.microsoft.azure.samples.quarkus;
+
+import com.azure.cosmos.ConsistencyLevel;
+import com.azure.cosmos.CosmosAsyncClient;
+import com.azure.cosmos.CosmosClientBuilder;
+import com.azure.cosmos.DirectConnectionConfig;
+import com.azure.cosmos.GatewayConnectionConfig;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.inject.Disposes;
+import javax.enterprise.inject.Produces;
+import javax.inject.Singleton;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * アプリケーション全体で共有する CosmosAsyncClient を生成します。
+ *
+ * CosmosAsyncClient はスレッド・セーフで、内部にコネクション・プールやアドレス・キャッシュを持つため
+ * アプリケーション内で 1 インスタンスを共有します (ReactiveRouteApp, ChangeFeedForMyDocument から利用)。
+ *
+ * 接続先や接続モード、コネクション・プールの設定は application.properties の cosmos.* で指定します。
+ *
+ * CosmosAsyncClient は final クラスでプロキシを作成できないため @Singleton で生成しています。
+ */
+
+@ApplicationScoped
+public class CosmosClientProducer {
+
+    private static final Logger LOGGER = Logger.getLogger(CosmosClientProducer.class);
+
+    @ConfigProperty(name = "cosmos.endpoint")
+    String endpoint;
+
+    @ConfigProperty(name = "cosmos.key")
+    String key;
+
+    // 共有のクライアントの preferredRegions (RegionLatencyMonitor の計測対象と同じ cosmos.regions を記載順に利用)
+    @ConfigProperty(name = "cosmos.regions", defaultValue = "Japan East")
+    List<String> preferredRegions;
+
+    // パフォーマンス優先の EVENTUAL
+    @ConfigProperty(name = "cosmos.consistency-level", defaultValue = "EVENTUAL")
+    ConsistencyLevel consistencyLevel;
+
+    // true でレスポンスから作成したオブジェクトを取得可能(データ転送量を少なくするためには false の方が良く推奨)
+    // 必要な場合はリクエスト毎に CosmosItemRequestOptions で有効化する
+    @ConfigProperty(name = "cosmos.content-response-on-write", defaultValue = "false")
+    boolean contentResponseOnWrite;
+
+    /**
+     * direct : TCP で各レプリカに直接接続 (低レイテンシ)
+     *
+     * gateway : HTTPS で Gateway 経由で接続 (ファイアウォールで TCP のポートが開けられない環境向け)
+     */
+    @ConfigProperty(name = "cosmos.connection-mode", defaultValue = "direct")
+    String connectionMode;
+
+    @ConfigProperty(name = "cosmos.direct.max-connections-per-endpoint", defaultValue = "130")
+    int maxConnectionsPerEndpoint;
+
+    @ConfigProperty(name = "cosmos.direct.max-requests-per-connection", defaultValue = "30")
+    int maxRequestsPerConnection;
+
+    @ConfigProperty(name = "cosmos.direct.connect-timeout", defaultValue = "PT5S")
+    Duration connectTimeout;
+
+    @ConfigProperty(name = "cosmos.direct.idle-connection-timeout", defaultValue = "PT0S")
+    Duration directIdleConnectionTimeout;
+
+    @ConfigProperty(name = "cosmos.direct.network-request-timeout", defaultValue = "PT5S")
+    Duration networkRequestTimeout;
+
+    @ConfigProperty(name = "cosmos.gateway.max-connection-pool-size", defaultValue = "1000")
+    int maxConnectionPoolSize;
+
+    @ConfigProperty(name = "cosmos.gateway.idle-connection-timeout", defaultValue = "PT60S")
+    Duration gatewayIdleConnectionTimeout;
+
+    @Produces
+    @Singleton
+    public CosmosAsyncClient createAsyncClient() {
+        return buildAsyncClient(preferredRegions);
+    }
+
+    /**
+     * 指定したリージョンの優先順位でクライアントを生成 (RegionalReadClients から読み込み専用のクライアントの生成に利用)
+     *
+     * @param regions 優先するリージョンの順のリスト
+     * @return 新しい CosmosAsyncClient (呼び出し側でクローズする)
+     */
+    public CosmosAsyncClient buildAsyncClient(List<String> regions) {
+        CosmosClientBuilder builder = new CosmosClientBuilder().endpoint(endpoint).key(key)
+                .preferredRegions(regions).consistencyLevel(consistencyLevel)
+                .contentResponseOnWriteEnabled(contentResponseOnWrite);
+
+        if ("gateway".equalsIgnoreCase(connectionMode)) {
+            GatewayConnectionConfig gatewayConfig = GatewayConnectionConfig.getDefaultConfig();
+            gatewayConfig.setMaxConnectionPoolSize(maxConnectionPoolSize);
+            gatewayConfig.setIdleConnectionTimeout(gatewayIdleConnectionTimeout);
+            builder.gatewayMode(gatewayConfig);
+            LOGGER.info("COSMOS CLIENT (GATEWAY MODE): " + gatewayConfig + " " + regions);
+        } else {
+            DirectConnectionConfig directConfig = DirectConnectionConfig.getDefaultConfig();
+            directConfig.setMaxConnectionsPerEndpoint(maxConnectionsPerEndpoint);
+            directConfig.setMaxRequestsPerConnection(maxRequestsPerConnection);
+            directConfig.setConnectTimeout(connectTimeout);
+            directConfig.setIdleConnectionTimeout(directIdleConnectionTimeout);
+            directConfig.setNetworkRequestTimeout(networkRequestTimeout);
+            builder.directMode(directConfig);
+            LOGGER.info("COSMOS CLIENT (DIRECT MODE): " + directConfig + " " + regions);
+        }
+        return builder.buildAsyncClient();
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public List<String> getPreferredRegions() {
+        return preferredRegions;
+    }
+
+    /**
+     * Before shutdown the Application This will close the connection of Azure
+     * Cosmos DB
+     */
+    public void closeAsyncClient(@Disposes CosmosAsyncClient asyncClient) {
+        asyncClient.close();
+    }
+}
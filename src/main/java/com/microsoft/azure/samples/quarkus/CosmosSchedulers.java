@@ -0,0 +1,250 @@
+package com.microsoft.azure.samples.quarkus;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+import org.eclipse.microprofile.metrics.Tag;
+import org.jboss.logging.Logger;
+import reactor.core.scheduler.NonBlocking;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * アプリケーション内で利用する Scheduler を一元管理します。
+ *
+ * Cosmos DB のレスポンスを受け取った後の処理を Vert.x のイベント・ループや Cosmos DB の
+ * トランスポート・スレッド上で実行しないよう、用途毎に名前付きで上限付きのスレッド・プールを用意しています。
+ *
+ * cosmos-io : Cosmos DB からのレスポンス受信後の処理 (診断情報のログ出力など)
+ *
+ * cosmos-serialize : JSON-B 変換など CPU を利用する処理 (ブロッキング処理は禁止)
+ *
+ * change-feed : Change Feed Processor の起動と通知処理
+ *
+ * blocking : ブロッキングな処理 (現在は RegionalReadClients のリージョンのレイテンシ計測とクライアントの生成のみ)。
+ * app.blocking.mode=virtual を指定し仮想スレッドをサポートする JDK で実行した場合は、スレッド・プールの代わりに
+ * 仮想スレッドで実行します。Change Feed の通知は NotificationOutbox (非同期の HttpClient) で配信するため、
+ * このモードの対象ではありません
+ *
+ * キューが一杯になった場合はタスクを拒否し、遅い処理が他の HTTP リクエストを巻き込まないようにしています。
+ * 各プールのキューの長さとアクティブ・スレッド数は MicroProfile Metrics で公開します。
+ */
+
+@ApplicationScoped
+public class CosmosSchedulers {
+
+    private static final Logger LOGGER = Logger.getLogger(CosmosSchedulers.class);
+
+    @ConfigProperty(name = "app.scheduler.io.threads", defaultValue = "16")
+    int ioThreads;
+
+    @ConfigProperty(name = "app.scheduler.io.queue-size", defaultValue = "10000")
+    int ioQueueSize;
+
+    @ConfigProperty(name = "app.scheduler.serialize.threads", defaultValue = "4")
+    int serializeThreads;
+
+    @ConfigProperty(name = "app.scheduler.serialize.queue-size", defaultValue = "10000")
+    int serializeQueueSize;
+
+    @ConfigProperty(name = "app.scheduler.change-feed.threads", defaultValue = "2")
+    int changeFeedThreads;
+
+    @ConfigProperty(name = "app.scheduler.change-feed.queue-size", defaultValue = "1000")
+    int changeFeedQueueSize;
+
+    @ConfigProperty(name = "app.scheduler.blocking.threads", defaultValue = "32")
+    int blockingThreads;
+
+    @ConfigProperty(name = "app.scheduler.blocking.queue-size", defaultValue = "1000")
+    int blockingQueueSize;
+
+    /**
+     * platform : 上限付きのスレッド・プールでブロッキング処理を実行
+     *
+     * virtual : 仮想スレッドでブロッキング処理を実行 (サポートしない JDK では platform にフォールバック)
+     */
+    @ConfigProperty(name = "app.blocking.mode", defaultValue = "platform")
+    String blockingMode;
+
+    @Inject
+    MetricRegistry metricRegistry;
+
+    private BoundedPool ioPool;
+    private BoundedPool serializePool;
+    private BoundedPool changeFeedPool;
+    private BoundedPool blockingPool;
+    private ExecutorService virtualThreadExecutor;
+    private Scheduler blockingScheduler;
+
+    @PostConstruct
+    public void init() {
+        ioPool = BoundedPool.create("cosmos-io", ioThreads, ioQueueSize, false);
+        serializePool = BoundedPool.create("cosmos-serialize", serializeThreads, serializeQueueSize, true);
+        changeFeedPool = BoundedPool.create("change-feed", changeFeedThreads, changeFeedQueueSize, false);
+
+        registerMetrics(ioPool);
+        registerMetrics(serializePool);
+        registerMetrics(changeFeedPool);
+
+        Optional<ExecutorService> virtualThreads = "virtual".equalsIgnoreCase(blockingMode)
+                ? VirtualThreads.newVirtualThreadPerTaskExecutor()
+                : Optional.empty();
+        if (virtualThreads.isPresent()) {
+            virtualThreadExecutor = virtualThreads.get();
+            blockingScheduler = Schedulers.fromExecutorService(virtualThreadExecutor, "blocking-virtual");
+            LOGGER.info("SCHEDULER CREATED: blocking-virtual");
+        } else {
+            if ("virtual".equalsIgnoreCase(blockingMode)) {
+                LOGGER.warn("Virtual threads are not supported on this JDK. Fall back to the platform thread pool.");
+            }
+            blockingPool = BoundedPool.create("blocking", blockingThreads, blockingQueueSize, false);
+            blockingScheduler = blockingPool.getScheduler();
+            registerMetrics(blockingPool);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        ioPool.dispose();
+        serializePool.dispose();
+        changeFeedPool.dispose();
+        if (blockingPool != null) {
+            blockingPool.dispose();
+        }
+        if (virtualThreadExecutor != null) {
+            blockingScheduler.dispose();
+            virtualThreadExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Cosmos DB からのレスポンス受信後の処理を実行する Scheduler
+     */
+    public Scheduler io() {
+        return ioPool.getScheduler();
+    }
+
+    /**
+     * JSON-B 変換などの CPU バウンドな処理を実行する Scheduler (ブロッキング処理は禁止)
+     */
+    public Scheduler serialize() {
+        return serializePool.getScheduler();
+    }
+
+    /**
+     * Change Feed の処理を実行する Scheduler
+     */
+    public Scheduler changeFeed() {
+        return changeFeedPool.getScheduler();
+    }
+
+    /**
+     * ブロッキング処理を実行する Scheduler (app.blocking.mode により仮想スレッドかスレッド・プールかが決まる)
+     */
+    public Scheduler blocking() {
+        return blockingScheduler;
+    }
+
+    private void registerMetrics(BoundedPool pool) {
+        Tag poolTag = new Tag("pool", pool.getName());
+        metricRegistry.register(
+                Metadata.builder().withName("scheduler.queue.depth").withType(MetricType.GAUGE)
+                        .withDescription("Number of tasks waiting in the scheduler queue").build(),
+                (Gauge<Integer>) pool::getQueueDepth, poolTag);
+        metricRegistry.register(
+                Metadata.builder().withName("scheduler.active.threads").withType(MetricType.GAUGE)
+                        .withDescription("Number of threads executing tasks").build(),
+                (Gauge<Integer>) pool::getActiveCount, poolTag);
+        LOGGER.info("SCHEDULER CREATED: " + pool.getName());
+    }
+
+    /**
+     * 上限付きのスレッド・プールと、それをラップした Reactor の Scheduler の組
+     */
+    static final class BoundedPool {
+        private final String name;
+        private final ThreadPoolExecutor executor;
+        private final Scheduler scheduler;
+
+        private BoundedPool(String name, ThreadPoolExecutor executor) {
+            this.name = name;
+            this.executor = executor;
+            this.scheduler = Schedulers.fromExecutorService(executor, name);
+        }
+
+        /**
+         * @param name        スレッド名のプレフィックス兼 Scheduler 名
+         * @param threads     スレッド数
+         * @param queueSize   待ち行列の上限 (超えた場合はタスクを拒否)
+         * @param nonBlocking true の場合は Reactor の NonBlocking スレッドとして生成 (BlockHound の検出対象)
+         */
+        static BoundedPool create(String name, int threads, int queueSize, boolean nonBlocking) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(queueSize), new NamedThreadFactory(name, nonBlocking),
+                    new ThreadPoolExecutor.AbortPolicy());
+            executor.allowCoreThreadTimeOut(true);
+            return new BoundedPool(name, executor);
+        }
+
+        String getName() {
+            return name;
+        }
+
+        Scheduler getScheduler() {
+            return scheduler;
+        }
+
+        int getQueueDepth() {
+            return executor.getQueue().size();
+        }
+
+        int getActiveCount() {
+            return executor.getActiveCount();
+        }
+
+        void dispose() {
+            scheduler.dispose();
+            executor.shutdown();
+        }
+    }
+
+    private static final class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final boolean nonBlocking;
+        private final AtomicInteger counter = new AtomicInteger();
+
+        NamedThreadFactory(String prefix, boolean nonBlocking) {
+            this.prefix = prefix;
+            this.nonBlocking = nonBlocking;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            String threadName = prefix + "-" + counter.incrementAndGet();
+            Thread thread = nonBlocking ? new NonBlockingThread(runnable, threadName) : new Thread(runnable, threadName);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    private static final class NonBlockingThread extends Thread implements NonBlocking {
+        NonBlockingThread(Runnable runnable, String name) {
+            super(runnable, name);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.microsoft.azure.samples.quarkus;
+
+import io.quarkus.runtime.StartupEvent;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.health.HealthCheck;
+import org.eclipse.microprofile.health.HealthCheckResponse;
+import org.eclipse.microprofile.health.Readiness;
+import org.jboss.logging.Logger;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 起動時に、設定したコンテナへのコネクションを事前に確立し、アドレス・キャッシュを初期化します。
+ *
+ * デプロイ直後の最初のリクエストでアドレス解決やコネクション確立の待ち時間が発生しないよう、
+ * openConnectionsAndInitCaches() が完了するまで Readiness は DOWN を返します。
+ * 同時に ContainerRegistry にコンテナのメタデータ (パーティション・キーのパスなど) を読み込みます。
+ *
+ * 対象のコンテナは cosmos.warm-up.containers に DB名/コンテナ名 をカンマ区切りで指定します。
+ * 例) cosmos.warm-up.containers=PERSON_DB/personmanage,MESSAGES/message
+ *
+ * curl -X GET http://localhost:8080/health/ready
+ */
+
+@Readiness
+@ApplicationScoped
+public class CosmosWarmUp implements HealthCheck {
+
+    private static final Logger LOGGER = Logger.getLogger(CosmosWarmUp.class);
+
+    private enum State {
+        RUNNING, COMPLETED, FAILED
+    }
+
+    @ConfigProperty(name = "cosmos.warm-up.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "cosmos.warm-up.containers")
+    Optional<List<String>> containers;
+
+    @ConfigProperty(name = "cosmos.warm-up.timeout", defaultValue = "PT60S")
+    Duration timeout;
+
+    @Inject
+    ContainerRegistry containerRegistry;
+
+    @Inject
+    CosmosSchedulers schedulers;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.RUNNING);
+
+    void onStart(@Observes StartupEvent event) {
+        List<String> targets = containers.orElse(Collections.emptyList());
+        if (!enabled || targets.isEmpty()) {
+            state.set(State.COMPLETED);
+            return;
+        }
+
+        Flux.fromIterable(targets).flatMap(this::openConnections).then().timeout(timeout)
+                .subscribeOn(schedulers.io())
+                .subscribe(unused -> {
+                }, error -> {
+                    // ウォームアップに失敗しても通常のリクエスト時に接続するため、Readiness は UP にする
+                    LOGGER.warn("FAILED to warm up Cosmos DB connections", error);
+                    state.set(State.FAILED);
+                }, () -> {
+                    LOGGER.info("COMPLETES SUCCESSFULLY to warm up Cosmos DB connections: " + targets);
+                    state.set(State.COMPLETED);
+                });
+    }
+
+    private Mono<Void> openConnections(String target) {
+        String[] names = target.trim().split("/");
+        if (names.length != 2) {
+            return Mono.error(new IllegalArgumentException("Invalid cosmos.warm-up.containers entry: " + target));
+        }
+        return containerRegistry.container(names[0], names[1]).openConnectionsAndInitCaches()
+                .then(containerRegistry.metadata(names[0], names[1]))
+                .doOnSuccess(unused -> LOGGER.info("OPENED CONNECTIONS: " + target)).then();
+    }
+
+    @Override
+    public HealthCheckResponse call() {
+        State current = state.get();
+        return HealthCheckResponse.named("cosmos-warm-up").state(current != State.RUNNING)
+                .withData("state", current.name()).build();
+    }
+}
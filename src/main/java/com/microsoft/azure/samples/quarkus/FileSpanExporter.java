@@ -0,0 +1,112 @@
+package com.microsoft.azure.samples.quarkus;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import org.jboss.logging.Logger;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+
+/**
+ * 終了したスパンを 1 行に 1 つの JSON (NDJSON) でファイルに追記する SpanExporter (オフラインでの分析用)。
+ *
+ * ファイルが maxFileSize を超えた場合は、.1 を付けた名前に移動して新しいファイルに書き込みます
+ * (ディスクの使用量は最大で maxFileSize の 2 倍程度)。
+ *
+ * BatchSpanProcessor の 1 つのスレッドから呼ばれますが、shutdown() との競合を避けるため synchronized にしています。
+ */
+
+final class FileSpanExporter implements SpanExporter {
+
+    private static final Logger LOGGER = Logger.getLogger(FileSpanExporter.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final Path file;
+    private final long maxFileSize;
+    private BufferedWriter writer;
+    private boolean closed;
+
+    FileSpanExporter(Path file, long maxFileSize) {
+        this.file = file;
+        this.maxFileSize = maxFileSize;
+    }
+
+    @Override
+    public synchronized CompletableResultCode export(Collection<SpanData> spans) {
+        if (closed) {
+            return CompletableResultCode.ofFailure();
+        }
+        try {
+            if (writer == null) {
+                open();
+            }
+            for (SpanData span : spans) {
+                writer.write(MAPPER.writeValueAsString(toJson(span)));
+                writer.write('\n');
+            }
+            writer.flush();
+            if (Files.size(file) >= maxFileSize) {
+                writer.close();
+                writer = null;
+                Files.move(file, file.resolveSibling(file.getFileName() + ".1"),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+            return CompletableResultCode.ofSuccess();
+        } catch (IOException e) {
+            LOGGER.error("SPAN EXPORT FAILED: " + file, e);
+            return CompletableResultCode.ofFailure();
+        }
+    }
+
+    @Override
+    public CompletableResultCode flush() {
+        return CompletableResultCode.ofSuccess();
+    }
+
+    @Override
+    public synchronized CompletableResultCode shutdown() {
+        closed = true;
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                return CompletableResultCode.ofFailure();
+            }
+        }
+        return CompletableResultCode.ofSuccess();
+    }
+
+    private void open() throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND);
+    }
+
+    static ObjectNode toJson(SpanData span) {
+        ObjectNode node = MAPPER.createObjectNode();
+        node.put("traceId", span.getTraceId());
+        node.put("spanId", span.getSpanId());
+        if (span.getParentSpanContext().isValid()) {
+            node.put("parentSpanId", span.getParentSpanId());
+        }
+        node.put("name", span.getName());
+        node.put("kind", span.getKind().name());
+        node.put("startEpochNanos", span.getStartEpochNanos());
+        node.put("durationMicros", (span.getEndEpochNanos() - span.getStartEpochNanos()) / 1000);
+        node.put("status", span.getStatus().getStatusCode().name());
+        ObjectNode attributes = node.putObject("attributes");
+        span.getAttributes().forEach((key, value) -> attributes.putPOJO(key.getKey(), value));
+        return node;
+    }
+}
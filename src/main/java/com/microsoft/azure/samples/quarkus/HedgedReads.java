@@ -0,0 +1,195 @@
+package com.microsoft.azure.samples.quarkus;
+
+import com.azure.cosmos.CosmosAsyncClient;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 冪等な読み込みのヘッジ (app.hedge.enabled=true の場合)。
+ *
+ * 読み込みのレスポンスが直近のレイテンシの app.hedge.percentile (例えば p95) を過ぎても返らない場合、
+ * RegionalReadClients.secondary() (2 番目のリージョンを優先するクライアント) で同じ読み込みを送信し、
+ * 先に値を返した方を採用します。リージョンが 1 つの場合も、EVENTUAL / SESSION の読み込みは SDK が
+ * レプリカを選ぶため、遅いレプリカを避けられる可能性があります。
+ *
+ * ヘッジは RU を余分に消費し、障害時には負荷を増やすため、送信数を読み込みの app.hedge.max-rate (例えば 10%)
+ * までに制限します (読み込み毎に max-rate 個のトークンを貯め、ヘッジ毎に 1 個使うトークン・バケット)。
+ *
+ * read.hedge.sent / read.hedge.won : ヘッジを送信した回数 / ヘッジが先に返った回数
+ *
+ * read.hedge.rate : 読み込みに対するヘッジの割合 / read.hedge.delay : 現在のヘッジまでの待ち時間 (ミリ秒)
+ */
+
+@ApplicationScoped
+public class HedgedReads {
+
+    // この件数のレイテンシを記録するまでは app.hedge.initial-delay で待つ
+    private static final int MIN_SAMPLES = 100;
+    private static final int WINDOW = 1024;
+    // トークンの上限 (一度に送信できるヘッジの数)
+    private static final double MAX_TOKENS = 10;
+
+    @ConfigProperty(name = "app.hedge.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @ConfigProperty(name = "app.hedge.percentile", defaultValue = "0.95")
+    double percentile;
+
+    @ConfigProperty(name = "app.hedge.initial-delay", defaultValue = "PT0.1S")
+    Duration initialDelay;
+
+    @ConfigProperty(name = "app.hedge.min-delay", defaultValue = "PT0.005S")
+    Duration minDelay;
+
+    @ConfigProperty(name = "app.hedge.max-rate", defaultValue = "0.1")
+    double maxRate;
+
+    @Inject
+    RegionalReadClients readClients;
+
+    @Inject
+    MetricRegistry metricRegistry;
+
+    private final LatencyWindow latencies = new LatencyWindow(WINDOW);
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder won = new LongAdder();
+    private double tokens = MAX_TOKENS;
+
+    @PostConstruct
+    void registerMetrics() {
+        metricRegistry.register(Metadata.builder().withName("read.hedge.sent").withType(MetricType.GAUGE)
+                .withDescription("Number of hedged read requests sent").build(), (Gauge<Long>) sent::sum);
+        metricRegistry.register(Metadata.builder().withName("read.hedge.won").withType(MetricType.GAUGE)
+                .withDescription("Number of reads answered by the hedged request").build(), (Gauge<Long>) won::sum);
+        metricRegistry.register(Metadata.builder().withName("read.hedge.rate").withType(MetricType.GAUGE)
+                .withDescription("Hedged requests per read").build(), (Gauge<Double>) this::hedgeRate);
+        metricRegistry.register(Metadata.builder().withName("read.hedge.delay").withType(MetricType.GAUGE)
+                .withDescription("Current delay before a read is hedged in milliseconds").build(),
+                (Gauge<Long>) () -> delay().toMillis());
+    }
+
+    /**
+     * @param read クライアントから読み込みを行う Mono を作成 (ヘッジの場合は 2 回呼ばれる)
+     * @return 先に値を返した読み込みの結果 (どちらも値を返さない場合は最初の読み込みの結果)
+     */
+    public <T> Mono<T> read(Function<CosmosAsyncClient, Mono<T>> read) {
+        Mono<T> primary = Mono.defer(() -> {
+            long start = System.nanoTime();
+            return read.apply(readClients.current())
+                    .doOnSuccess(unused -> latencies.record(System.nanoTime() - start));
+        });
+        if (!enabled) {
+            return primary;
+        }
+        return Mono.defer(() -> {
+            reads.increment();
+            deposit();
+            // ヘッジと結果の判定で共有するため、最初の読み込みは 1 回だけ実行して結果を Sinks.One で共有する。
+            // cache() はキャンセルを上流に伝えないため、外側が終了もしくはキャンセルされた場合
+            // (ヘッジが先に返った場合や、RequestCancellation の切断、タイムアウト) は doFinally で読み込みを止める
+            Sinks.One<T> result = Sinks.one();
+            Disposable primaryRead = primary.subscribe(result::tryEmitValue, result::tryEmitError,
+                    result::tryEmitEmpty);
+            Mono<T> first = result.asMono();
+            Mono<T> hedge = Mono.delay(delay())
+                    .takeUntilOther(first.materialize())
+                    .filter(unused -> tryAcquire())
+                    .flatMap(unused -> {
+                        sent.increment();
+                        return read.apply(readClients.secondary()).doOnNext(value -> won.increment());
+                    });
+            // どちらも値を返さなかった場合は、最初の読み込みのエラー (もしくは空) を返す
+            return Mono.firstWithValue(first, hedge).onErrorResume(NoSuchElementException.class, error -> first)
+                    .doFinally(signal -> primaryRead.dispose());
+        });
+    }
+
+    /**
+     * @return 直近のレイテンシの percentile (min-delay 以上、件数が少ない場合は initial-delay)
+     */
+    Duration delay() {
+        long nanos = latencies.percentile(percentile, MIN_SAMPLES);
+        if (nanos < 0) {
+            return initialDelay;
+        }
+        return Duration.ofNanos(Math.max(nanos, minDelay.toNanos()));
+    }
+
+    double hedgeRate() {
+        long total = reads.sum();
+        return total == 0 ? 0 : (double) sent.sum() / total;
+    }
+
+    private synchronized void deposit() {
+        tokens = Math.min(MAX_TOKENS, tokens + maxRate);
+    }
+
+    private synchronized boolean tryAcquire() {
+        if (tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        return true;
+    }
+
+    /**
+     * 直近 size 件のレイテンシ (リング・バッファ)。パーセンタイルは 100 ミリ秒毎に再計算してキャッシュする
+     */
+    static final class LatencyWindow {
+        private static final long RECOMPUTE_NANOS = 100_000_000L;
+
+        private final long[] samples;
+        private final AtomicInteger count = new AtomicInteger();
+        private volatile long cachedAt = System.nanoTime() - RECOMPUTE_NANOS;
+        private volatile double cachedPercentile = Double.NaN;
+        private volatile long cachedValue = -1;
+
+        LatencyWindow(int size) {
+            samples = new long[size];
+        }
+
+        void record(long nanos) {
+            int index = count.getAndIncrement();
+            samples[Math.floorMod(index, samples.length)] = nanos;
+        }
+
+        /**
+         * @return パーセンタイルのレイテンシ (ナノ秒)、minSamples 件に満たない場合は -1
+         */
+        long percentile(double percentile, int minSamples) {
+            long now = System.nanoTime();
+            if (now - cachedAt < RECOMPUTE_NANOS && percentile == cachedPercentile) {
+                return cachedValue;
+            }
+            int filled = (int) Math.min(Integer.toUnsignedLong(count.get()), samples.length);
+            long value = -1;
+            if (filled >= minSamples) {
+                long[] sorted = Arrays.copyOf(samples, filled);
+                Arrays.sort(sorted);
+                int index = (int) Math.ceil(percentile * filled) - 1;
+                value = sorted[Math.max(0, Math.min(filled - 1, index))];
+            }
+            cachedValue = value;
+            cachedPercentile = percentile;
+            cachedAt = now;
+            return value;
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package com.microsoft.azure.samples.quarkus;
+
+import com.azure.cosmos.CosmosException;
+import com.azure.cosmos.models.CosmosBulkOperationResponse;
+import com.microsoft.azure.samples.quarkus.jsonmapper.PartitionSkewReport;
+import com.microsoft.azure.samples.quarkus.jsonmapper.PartitionUsage;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricID;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+import org.eclipse.microprofile.metrics.Tag;
+import org.jboss.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * パーティション・キー毎の RU 消費量と 429 (Too Many Requests) の発生状況を集計し、偏り (skew) を検出します。
+ *
+ * 書き込みやポイント・リードのレスポンス (もしくは CosmosException) から RU を記録し、
+ * app.hot-partition.window 毎に集計をリセットします。直前の集計期間の結果をレポートとして返します。
+ *
+ * パーティション・キーを特定できない処理 (クエリ、検索、エクスポート、インポート、バルク削除) の RU と 429 も
+ * recordUsage でコンテナ全体の消費量として記録します (skew には含めず、ThroughputAutoScaler の入力にします)。
+ *
+ * 集計するパーティション・キーの数は app.hot-partition.max-keys までに制限します。
+ * コンテナ毎の集計 (と partition.skew のメトリクス) は ContainerRegistry に登録したコンテナに対してのみ作成し、
+ * コンテナが LRU から削除された場合や invalidate された場合に破棄します。
+ */
+
+@ApplicationScoped
+public class HotPartitionDetector {
+
+    private static final Logger LOGGER = Logger.getLogger(HotPartitionDetector.class);
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final String SKEW_METRIC = "partition.skew";
+
+    @ConfigProperty(name = "app.hot-partition.window", defaultValue = "PT1M")
+    Duration window;
+
+    @ConfigProperty(name = "app.hot-partition.max-keys", defaultValue = "10000")
+    int maxKeys;
+
+    // skew がこの値を超えた場合に警告を出力
+    @ConfigProperty(name = "app.hot-partition.skew-threshold", defaultValue = "5.0")
+    double skewThreshold;
+
+    @Inject
+    ContainerRegistry containerRegistry;
+
+    @Inject
+    MetricRegistry metricRegistry;
+
+    private final Map<String, ContainerWindow> windows = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void init() {
+        containerRegistry.addRemovalListener(
+                (databaseName, containerName) -> remove(databaseName + "/" + containerName));
+    }
+
+    /**
+     * 成功したリクエストの RU を記録
+     */
+    public void record(String containerName, String partitionKey, double requestCharge) {
+        window(containerName).current().stats(partitionKey, maxKeys).ifPresent(stats -> {
+            stats.requests.increment();
+            stats.requestCharge.add(requestCharge);
+        });
+    }
+
+    /**
+     * 失敗したリクエストを記録 (429 の場合はスロットリングとして記録)
+     */
+    public void recordError(String containerName, String partitionKey, Throwable error) {
+        if (!(error instanceof CosmosException)) {
+            return;
+        }
+        CosmosException cosmosException = (CosmosException) error;
+        window(containerName).current().stats(partitionKey, maxKeys).ifPresent(stats -> {
+            stats.requests.increment();
+            stats.requestCharge.add(cosmosException.getRequestCharge());
+            if (cosmosException.getStatusCode() == TOO_MANY_REQUESTS) {
+                stats.throttled.increment();
+            }
+        });
+    }
+
+    /**
+     * パーティション・キーを特定できないレスポンス (クエリのページ、バルク操作の結果など) の RU を記録
+     *
+     * @param statusCode 429 の場合はスロットリングとして記録
+     */
+    public void recordUsage(String containerName, double requestCharge, int statusCode) {
+        KeyStats stats = window(containerName).current().unattributed;
+        stats.requests.increment();
+        stats.requestCharge.add(requestCharge);
+        if (statusCode == TOO_MANY_REQUESTS) {
+            stats.throttled.increment();
+        }
+    }
+
+    /**
+     * バルク操作の結果を記録 (インポートやバルク削除)
+     */
+    public void recordUsage(String containerName, CosmosBulkOperationResponse<?> response) {
+        if (response.getResponse() != null) {
+            recordUsage(containerName, response.getResponse().getRequestCharge(),
+                    response.getResponse().getStatusCode());
+        } else {
+            recordUsageError(containerName, response.getException());
+        }
+    }
+
+    /**
+     * パーティション・キーを特定できない失敗したリクエストを記録 (429 の場合はスロットリングとして記録)
+     */
+    public void recordUsageError(String containerName, Throwable error) {
+        if (error instanceof CosmosException) {
+            CosmosException cosmosException = (CosmosException) error;
+            recordUsage(containerName, cosmosException.getRequestCharge(), cosmosException.getStatusCode());
+        }
+    }
+
+    /**
+     * 直前の集計期間のコンテナ全体の消費量 (パーティション・キー毎の記録と recordUsage の合計)
+     */
+    Usage usage(String containerName) {
+        ContainerWindow containerWindow = windows.get(containerName);
+        if (containerWindow == null) {
+            return new Usage(0, 0, 0, window.getSeconds());
+        }
+        containerWindow.current();
+        return containerWindow.usage();
+    }
+
+    /**
+     * 直前の集計期間 (集計期間が一度も終了していない場合は現在の集計期間) のレポート
+     * (記録の無いコンテナの場合は空のレポート。集計は作成しない)
+     */
+    public PartitionSkewReport report(String containerName) {
+        ContainerWindow containerWindow = windows.get(containerName);
+        if (containerWindow == null) {
+            return new PartitionSkewReport(containerName, window.getSeconds(), 0, 0, Collections.emptyList());
+        }
+        containerWindow.current();
+        return containerWindow.report();
+    }
+
+    /**
+     * @param containerName DB名/コンテナ名
+     */
+    private ContainerWindow window(String containerName) {
+        ContainerWindow existing = windows.get(containerName);
+        if (existing != null) {
+            return existing;
+        }
+        // ContainerRegistry の LRU に登録してから作成し、LRU から削除された時に remove で破棄する
+        int slash = containerName.indexOf('/');
+        String databaseName = slash < 0 ? "" : containerName.substring(0, slash);
+        String name = containerName.substring(slash + 1);
+        containerRegistry.track(databaseName, name);
+        ContainerWindow created = windows.computeIfAbsent(containerName, key -> {
+            ContainerWindow containerWindow = new ContainerWindow(key);
+            metricRegistry.register(Metadata.builder().withName(SKEW_METRIC).withType(MetricType.GAUGE)
+                    .withDescription("Max partition key RU divided by mean partition key RU").build(),
+                    (Gauge<Double>) () -> containerWindow.report().getSkew(), new Tag("container", key));
+            return containerWindow;
+        });
+        // 作成する間に LRU から削除された場合は残さない
+        if (!containerRegistry.isCached(databaseName, name)) {
+            remove(containerName);
+        }
+        return created;
+    }
+
+    private void remove(String containerName) {
+        if (windows.remove(containerName) != null) {
+            metricRegistry.remove(new MetricID(SKEW_METRIC, new Tag("container", containerName)));
+        }
+    }
+
+    private static final class KeyStats {
+        private final LongAdder requests = new LongAdder();
+        private final DoubleAdder requestCharge = new DoubleAdder();
+        private final LongAdder throttled = new LongAdder();
+    }
+
+    private static final class Bucket {
+        private final Map<String, KeyStats> keys = new ConcurrentHashMap<>();
+        // recordUsage で記録したパーティション・キーを特定できない消費量
+        private final KeyStats unattributed = new KeyStats();
+
+        Optional<KeyStats> stats(String partitionKey, int maxKeys) {
+            KeyStats stats = keys.get(partitionKey);
+            if (stats == null && keys.size() >= maxKeys) {
+                return Optional.empty();
+            }
+            return Optional.of(stats != null ? stats : keys.computeIfAbsent(partitionKey, k -> new KeyStats()));
+        }
+    }
+
+    private final class ContainerWindow {
+        private final String containerName;
+        private volatile Bucket current = new Bucket();
+        private volatile Bucket previous;
+        private volatile long windowStart = System.currentTimeMillis();
+
+        ContainerWindow(String containerName) {
+            this.containerName = containerName;
+        }
+
+        Bucket current() {
+            long now = System.currentTimeMillis();
+            if (now - windowStart >= window.toMillis()) {
+                boolean rotated = false;
+                synchronized (this) {
+                    if (now - windowStart >= window.toMillis()) {
+                        previous = current;
+                        current = new Bucket();
+                        windowStart = now;
+                        rotated = true;
+                    }
+                }
+                if (rotated) {
+                    warnIfSkewed(report());
+                }
+            }
+            return current;
+        }
+
+        Usage usage() {
+            Bucket bucket = previous != null ? previous : current;
+            long requests = bucket.unattributed.requests.sum();
+            double requestCharge = bucket.unattributed.requestCharge.sum();
+            long throttled = bucket.unattributed.throttled.sum();
+            for (KeyStats stats : bucket.keys.values()) {
+                requests += stats.requests.sum();
+                requestCharge += stats.requestCharge.sum();
+                throttled += stats.throttled.sum();
+            }
+            return new Usage(requests, requestCharge, throttled, window.getSeconds());
+        }
+
+        PartitionSkewReport report() {
+            Bucket bucket = previous != null ? previous : current;
+            double total = bucket.keys.values().stream().mapToDouble(stats -> stats.requestCharge.sum()).sum();
+            List<PartitionUsage> partitions = bucket.keys.entrySet().stream().map(entry -> {
+                KeyStats stats = entry.getValue();
+                long requests = stats.requests.sum();
+                double requestCharge = stats.requestCharge.sum();
+                long throttled = stats.throttled.sum();
+                return new PartitionUsage(entry.getKey(), requests, requestCharge, throttled,
+                        requests == 0 ? 0 : (double) throttled / requests, total == 0 ? 0 : requestCharge / total);
+            }).sorted(Comparator.comparingDouble(PartitionUsage::getRequestCharge).reversed())
+                    .collect(Collectors.toList());
+
+            double skew = 0;
+            if (!partitions.isEmpty() && total > 0) {
+                double mean = total / partitions.size();
+                skew = partitions.get(0).getRequestCharge() / mean;
+            }
+            return new PartitionSkewReport(containerName, window.getSeconds(), total, skew, partitions);
+        }
+    }
+
+    /**
+     * 1 集計期間のコンテナ全体の消費量
+     */
+    static final class Usage {
+        final long requests;
+        final double requestCharge;
+        final long throttled;
+        final long windowSeconds;
+
+        Usage(long requests, double requestCharge, long throttled, long windowSeconds) {
+            this.requests = requests;
+            this.requestCharge = requestCharge;
+            this.throttled = throttled;
+            this.windowSeconds = windowSeconds;
+        }
+    }
+
+    private void warnIfSkewed(PartitionSkewReport report) {
+        if (report.getSkew() > skewThreshold) {
+            PartitionUsage hottest = report.getPartitions().get(0);
+            LOGGER.warn("HOT PARTITION DETECTED in " + report.getContainerName() + ": " + hottest.getPartitionKey()
+                    + " (skew=" + report.getSkew() + ", throttleRate=" + hottest.getThrottleRate() + ")");
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.microsoft.azure.samples.quarkus;
+
+import com.azure.cosmos.models.CompositePath;
+import com.azure.cosmos.models.CompositePathSortOrder;
+import com.azure.cosmos.models.ExcludedPath;
+import com.azure.cosmos.models.IncludedPath;
+import com.azure.cosmos.models.IndexingMode;
+import com.azure.cosmos.models.IndexingPolicy;
+import com.microsoft.azure.samples.quarkus.jsonmapper.RequestCompositePath;
+import com.microsoft.azure.samples.quarkus.jsonmapper.RequestIndexingPolicy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * RequestIndexingPolicy を Cosmos DB の IndexingPolicy に変換します。
+ *
+ * 書き込みの RU はインデックスを作成するパスの数に比例するため、検索や ORDER BY に利用しないパスは
+ * excludedPaths で除外します。複数項目の ORDER BY には compositeIndexes が必要です。
+ *
+ * lazy は Cosmos DB で非推奨のため、アカウントによっては拒否されます (400)。
+ */
+
+final class IndexingPolicies {
+
+    // _etag はインデックスに含めない (Cosmos DB のデフォルトと同じ)
+    private static final String ETAG_PATH = "/\"_etag\"/?";
+
+    private IndexingPolicies() {
+    }
+
+    /**
+     * @throws IllegalArgumentException 不正なモード、パス、並び順の場合
+     */
+    static IndexingPolicy toIndexingPolicy(RequestIndexingPolicy request) {
+        IndexingPolicy policy = new IndexingPolicy();
+        IndexingMode mode = toIndexingMode(request.getIndexingMode());
+        policy.setIndexingMode(mode);
+        policy.setAutomatic(mode != IndexingMode.NONE);
+        if (mode == IndexingMode.NONE) {
+            return policy;
+        }
+
+        List<String> included = orEmpty(request.getIncludedPaths());
+        policy.setIncludedPaths((included.isEmpty() ? Collections.singletonList("/*") : included).stream()
+                .map(path -> new IncludedPath(validPath(path))).collect(Collectors.toList()));
+
+        List<ExcludedPath> excludedPaths = orEmpty(request.getExcludedPaths()).stream()
+                .map(path -> new ExcludedPath(validPath(path))).collect(Collectors.toCollection(ArrayList::new));
+        if (excludedPaths.stream().noneMatch(path -> path.getPath().equals(ETAG_PATH) || path.getPath().equals("/*"))) {
+            excludedPaths.add(new ExcludedPath(ETAG_PATH));
+        }
+        policy.setExcludedPaths(excludedPaths);
+
+        List<List<CompositePath>> compositeIndexes = new ArrayList<>();
+        for (List<RequestCompositePath> compositeIndex : orEmpty(request.getCompositeIndexes())) {
+            if (compositeIndex == null || compositeIndex.size() < 2) {
+                throw new IllegalArgumentException("A composite index needs at least two paths");
+            }
+            compositeIndexes.add(compositeIndex.stream().map(IndexingPolicies::toCompositePath)
+                    .collect(Collectors.toList()));
+        }
+        policy.setCompositeIndexes(compositeIndexes);
+        return policy;
+    }
+
+    private static IndexingMode toIndexingMode(String mode) {
+        if (mode == null || mode.isEmpty()) {
+            return IndexingMode.CONSISTENT;
+        }
+        switch (mode.toLowerCase()) {
+        case "consistent":
+            return IndexingMode.CONSISTENT;
+        case "lazy":
+            return IndexingMode.LAZY;
+        case "none":
+            return IndexingMode.NONE;
+        default:
+            throw new IllegalArgumentException("Unknown indexing mode: " + mode);
+        }
+    }
+
+    private static CompositePath toCompositePath(RequestCompositePath request) {
+        CompositePath compositePath = new CompositePath();
+        compositePath.setPath(validPath(request.getPath()));
+        String order = request.getOrder() == null ? "ascending" : request.getOrder().toLowerCase();
+        if (order.equals("ascending")) {
+            compositePath.setOrder(CompositePathSortOrder.ASCENDING);
+        } else if (order.equals("descending")) {
+            compositePath.setOrder(CompositePathSortOrder.DESCENDING);
+        } else {
+            throw new IllegalArgumentException("Unknown composite index order: " + request.getOrder());
+        }
+        return compositePath;
+    }
+
+    private static String validPath(String path) {
+        if (path == null || !path.startsWith("/")) {
+            throw new IllegalArgumentException("Invalid index path: " + path);
+        }
+        return path;
+    }
+
+    private static <T> List<T> orEmpty(List<T> list) {
+        return list == null ? Collections.emptyList() : list;
+    }
+}
@@ -0,0 +1,310 @@
+package com.microsoft.azure.samples.quarkus;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import reactor.core.publisher.Flux;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * コンテナのエクスポート/インポート (ContainerTransfer) で利用する、gzip 圧縮した NDJSON ファイルの読み書き
+ *
+ * 1 行に 1 ドキュメントの JSON を書き込み、chunkDocuments 件毎に part-00000.ndjson.gz, part-00001.ndjson.gz ...
+ * と新しいファイルに切り替えます。読み込みはファイルを最大 Integer.MAX_VALUE バイトのウィンドウ毎に
+ * メモリ・マップし、1 行ずつ遅延して読み込むため、ファイルのサイズ (2 GiB を超える場合も) にかかわらず
+ * メモリの使用量は一定です。
+ */
+
+final class NdjsonFiles {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9._-]{1,100}");
+    private static final String PART_PREFIX = "part-";
+    private static final String PART_SUFFIX = ".ndjson.gz";
+    // MappedByteBuffer のサイズの上限
+    private static final long MAP_WINDOW_BYTES = Integer.MAX_VALUE;
+
+    private NdjsonFiles() {
+    }
+
+    /**
+     * エクスポート名からディレクトリを解決 (ディレクトリ・トラバーサルを防ぐため英数字と . _ - のみ)
+     *
+     * @throws IllegalArgumentException 不正な名前の場合
+     */
+    static Path resolve(Path baseDirectory, String name) {
+        if (name == null || !NAME.matcher(name).matches() || name.startsWith(".")) {
+            throw new IllegalArgumentException("Invalid export name: " + name);
+        }
+        return baseDirectory.resolve(name);
+    }
+
+    /**
+     * @return ディレクトリ内のファイルを番号順に (存在しない場合は NoSuchFileException)
+     */
+    static List<Path> listParts(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            throw new NoSuchFileException(directory.toString());
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(NdjsonFiles::isPart).sorted().collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * ファイルのドキュメントを 1 行ずつ遅延して読み込む (購読を終了した時点でファイルを閉じる)
+     */
+    static Flux<JsonNode> read(Path file) {
+        return read(file, MAP_WINDOW_BYTES);
+    }
+
+    static Flux<JsonNode> read(Path file, long windowBytes) {
+        return Flux.using(() -> open(file, windowBytes), reader -> Flux.fromStream(reader.lines())
+                .filter(line -> !line.isEmpty()).map(NdjsonFiles::parse), NdjsonFiles::closeQuietly);
+    }
+
+    private static BufferedReader open(Path file, long windowBytes) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            InputStream gzip = new GZIPInputStream(new MappedInputStream(channel, windowBytes), 64 * 1024);
+            return new BufferedReader(new InputStreamReader(gzip, StandardCharsets.UTF_8), 64 * 1024);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static JsonNode parse(String line) {
+        try {
+            return MAPPER.readTree(line);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static boolean isPart(Path path) {
+        String name = path.getFileName().toString();
+        return name.startsWith(PART_PREFIX) && name.endsWith(PART_SUFFIX);
+    }
+
+    private static void closeQuietly(BufferedReader reader) {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            // 読み込み専用のため無視
+        }
+    }
+
+    /**
+     * chunkDocuments 件毎にファイルを切り替えながらドキュメントを書き込む (スレッド・セーフではない)
+     */
+    static final class ChunkWriter implements AutoCloseable {
+        private final Path directory;
+        private final long chunkDocuments;
+        private OutputStream out;
+        private CountingOutputStream counter;
+        private long bytesOfClosedFiles;
+        private long documentsInFile;
+        private long documents;
+        private int files;
+
+        /**
+         * @throws FileAlreadyExistsException 既にエクスポート済みのファイルがある場合
+         */
+        ChunkWriter(Path directory, long chunkDocuments) throws IOException {
+            Files.createDirectories(directory);
+            if (!listParts(directory).isEmpty()) {
+                throw new FileAlreadyExistsException(directory.toString());
+            }
+            this.directory = directory;
+            this.chunkDocuments = chunkDocuments;
+        }
+
+        /**
+         * @throws UncheckedIOException 書き込みに失敗した場合
+         */
+        void write(JsonNode document) {
+            try {
+                if (out == null || documentsInFile >= chunkDocuments) {
+                    roll();
+                }
+                out.write(RawDocuments.toBytes(document));
+                out.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            documentsInFile++;
+            documents++;
+        }
+
+        long getDocuments() {
+            return documents;
+        }
+
+        int getFiles() {
+            return files;
+        }
+
+        /**
+         * @return 書き込んだ圧縮後のバイト数 (書き込み中のファイルはバッファ分を含まない)
+         */
+        long getBytes() {
+            return bytesOfClosedFiles + (counter == null ? 0 : counter.count);
+        }
+
+        /**
+         * 書き込みに失敗した場合に、書き込んだファイルとディレクトリを削除する (同じ名前で再実行できるように)
+         *
+         * @param cause 失敗の原因 (削除に失敗した場合は suppressed に追加)
+         */
+        void abort(Throwable cause) {
+            try {
+                closeFile();
+            } catch (IOException e) {
+                cause.addSuppressed(e);
+            }
+            out = null;
+            counter = null;
+            try {
+                for (int i = 0; i < files; i++) {
+                    Files.deleteIfExists(partFile(i));
+                }
+                // 他のファイルが有る場合は DirectoryNotEmptyException
+                Files.deleteIfExists(directory);
+            } catch (IOException e) {
+                cause.addSuppressed(e);
+            }
+        }
+
+        private Path partFile(int index) {
+            return directory.resolve(String.format("%s%05d%s", PART_PREFIX, index, PART_SUFFIX));
+        }
+
+        private void roll() throws IOException {
+            closeFile();
+            Path file = partFile(files);
+            counter = new CountingOutputStream(
+                    Files.newOutputStream(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE));
+            out = new BufferedOutputStream(new GZIPOutputStream(counter, 64 * 1024), 64 * 1024);
+            documentsInFile = 0;
+            files++;
+        }
+
+        private void closeFile() throws IOException {
+            if (out != null) {
+                out.close();
+                bytesOfClosedFiles += counter.count;
+                out = null;
+                counter = null;
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                closeFile();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /*
+     * ファイルを windowBytes 毎にメモリ・マップしながら読み込む (MappedByteBuffer は 2 GiB 未満に限られるため)
+     */
+    private static final class MappedInputStream extends InputStream {
+        private final FileChannel channel;
+        private final long size;
+        private final long windowBytes;
+        private long position;
+        private ByteBuffer buffer = ByteBuffer.allocate(0);
+
+        MappedInputStream(FileChannel channel, long windowBytes) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+            this.windowBytes = windowBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return nextWindow() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (!nextWindow()) {
+                return -1;
+            }
+            int length = Math.min(len, buffer.remaining());
+            buffer.get(b, off, length);
+            return length;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        /*
+         * @return 読み込むデータが残っている場合は true (現在のウィンドウを読み終えた場合は次をマップ)
+         */
+        private boolean nextWindow() throws IOException {
+            if (buffer.hasRemaining()) {
+                return true;
+            }
+            if (position >= size) {
+                return false;
+            }
+            long length = Math.min(windowBytes, size - position);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            position += length;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.microsoft.azure.samples.quarkus;
+
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.StatusCode;
+import io.quarkus.scheduler.Scheduled;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+import org.jboss.logging.Logger;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Change Feed の通知 (Logic App の呼び出し) を、ディスク上の Outbox (OutboxLog) を経由して配信します。
+ *
+ * Change Feed のハンドラは append() で Outbox に追記するだけで、ディスクへの書き出しが完了してから戻ります。
+ * 追記に失敗した場合は例外がハンドラから送出されるため、Change Feed の Lease のチェックポイントは進まず、
+ * 同じ変更が再度通知されます。
+ *
+ * 配信は別のパイプラインで行い、app.outbox.batch-size 件ずつ読み出して app.outbox.concurrency 並列で送信します。
+ * 先頭から連続して成功した分だけをコミットし、失敗した場合は app.outbox.retry.min-backoff から
+ * max-backoff まで間隔を倍にしながら再送します (at-least-once のため、受信側で id による重複排除が必要です)。
+ *
+ * 未配信の通知はヒープではなくディスクに保持するため、Logic App が停止していてもメモリを圧迫しません。
+ *
+ * outbox.pending : 未配信の通知数
+ *
+ * outbox.delivered / outbox.failed : 配信に成功 / 失敗した回数
+ *
+ * 配信はバッチ毎に outbox.batch、送信毎に outbox.deliver のスパンとして Tracing に記録します。
+ */
+
+@ApplicationScoped
+public class NotificationOutbox {
+
+    private static final Logger LOGGER = Logger.getLogger(NotificationOutbox.class);
+
+    @ConfigProperty(name = "app.outbox.endpoint", defaultValue = "https://LOGIC-APP.japaneast.logic.azure.com/workflows/006678******************")
+    String endpoint;
+
+    @ConfigProperty(name = "app.outbox.directory", defaultValue = "outbox")
+    String directory;
+
+    @ConfigProperty(name = "app.outbox.segment-size", defaultValue = "67108864")
+    int segmentSize;
+
+    @ConfigProperty(name = "app.outbox.batch-size", defaultValue = "100")
+    int batchSize;
+
+    @ConfigProperty(name = "app.outbox.concurrency", defaultValue = "8")
+    int concurrency;
+
+    @ConfigProperty(name = "app.outbox.request-timeout", defaultValue = "PT10S")
+    Duration requestTimeout;
+
+    @ConfigProperty(name = "app.outbox.retry.min-backoff", defaultValue = "PT1S")
+    Duration minBackoff;
+
+    @ConfigProperty(name = "app.outbox.retry.max-backoff", defaultValue = "PT1M")
+    Duration maxBackoff;
+
+    @Inject
+    CosmosSchedulers schedulers;
+
+    @Inject
+    MetricRegistry metricRegistry;
+
+    @Inject
+    Tracing tracing;
+
+    private OutboxLog log;
+    private HttpClient httpClient;
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private int consecutiveFailures;
+    private volatile long retryAt = System.nanoTime();
+
+    @PostConstruct
+    void init() {
+        open();
+        metricRegistry.register(Metadata.builder().withName("outbox.pending").withType(MetricType.GAUGE)
+                .withDescription("Number of notifications waiting in the outbox").build(), (Gauge<Long>) log::pending);
+        metricRegistry.register(Metadata.builder().withName("outbox.delivered").withType(MetricType.GAUGE)
+                .withDescription("Number of notifications delivered").build(), (Gauge<Long>) delivered::sum);
+        metricRegistry.register(Metadata.builder().withName("outbox.failed").withType(MetricType.GAUGE)
+                .withDescription("Number of failed delivery attempts").build(), (Gauge<Long>) failed::sum);
+    }
+
+    void open() {
+        try {
+            log = OutboxLog.open(Paths.get(directory), segmentSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        httpClient = HttpClient.newBuilder().connectTimeout(requestTimeout).build();
+    }
+
+    @PreDestroy
+    void close() {
+        log.close();
+    }
+
+    /**
+     * 通知をディスクに追記してから戻る (Change Feed のハンドラから呼び出す)
+     *
+     * @param messages Logic App に送信する JSON
+     * @throws UncheckedIOException 追記に失敗した場合
+     */
+    public void append(List<String> messages) {
+        Span span = tracing.startSpan("outbox.append");
+        try {
+            log.append(messages.stream().map(message -> message.getBytes(StandardCharsets.UTF_8))
+                    .collect(Collectors.toList()));
+        } finally {
+            span.end();
+        }
+    }
+
+    /**
+     * 再送の待ち時間中や配信中でなければ、バックグラウンドで配信を開始する (app.outbox.poll-interval 毎にも実行)
+     */
+    @Scheduled(every = "{app.outbox.poll-interval}")
+    public void dispatch() {
+        if (System.nanoTime() - retryAt < 0 || !draining.compareAndSet(false, true)) {
+            return;
+        }
+        drain().subscribeOn(schedulers.io()).doFinally(signal -> draining.set(false))
+                .subscribe(unused -> { }, error -> LOGGER.error("OUTBOX DISPATCH FAILED", error));
+    }
+
+    /**
+     * Outbox が空になるか、配信に失敗するまでバッチ単位で配信する
+     */
+    Mono<Void> drain() {
+        return Mono.defer(this::dispatchBatch).repeat().takeWhile(Boolean::booleanValue).then();
+    }
+
+    long pending() {
+        return log.pending();
+    }
+
+    /**
+     * @return 続けて次のバッチを配信する場合は true
+     */
+    private Mono<Boolean> dispatchBatch() {
+        List<OutboxLog.Entry> batch = log.read(batchSize);
+        if (batch.isEmpty()) {
+            return Mono.just(false);
+        }
+        Span batchSpan = tracing.startSpan("outbox.batch");
+        batchSpan.setAttribute("outbox.batch.size", batch.size());
+        return Flux.fromIterable(batch).flatMapSequential(entry -> send(entry.getRecord(), batchSpan), concurrency)
+                .takeWhile(Boolean::booleanValue).count().map(count -> {
+                    int succeeded = count.intValue();
+                    batchSpan.setAttribute("outbox.delivered", succeeded);
+                    if (succeeded > 0) {
+                        log.commit(batch.get(succeeded - 1), succeeded);
+                        delivered.add(succeeded);
+                    }
+                    if (succeeded < batch.size()) {
+                        log.rewind();
+                        Duration backoff = backoff(++consecutiveFailures, minBackoff, maxBackoff);
+                        retryAt = System.nanoTime() + backoff.toNanos();
+                        LOGGER.warn("OUTBOX DELIVERY FAILED: retry in " + backoff + " (" + log.pending() + " pending)");
+                        return false;
+                    }
+                    consecutiveFailures = 0;
+                    return true;
+                }).doFinally(signal -> batchSpan.end());
+    }
+
+    private Mono<Boolean> send(byte[] record, Span batchSpan) {
+        Span span = tracing.startSpan("outbox.deliver", batchSpan);
+        HttpRequest request = HttpRequest.newBuilder(URI.create(endpoint)).timeout(requestTimeout)
+                .header("Content-Type", "application/json").header("Accept", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(record)).build();
+        return Mono.defer(() -> Mono.fromFuture(httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())))
+                .map(response -> {
+                    span.setAttribute("http.status_code", response.statusCode());
+                    boolean success = response.statusCode() / 100 == 2;
+                    if (!success) {
+                        LOGGER.warn("NOTIFICATION REJECTED: HTTP " + response.statusCode());
+                    }
+                    return success;
+                }).onErrorResume(error -> {
+                    LOGGER.warn("NOTIFICATION FAILED: " + error);
+                    return Mono.just(false);
+                }).doOnNext(success -> {
+                    if (!success) {
+                        failed.increment();
+                        span.setStatus(StatusCode.ERROR);
+                    }
+                }).doFinally(signal -> span.end());
+    }
+
+    /**
+     * attempt 回目の失敗後の待ち時間 (min-backoff から倍にしながら max-backoff まで)
+     */
+    static Duration backoff(int attempt, Duration min, Duration max) {
+        long millis = min.toMillis() << Math.min(Math.max(attempt - 1, 0), 30);
+        return millis <= 0 || millis > max.toMillis() ? max : Duration.ofMillis(millis);
+    }
+}
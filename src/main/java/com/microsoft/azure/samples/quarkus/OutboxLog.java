@@ -0,0 +1,300 @@
+package com.microsoft.azure.samples.quarkus;
+
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * 追記専用のディスク上のログ (NotificationOutbox の永続化に利用)。
+ *
+ * segment-NNNN.log をメモリ・マップし、レコードを [長さ(int)][CRC32(int)][本文] の形式で順に追記します。
+ * 追記の最後に force() でディスクに書き出すため、append() から戻った時点でレコードは永続化済みです。
+ * セグメントに収まらない場合は終端マーカー (長さ -1) を書き込み、次のセグメントに切り替えます。
+ *
+ * 配信済みの位置は cursor ファイルに記録し、配信済みのセグメントは削除します。
+ * 起動時は cursor の位置から末尾までを走査し、CRC が一致しないレコード (書き込み途中のクラッシュ) 以降を破棄します。
+ *
+ * スレッド・セーフ (全ての操作を synchronized で直列化)。
+ */
+
+final class OutboxLog implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(OutboxLog.class);
+
+    private static final int HEADER_SIZE = 8;
+    private static final int END_OF_SEGMENT = -1;
+    private static final String CURSOR_FILE = "cursor";
+
+    private final Path directory;
+    private final int segmentSize;
+
+    private long writeSegment;
+    private MappedByteBuffer writeBuffer;
+
+    // 配信済み (コミット済み) の位置
+    private long committedSegment;
+    private int committedPosition;
+
+    // 次に読み出す位置 (配信中のレコードを含むためコミット済みの位置より先に進む)
+    private long readSegment;
+    private int readPosition;
+    private MappedByteBuffer readBuffer;
+
+    private long pending;
+
+    private OutboxLog(Path directory, int segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * ログを開く (存在しない場合は作成し、存在する場合は未配信のレコードを復元)
+     *
+     * @param segmentSize 1 セグメントのバイト数 (1 レコードの上限もこの値で決まる)
+     */
+    static OutboxLog open(Path directory, int segmentSize) throws IOException {
+        if (segmentSize < 64) {
+            throw new IllegalArgumentException("segmentSize must be at least 64 bytes: " + segmentSize);
+        }
+        Files.createDirectories(directory);
+        OutboxLog log = new OutboxLog(directory, segmentSize);
+        log.recover();
+        return log;
+    }
+
+    /**
+     * レコードを追記し、ディスクに書き出してから戻る
+     *
+     * @throws IllegalArgumentException レコードがセグメントに収まらない場合
+     * @throws UncheckedIOException     セグメントの作成に失敗した場合
+     */
+    synchronized void append(List<byte[]> records) {
+        for (byte[] record : records) {
+            if (HEADER_SIZE + record.length + Integer.BYTES > segmentSize) {
+                throw new IllegalArgumentException(
+                        "Record of " + record.length + " bytes does not fit in a segment of " + segmentSize);
+            }
+        }
+        for (byte[] record : records) {
+            if (writeBuffer.position() + HEADER_SIZE + record.length + Integer.BYTES > segmentSize) {
+                writeBuffer.putInt(writeBuffer.position(), END_OF_SEGMENT);
+                writeBuffer.force();
+                writeBuffer = map(++writeSegment, FileChannel.MapMode.READ_WRITE);
+            }
+            int position = writeBuffer.position();
+            writeBuffer.position(position + Integer.BYTES);
+            writeBuffer.putInt(checksum(record)).put(record);
+            // 長さは最後に書き込む (読み出し側は長さ 0 を未書き込みとして扱う)
+            writeBuffer.putInt(position, record.length);
+        }
+        writeBuffer.force();
+        pending += records.size();
+    }
+
+    /**
+     * 読み出し位置から最大 max 件のレコードを読み出す (読み出し位置は進むが、コミットするまで配信済みにはならない)
+     */
+    synchronized List<Entry> read(int max) {
+        List<Entry> entries = new ArrayList<>();
+        while (entries.size() < max) {
+            ByteBuffer buffer = readView();
+            if (readPosition + Integer.BYTES > segmentSize) {
+                break;
+            }
+            int length = buffer.getInt(readPosition);
+            if (length == END_OF_SEGMENT) {
+                readSegment++;
+                readPosition = 0;
+                readBuffer = null;
+                continue;
+            }
+            if (length == 0) {
+                break;
+            }
+            byte[] record = new byte[length];
+            buffer.position(readPosition + HEADER_SIZE);
+            buffer.get(record);
+            readPosition += HEADER_SIZE + length;
+            entries.add(new Entry(record, readSegment, readPosition));
+        }
+        return entries;
+    }
+
+    /**
+     * last までのレコードを配信済みにする
+     *
+     * @param count コミットするレコードの件数 (pending の計算に利用)
+     */
+    synchronized void commit(Entry last, int count) {
+        long previousSegment = committedSegment;
+        committedSegment = last.segment;
+        committedPosition = last.nextPosition;
+        pending -= count;
+        writeCursor();
+        for (long segment = previousSegment; segment < committedSegment; segment++) {
+            try {
+                Files.deleteIfExists(segmentPath(segment));
+            } catch (IOException e) {
+                LOGGER.warn("Failed to delete the delivered outbox segment: " + segmentPath(segment), e);
+            }
+        }
+    }
+
+    /**
+     * 配信に失敗した場合に、読み出し位置をコミット済みの位置に戻す
+     */
+    synchronized void rewind() {
+        if (readSegment != committedSegment) {
+            readBuffer = null;
+        }
+        readSegment = committedSegment;
+        readPosition = committedPosition;
+    }
+
+    /**
+     * 未配信のレコード数
+     */
+    synchronized long pending() {
+        return pending;
+    }
+
+    @Override
+    public synchronized void close() {
+        writeBuffer.force();
+    }
+
+    private ByteBuffer readView() {
+        if (readSegment == writeSegment) {
+            return writeBuffer.duplicate();
+        }
+        if (readBuffer == null) {
+            readBuffer = map(readSegment, FileChannel.MapMode.READ_ONLY);
+        }
+        return readBuffer.duplicate();
+    }
+
+    private void recover() throws IOException {
+        Path cursor = directory.resolve(CURSOR_FILE);
+        if (Files.exists(cursor)) {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(cursor));
+            committedSegment = buffer.getLong();
+            committedPosition = buffer.getInt();
+        } else {
+            try (Stream<Path> files = Files.list(directory)) {
+                committedSegment = files.map(path -> path.getFileName().toString())
+                        .filter(name -> name.startsWith("segment-") && name.endsWith(".log"))
+                        .mapToLong(name -> Long.parseLong(name.substring(8, name.length() - 4))).min().orElse(0);
+            }
+            committedPosition = 0;
+        }
+
+        // コミット済みの位置から末尾まで走査して、未配信の件数と書き込み位置を求める
+        long segment = committedSegment;
+        int position = committedPosition;
+        MappedByteBuffer buffer = map(segment, FileChannel.MapMode.READ_WRITE);
+        while (true) {
+            int length = position + Integer.BYTES > segmentSize ? 0 : buffer.getInt(position);
+            if (length == END_OF_SEGMENT) {
+                buffer = map(++segment, FileChannel.MapMode.READ_WRITE);
+                position = 0;
+                continue;
+            }
+            if (length <= 0 || !isValid(buffer, position, length)) {
+                if (length != 0) {
+                    LOGGER.warn("Discarding a torn outbox record at segment " + segment + " position " + position);
+                    for (int i = position; i < segmentSize; i++) {
+                        buffer.put(i, (byte) 0);
+                    }
+                    buffer.force();
+                }
+                break;
+            }
+            position += HEADER_SIZE + length;
+            pending++;
+        }
+        writeSegment = segment;
+        writeBuffer = buffer;
+        writeBuffer.position(position);
+        readSegment = committedSegment;
+        readPosition = committedPosition;
+        LOGGER.info("OUTBOX OPENED: " + directory + " (" + pending + " pending)");
+    }
+
+    private boolean isValid(ByteBuffer buffer, int position, int length) {
+        if (position + HEADER_SIZE + length > segmentSize) {
+            return false;
+        }
+        byte[] record = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(position + HEADER_SIZE);
+        view.get(record);
+        return checksum(record) == buffer.getInt(position + Integer.BYTES);
+    }
+
+    private void writeCursor() {
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES + Integer.BYTES);
+        buffer.putLong(committedSegment).putInt(committedPosition);
+        Path temporary = directory.resolve(CURSOR_FILE + ".tmp");
+        try {
+            Files.write(temporary, buffer.array());
+            Files.move(temporary, directory.resolve(CURSOR_FILE), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // 次回の起動時に配信済みのレコードを再送する (at-least-once)
+            LOGGER.warn("Failed to persist the outbox cursor", e);
+        }
+    }
+
+    private MappedByteBuffer map(long segment, FileChannel.MapMode mode) {
+        try (RandomAccessFile file = new RandomAccessFile(segmentPath(segment).toFile(),
+                mode == FileChannel.MapMode.READ_ONLY ? "r" : "rw")) {
+            if (mode != FileChannel.MapMode.READ_ONLY && file.length() < segmentSize) {
+                file.setLength(segmentSize);
+            }
+            return file.getChannel().map(mode, 0, segmentSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Path segmentPath(long segment) {
+        return directory.resolve(String.format("segment-%019d.log", segment));
+    }
+
+    private static int checksum(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * 読み出したレコードと、そのレコードの次の位置 (コミットに利用)
+     */
+    static final class Entry {
+        private final byte[] record;
+        private final long segment;
+        private final int nextPosition;
+
+        Entry(byte[] record, long segment, int nextPosition) {
+            this.record = record;
+            this.segment = segment;
+            this.nextPosition = nextPosition;
+        }
+
+        byte[] getRecord() {
+            return record;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.microsoft.azure.samples.quarkus;
+
+import com.azure.cosmos.models.PartitionKey;
+import com.microsoft.azure.samples.quarkus.jsonmapper.Person;
+import io.quarkus.runtime.StartupEvent;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * Person の合成パーティション・キーの計算
+ *
+ * lastName をそのままパーティション・キーにすると、よくある姓にデータとリクエストが集中し
+ * ホット・パーティションになるため、下記の戦略で合成したキーを partitionKey プロパティに設定します。
+ *
+ * none : 合成しない (コンテナ作成時に指定したパスをそのまま利用)
+ *
+ * hashed-suffix : lastName + "-" + (id のハッシュ値 % バケット数)。同じ姓のデータを buckets 個のパーティションに分散
+ *
+ * composite : lastName + "|" + id。ドキュメント毎に異なるキーとなり、最も均等に分散
+ *
+ * 合成キーを利用する場合は、コンテナを /partitionKey で作成します。
+ * 上記以外の値を指定した場合は、起動時に IllegalArgumentException で失敗します。
+ */
+
+@ApplicationScoped
+public class PartitionKeyStrategy {
+
+    public static final String SYNTHETIC_PARTITION_KEY_PATH = "/partitionKey";
+
+    static final String NONE = "none";
+    static final String HASHED_SUFFIX = "hashed-suffix";
+    static final String COMPOSITE = "composite";
+    private static final List<String> STRATEGIES = Arrays.asList(NONE, HASHED_SUFFIX, COMPOSITE);
+
+    @ConfigProperty(name = "app.partition-key.strategy", defaultValue = "none")
+    String strategy;
+
+    @ConfigProperty(name = "app.partition-key.buckets", defaultValue = "16")
+    int buckets;
+
+    void onStart(@Observes StartupEvent event) {
+        validate();
+    }
+
+    /**
+     * 設定値を検証 (誤った戦略のまま書き込むと、読み込み時と異なるパーティション・キーになるため起動時に失敗させる)
+     */
+    void validate() {
+        String normalized = strategy.trim().toLowerCase(Locale.ROOT);
+        if (!STRATEGIES.contains(normalized)) {
+            throw new IllegalArgumentException("Unknown app.partition-key.strategy: " + strategy
+                    + " (expected one of " + STRATEGIES + ")");
+        }
+        if (HASHED_SUFFIX.equals(normalized) && buckets <= 0) {
+            throw new IllegalArgumentException("app.partition-key.buckets must be positive: " + buckets);
+        }
+        strategy = normalized;
+    }
+
+    /**
+     * @return 合成パーティション・キーを利用する場合は true
+     */
+    public boolean isSynthetic() {
+        return !NONE.equals(strategy);
+    }
+
+    /**
+     * 書き込み前に Person に合成パーティション・キーを設定
+     */
+    public void apply(Person person) {
+        if (isSynthetic()) {
+            person.setPartitionKey(compute(person.getLastName(), person.getId()));
+        }
+    }
+
+    /**
+     * ポイント・リード用のパーティション・キー
+     *
+     * 合成キーを利用しない場合は lastName をそのままキーとします (コンテナは /lastName で作成)
+     */
+    public PartitionKey partitionKeyFor(String lastName, String id) {
+        return new PartitionKey(partitionKeyValueOf(lastName, id));
+    }
+
+    /**
+     * パーティション・キーの値 (ホット・パーティションの集計用)
+     */
+    public String partitionKeyValueOf(String lastName, String id) {
+        return isSynthetic() ? compute(lastName, id) : lastName;
+    }
+
+    /*
+     * isSynthetic() の場合のみ呼び出す (strategy は validate() で hashed-suffix か composite に限定済み)
+     */
+    String compute(String lastName, String id) {
+        if (HASHED_SUFFIX.equals(strategy)) {
+            return lastName + "-" + bucketOf(id, buckets);
+        }
+        return lastName + "|" + id;
+    }
+
+    /*
+     * JVM のバージョンやインスタンスに依存しないよう、String#hashCode ではなく CRC32 を利用
+     */
+    static int bucketOf(String id, int buckets) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(id.getBytes(StandardCharsets.UTF_8));
+        return (int) (crc32.getValue() % buckets);
+    }
+}
@@ -0,0 +1,130 @@
+package com.microsoft.azure.samples.quarkus;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.microsoft.azure.samples.quarkus.jsonmapper.Person;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.enterprise.context.ApplicationScoped;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Change Feed から差分で更新する Person の集計ビュー (lastName 毎と年齢層毎の件数)。
+ *
+ * クロス・パーティションの COUNT クエリの代わりに、ConcurrentHashMap の参照だけで件数を返します。
+ *
+ * 更新で lastName や age が変わった場合に古い値の件数を減らすため、ドキュメント毎に集計済みの値を保持します
+ * (同じドキュメントが再度通知されても件数は変わりません)。
+ */
+
+@ApplicationScoped
+public class PersonAggregateView implements PersonChangeListener {
+
+    // 年齢層の幅 (10 の場合は 0-9, 10-19, ...)
+    @ConfigProperty(name = "app.view.age-bucket-width", defaultValue = "10")
+    int ageBucketWidth;
+
+    // ドキュメントのキー (id とパーティション・キー) -> 集計済みの値
+    private final Map<String, Member> members = new ConcurrentHashMap<>();
+    private final Map<String, Long> byLastName = new ConcurrentHashMap<>();
+    private final Map<String, Long> byAgeBucket = new ConcurrentHashMap<>();
+
+    @Override
+    public String name() {
+        return "aggregate";
+    }
+
+    @Override
+    public void onChanges(List<Person> persons) {
+        for (Person person : persons) {
+            Member member = new Member(person.getLastName(), person.getAge());
+            Member previous = members.put(PersonChangeFeed.documentKey(person), member);
+            if (previous != null) {
+                decrement(byLastName, previous.lastName);
+                decrement(byAgeBucket, ageBucket(previous.age, ageBucketWidth));
+            }
+            byLastName.merge(member.lastName, 1L, Long::sum);
+            byAgeBucket.merge(ageBucket(member.age, ageBucketWidth), 1L, Long::sum);
+        }
+    }
+
+    @Override
+    public void reset() {
+        members.clear();
+        byLastName.clear();
+        byAgeBucket.clear();
+    }
+
+    // { "key": ["lastName", age], ... }
+    @Override
+    public JsonNode snapshot() {
+        ObjectNode node = JsonNodeFactory.instance.objectNode();
+        members.forEach((key, member) -> node.putArray(key).add(member.lastName).add(member.age));
+        return node;
+    }
+
+    @Override
+    public void restore(JsonNode snapshot) {
+        reset();
+        Iterator<Map.Entry<String, JsonNode>> fields = snapshot.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            Member member = new Member(field.getValue().get(0).textValue(), field.getValue().get(1).intValue());
+            members.put(field.getKey(), member);
+            byLastName.merge(member.lastName, 1L, Long::sum);
+            byAgeBucket.merge(ageBucket(member.age, ageBucketWidth), 1L, Long::sum);
+        }
+    }
+
+    public long total() {
+        return members.size();
+    }
+
+    public long countByLastName(String lastName) {
+        return byLastName.getOrDefault(lastName, 0L);
+    }
+
+    /**
+     * @return lastName 順の件数
+     */
+    public Map<String, Long> countsByLastName() {
+        return new TreeMap<>(byLastName);
+    }
+
+    /**
+     * @return 年齢層 ("20-29" など) 毎の件数 (年齢順)
+     */
+    public Map<String, Long> countsByAgeBucket() {
+        Map<String, Long> counts = new TreeMap<>((a, b) -> Integer.compare(lowerBound(a), lowerBound(b)));
+        counts.putAll(byAgeBucket);
+        return counts;
+    }
+
+    static String ageBucket(int age, int width) {
+        int lower = Math.floorDiv(age, width) * width;
+        return lower + "-" + (lower + width - 1);
+    }
+
+    private static int lowerBound(String bucket) {
+        return Integer.parseInt(bucket.substring(0, bucket.indexOf('-', 1)));
+    }
+
+    private static void decrement(Map<String, Long> counts, String key) {
+        counts.computeIfPresent(key, (unused, count) -> count <= 1 ? null : count - 1);
+    }
+
+    private static final class Member {
+        private final String lastName;
+        private final int age;
+
+        Member(String lastName, int age) {
+            this.lastName = lastName == null ? "" : lastName;
+            this.age = age;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.microsoft.azure.samples.quarkus;
+
+import com.azure.cosmos.CosmosAsyncContainer;
+import com.azure.cosmos.models.CosmosChangeFeedRequestOptions;
+import com.azure.cosmos.models.FeedRange;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.microsoft.azure.samples.quarkus.jsonmapper.Person;
+import io.quarkus.scheduler.Scheduled;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.inject.Instance;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Person のコンテナの Change Feed を読み込み、PersonChangeListener (PersonAggregateView など) に渡します。
+ *
+ * ChangeFeedForMyDocument の Change Feed Processor はチェックポイントを Lease コンテナに保存しますが、
+ * インメモリの状態はプロセス毎に持つため、ここではプル・モデル (queryChangeFeed) を利用し、継続トークンを
+ * リスナーの状態と一緒にローカルのスナップショット (app.person-feed.snapshot-path) に保存します。
+ * 起動時はスナップショットの状態と継続トークンから再開し、スナップショットが無い場合は先頭から読み込みます。
+ *
+ * 最新バージョンの Change Feed には削除が含まれないため、削除された Person は rebuild() で先頭から読み直すまで
+ * リスナーの状態に残ります。バルク削除の後は ReactiveRouteApp が rebuild() を呼び出しますが、TTL で期限切れに
+ * なった Person は検知できないため、TTL を利用する場合は定期的に view/rebuild を呼び出してください。
+ */
+
+@ApplicationScoped
+public class PersonChangeFeed {
+
+    private static final Logger LOGGER = Logger.getLogger(PersonChangeFeed.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @ConfigProperty(name = "app.person-feed.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @ConfigProperty(name = "app.person-feed.database", defaultValue = "PERSON_DB")
+    String databaseName;
+
+    @ConfigProperty(name = "app.person-feed.container", defaultValue = "personmanage")
+    String containerName;
+
+    @ConfigProperty(name = "app.person-feed.page-size", defaultValue = "1000")
+    int pageSize;
+
+    @ConfigProperty(name = "app.person-feed.snapshot-path", defaultValue = "snapshots/person-feed.json")
+    String snapshotPath;
+
+    @Inject
+    ContainerRegistry containerRegistry;
+
+    @Inject
+    CosmosSchedulers schedulers;
+
+    @Inject
+    Instance<PersonChangeListener> listeners;
+
+    private final AtomicBoolean polling = new AtomicBoolean();
+    // 状態の更新、スナップショット、再構築はこのロックで直列化
+    private final Object lock = new Object();
+    private String continuation;
+    // rebuild() の前に読み込んだページを反映しないための世代
+    private long generation;
+    private boolean dirty;
+
+    @PostConstruct
+    void init() {
+        if (enabled) {
+            restore();
+        }
+    }
+
+    /**
+     * @return このインスタンスが Change Feed を読み込んでいるコンテナの場合は true
+     */
+    public boolean isWatching(String databaseName, String containerName) {
+        return enabled && this.databaseName.equals(databaseName) && this.containerName.equals(containerName);
+    }
+
+    /**
+     * 前回の継続トークン以降の変更を読み込み、リスナーに渡す
+     */
+    @Scheduled(every = "{app.person-feed.poll-interval}")
+    void poll() {
+        if (!enabled || !polling.compareAndSet(false, true)) {
+            return;
+        }
+        long pollGeneration;
+        CosmosChangeFeedRequestOptions options;
+        synchronized (lock) {
+            pollGeneration = generation;
+            options = continuation == null
+                    ? CosmosChangeFeedRequestOptions.createForProcessingFromBeginning(FeedRange.forFullRange())
+                    : CosmosChangeFeedRequestOptions.createForProcessingFromContinuation(continuation);
+        }
+        CosmosAsyncContainer container = containerRegistry.container(databaseName, containerName);
+        container.queryChangeFeed(options, Person.class).byPage(pageSize).publishOn(schedulers.changeFeed())
+                .concatMap(page -> Mono.fromRunnable(
+                        () -> apply(pollGeneration, page.getResults(), page.getContinuationToken())))
+                .doFinally(signal -> polling.set(false))
+                .subscribe(unused -> { }, error -> LOGGER.error("PERSON CHANGE FEED FAILED", error));
+    }
+
+    /**
+     * リスナーの状態を空にして、次回の poll() で Change Feed を先頭から読み直す
+     */
+    public void rebuild() {
+        synchronized (lock) {
+            generation++;
+            continuation = null;
+            listeners.forEach(PersonChangeListener::reset);
+            dirty = true;
+        }
+        LOGGER.info("PERSON CHANGE FEED REBUILD REQUESTED");
+    }
+
+    /**
+     * リスナーの状態と継続トークンをファイルに保存 (前回から変更が無い場合は何もしない)
+     */
+    @Scheduled(every = "{app.person-feed.snapshot-interval}")
+    void snapshot() {
+        if (!enabled) {
+            return;
+        }
+        ObjectNode root = MAPPER.createObjectNode();
+        synchronized (lock) {
+            if (!dirty) {
+                return;
+            }
+            root.put("continuation", continuation);
+            ObjectNode states = root.putObject("listeners");
+            listeners.forEach(listener -> states.set(listener.name(), listener.snapshot()));
+            dirty = false;
+        }
+        Path path = Paths.get(snapshotPath);
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            MAPPER.writeValue(temporary.toFile(), root);
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to write the person change feed snapshot: " + path, e);
+            synchronized (lock) {
+                dirty = true;
+            }
+        }
+    }
+
+    /**
+     * ドキュメントを一意に識別するキー (id はパーティション・キー毎に一意)
+     */
+    static String documentKey(Person person) {
+        return person.getId() + "|" + partitionKeyValue(person);
+    }
+
+    /**
+     * ポイント・リードに利用するパーティション・キーの値 (合成キーを利用しない場合は lastName)
+     */
+    static String partitionKeyValue(Person person) {
+        return person.getPartitionKey() != null ? person.getPartitionKey() : person.getLastName();
+    }
+
+    void apply(long pollGeneration, List<Person> persons, String nextContinuation) {
+        synchronized (lock) {
+            if (pollGeneration != generation) {
+                return;
+            }
+            if (!persons.isEmpty()) {
+                listeners.forEach(listener -> listener.onChanges(persons));
+            }
+            dirty |= !persons.isEmpty() || !Objects.equals(nextContinuation, continuation);
+            continuation = nextContinuation;
+        }
+    }
+
+    private void restore() {
+        Path path = Paths.get(snapshotPath);
+        if (!Files.exists(path)) {
+            return;
+        }
+        try {
+            JsonNode root = MAPPER.readTree(path.toFile());
+            List<String> restored = new ArrayList<>();
+            synchronized (lock) {
+                JsonNode states = root.path("listeners");
+                for (PersonChangeListener listener : listeners) {
+                    if (!listener.isEnabled()) {
+                        continue;
+                    }
+                    if (!states.hasNonNull(listener.name())) {
+                        // スナップショットに無い (もしくは無効だった) リスナーがある場合は先頭から読み直す
+                        rebuild();
+                        return;
+                    }
+                    listener.restore(states.get(listener.name()));
+                    restored.add(listener.name());
+                }
+                continuation = root.path("continuation").textValue();
+            }
+            LOGGER.info("PERSON CHANGE FEED RESTORED: " + restored);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Failed to restore the person change feed snapshot. Rebuilding from the beginning", e);
+            rebuild();
+        }
+    }
+}
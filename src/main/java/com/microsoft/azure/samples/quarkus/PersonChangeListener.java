@@ -0,0 +1,49 @@
+package com.microsoft.azure.samples.quarkus;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.microsoft.azure.samples.quarkus.jsonmapper.Person;
+
+import java.util.List;
+
+/**
+ * PersonChangeFeed から Person の変更を受け取り、インメモリの状態 (ビューやインデックス) を更新します。
+ *
+ * onChanges() は 1 つのスレッドから順に呼ばれますが、読み込みは HTTP リクエストのスレッドから並行して行われるため、
+ * 実装はスレッド・セーフにします。
+ */
+public interface PersonChangeListener {
+
+    /**
+     * スナップショット内でこのリスナーの状態を識別する名前
+     */
+    String name();
+
+    /**
+     * 無効なリスナーはスナップショットからの復元の対象外
+     */
+    default boolean isEnabled() {
+        return true;
+    }
+
+    /**
+     * 変更 (作成・更新) された Person を反映 (同じ Person が再度通知される場合があるため冪等に実装する)
+     */
+    void onChanges(List<Person> persons);
+
+    /**
+     * 状態を空にする (Change Feed を先頭から読み直す前に呼ばれる)
+     */
+    void reset();
+
+    /**
+     * 現在の状態のスナップショット (呼び出し中に onChanges() は呼ばれない)
+     *
+     * 無効なリスナーは NullNode を返す (有効にした後の起動時は Change Feed を先頭から読み直す)
+     */
+    JsonNode snapshot();
+
+    /**
+     * snapshot() で保存した状態を復元
+     */
+    void restore(JsonNode snapshot);
+}
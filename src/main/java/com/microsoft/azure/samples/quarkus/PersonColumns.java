@@ -0,0 +1,129 @@
+package com.microsoft.azure.samples.quarkus;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.vertx.core.buffer.Buffer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 大量の Person をカラム (項目) 毎の配列で保持するコンテナ
+ *
+ * collectList() で List&lt;Person&gt; を作成すると、ドキュメント毎に Person オブジェクトが生成され
+ * レスポンスを書き出すまでヒープに残り続けます。ここでは id, firstName, lastName, age を
+ * それぞれ配列で保持し、ページ毎に受信したドキュメントは配列に追加した時点で不要になるようにしています。
+ *
+ * toJsonBuffer() は Person の List と同じ形式の JSON 配列を、サイズを見積もった単一の Buffer に直接書き出します。
+ *
+ * スレッド・セーフではないため、1 つのリクエストの中で逐次的に利用します。
+ */
+
+public class PersonColumns {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private String[] ids = new String[INITIAL_CAPACITY];
+    private String[] firstNames = new String[INITIAL_CAPACITY];
+    private String[] lastNames = new String[INITIAL_CAPACITY];
+    private int[] ages = new int[INITIAL_CAPACITY];
+    private int size;
+    private long estimatedBytes = 2;
+
+    /**
+     * Cosmos DB から取得したドキュメントの必要な項目だけを追加
+     */
+    public PersonColumns add(JsonNode document) {
+        return add(text(document, "id"), text(document, "firstName"), text(document, "lastName"),
+                document.path("age").asInt());
+    }
+
+    public PersonColumns add(String id, String firstName, String lastName, int age) {
+        if (size == ids.length) {
+            int capacity = size * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            firstNames = Arrays.copyOf(firstNames, capacity);
+            lastNames = Arrays.copyOf(lastNames, capacity);
+            ages = Arrays.copyOf(ages, capacity);
+        }
+        ids[size] = id;
+        firstNames[size] = firstName;
+        lastNames[size] = lastName;
+        ages[size] = age;
+        size++;
+        // {"id":"","firstName":"","lastName":"","age":},
+        estimatedBytes += 48 + length(id) + length(firstName) + length(lastName) + 11;
+        return this;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * [{"id":"...","firstName":"...","lastName":"...","age":0},...] を書き出す
+     */
+    public Buffer toJsonBuffer() {
+        Buffer buffer = Buffer.buffer((int) Math.min(Integer.MAX_VALUE, estimatedBytes));
+        buffer.appendByte((byte) '[');
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                buffer.appendByte((byte) ',');
+            }
+            buffer.appendString("{\"id\":");
+            appendJsonString(buffer, ids[i]);
+            buffer.appendString(",\"firstName\":");
+            appendJsonString(buffer, firstNames[i]);
+            buffer.appendString(",\"lastName\":");
+            appendJsonString(buffer, lastNames[i]);
+            buffer.appendString(",\"age\":").appendString(Integer.toString(ages[i])).appendByte((byte) '}');
+        }
+        buffer.appendByte((byte) ']');
+        return buffer;
+    }
+
+    private static String text(JsonNode document, String field) {
+        JsonNode node = document.get(field);
+        return node == null || node.isNull() ? null : node.asText();
+    }
+
+    private static int length(String value) {
+        return value == null ? 4 : value.length();
+    }
+
+    static void appendJsonString(Buffer buffer, String value) {
+        if (value == null) {
+            buffer.appendString("null");
+            return;
+        }
+        buffer.appendByte((byte) '"');
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\' || c < 0x20) {
+                buffer.appendBytes(value.substring(start, i).getBytes(StandardCharsets.UTF_8));
+                switch (c) {
+                    case '"':
+                        buffer.appendString("\\\"");
+                        break;
+                    case '\\':
+                        buffer.appendString("\\\\");
+                        break;
+                    case '\n':
+                        buffer.appendString("\\n");
+                        break;
+                    case '\r':
+                        buffer.appendString("\\r");
+                        break;
+                    case '\t':
+                        buffer.appendString("\\t");
+                        break;
+                    default:
+                        buffer.appendString(String.format("\\u%04x", (int) c));
+                }
+                start = i + 1;
+            }
+        }
+        buffer.appendBytes(value.substring(start).getBytes(StandardCharsets.UTF_8));
+        buffer.appendByte((byte) '"');
+    }
+}
@@ -0,0 +1,188 @@
+package com.microsoft.azure.samples.quarkus;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.microsoft.azure.samples.quarkus.jsonmapper.Person;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.enterprise.context.ApplicationScoped;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * firstName / lastName の前方一致検索用のインメモリの二次インデックス (app.search-index.enabled=true の場合のみ)。
+ *
+ * STARTSWITH のクエリは全パーティションへのファン・アウトになるため、小文字に正規化した名前の順に
+ * (id, パーティション・キー) を ConcurrentSkipListMap に保持し、前方一致の範囲を subMap() で取り出します。
+ * 検索結果はポイント・リードで取得するため、読み込みの RU はドキュメント毎に 1 RU 程度です。
+ *
+ * 初期構築は Change Feed の先頭からの読み込み (全ドキュメントの最新バージョン) で行い、その後の作成・更新も
+ * 同じ Change Feed から反映します。削除はポイント・リードの 404 で検索結果から除外します。
+ */
+
+@ApplicationScoped
+public class PersonNameIndex implements PersonChangeListener {
+
+    // 名前とドキュメントのキーの区切り (名前に含まれない文字)
+    private static final char SEPARATOR = '\u0000';
+
+    @ConfigProperty(name = "app.search-index.enabled", defaultValue = "false")
+    boolean enabled;
+
+    // "正規化した名前 + SEPARATOR + ドキュメントのキー" -> ドキュメント
+    private final NavigableMap<String, DocumentRef> byFirstName = new ConcurrentSkipListMap<>();
+    private final NavigableMap<String, DocumentRef> byLastName = new ConcurrentSkipListMap<>();
+    // ドキュメントのキー -> インデックス済みの名前 (更新時に古いエントリを削除するため)
+    private final Map<String, Indexed> documents = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public String name() {
+        return "name-index";
+    }
+
+    @Override
+    public void onChanges(List<Person> persons) {
+        if (!enabled) {
+            return;
+        }
+        for (Person person : persons) {
+            index(new DocumentRef(person.getId(), PersonChangeFeed.partitionKeyValue(person)), person.getFirstName(),
+                    person.getLastName());
+        }
+    }
+
+    @Override
+    public void reset() {
+        byFirstName.clear();
+        byLastName.clear();
+        documents.clear();
+    }
+
+    // [[id, partitionKey, firstName, lastName], ...]
+    @Override
+    public JsonNode snapshot() {
+        if (!enabled) {
+            return NullNode.getInstance();
+        }
+        ArrayNode node = JsonNodeFactory.instance.arrayNode();
+        documents.values().forEach(indexed -> node.addArray().add(indexed.ref.id).add(indexed.ref.partitionKey)
+                .add(indexed.firstName).add(indexed.lastName));
+        return node;
+    }
+
+    @Override
+    public void restore(JsonNode snapshot) {
+        reset();
+        for (JsonNode entry : snapshot) {
+            index(new DocumentRef(entry.get(0).textValue(), entry.get(1).textValue()), entry.get(2).textValue(),
+                    entry.get(3).textValue());
+        }
+    }
+
+    /**
+     * @param field  firstName | lastName
+     * @param prefix 前方一致で検索する文字列 (大文字と小文字は区別しない)
+     * @param limit  最大件数
+     * @return 名前順のドキュメント
+     * @throws IllegalArgumentException field が不正な場合
+     */
+    public List<DocumentRef> search(String field, String prefix, int limit) {
+        NavigableMap<String, DocumentRef> index;
+        if ("firstName".equals(field)) {
+            index = byFirstName;
+        } else if ("lastName".equals(field)) {
+            index = byLastName;
+        } else {
+            throw new IllegalArgumentException("field must be firstName or lastName: " + field);
+        }
+        String from = normalize(prefix);
+        List<DocumentRef> results = new ArrayList<>();
+        for (DocumentRef ref : index.subMap(from, true, from + Character.MAX_VALUE, false).values()) {
+            if (results.size() >= limit) {
+                break;
+            }
+            results.add(ref);
+        }
+        return results;
+    }
+
+    public int size() {
+        return documents.size();
+    }
+
+    private void index(DocumentRef ref, String firstName, String lastName) {
+        String documentKey = ref.id + "|" + ref.partitionKey;
+        Indexed previous = documents.put(documentKey, new Indexed(ref, firstName, lastName));
+        if (previous != null) {
+            byFirstName.remove(entryKey(previous.firstName, documentKey));
+            byLastName.remove(entryKey(previous.lastName, documentKey));
+        }
+        byFirstName.put(entryKey(firstName, documentKey), ref);
+        byLastName.put(entryKey(lastName, documentKey), ref);
+    }
+
+    private static String entryKey(String name, String documentKey) {
+        return normalize(name) + SEPARATOR + documentKey;
+    }
+
+    private static String normalize(String name) {
+        return name == null ? "" : name.toLowerCase(Locale.ROOT).replace(SEPARATOR, ' ');
+    }
+
+    /**
+     * ポイント・リードに必要な id とパーティション・キーの値
+     */
+    public static final class DocumentRef {
+        private final String id;
+        private final String partitionKey;
+
+        DocumentRef(String id, String partitionKey) {
+            this.id = id;
+            this.partitionKey = partitionKey;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getPartitionKey() {
+            return partitionKey;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof DocumentRef && Objects.equals(id, ((DocumentRef) other).id)
+                    && Objects.equals(partitionKey, ((DocumentRef) other).partitionKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(id, partitionKey);
+        }
+    }
+
+    private static final class Indexed {
+        private final DocumentRef ref;
+        private final String firstName;
+        private final String lastName;
+
+        Indexed(DocumentRef ref, String firstName, String lastName) {
+            this.ref = ref;
+            this.firstName = firstName;
+            this.lastName = lastName;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.microsoft.azure.samples.quarkus;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.vertx.core.buffer.Buffer;
+
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Cosmos DB から取得したドキュメントを Person に変換せずにレスポンスに書き出すためのユーティリティ
+ *
+ * JsonNode で受け取ったドキュメントをそのまま JSON のバイト列として Buffer に追加します。
+ * Person へのバインドと、レスポンス作成時の Person から JSON への変換の 2 回のシリアライズ処理を省略できます。
+ *
+ * stripSystemProperties が true の場合は、Cosmos DB のシステム・プロパティ (_rid, _ts, _etag など) を取り除きます。
+ */
+
+final class RawDocuments {
+
+    private static final List<String> SYSTEM_PROPERTIES = Arrays.asList("_rid", "_self", "_etag", "_attachments",
+            "_ts", "_lsn");
+    private static final ObjectWriter WRITER = new ObjectMapper().writer();
+
+    private RawDocuments() {
+    }
+
+    /**
+     * @return "[" だけを書き込んだ Buffer
+     */
+    static Buffer openArray(int initialSizeHint) {
+        return Buffer.buffer(initialSizeHint).appendByte((byte) '[');
+    }
+
+    /**
+     * JSON 配列 (openArray で作成) にドキュメントを追加
+     */
+    static Buffer append(Buffer array, JsonNode document, boolean stripSystemProperties) {
+        if (array.length() > 1) {
+            array.appendByte((byte) ',');
+        }
+        if (stripSystemProperties) {
+            stripSystemProperties(document);
+        }
+        return array.appendBytes(toBytes(document));
+    }
+
+    /**
+     * Cosmos DB のシステム・プロパティ (_rid, _ts, _etag など) を取り除く
+     */
+    static JsonNode stripSystemProperties(JsonNode document) {
+        if (document instanceof ObjectNode) {
+            ((ObjectNode) document).remove(SYSTEM_PROPERTIES);
+        }
+        return document;
+    }
+
+    static byte[] toBytes(JsonNode document) {
+        try {
+            return WRITER.writeValueAsBytes(document);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static Buffer closeArray(Buffer array) {
+        return array.appendByte((byte) ']');
+    }
+
+    /**
+     * 1 ページ分のドキュメントを JSON 配列として書き出す
+     */
+    static Buffer toJsonArray(List<JsonNode> documents, boolean stripSystemProperties) {
+        Buffer array = openArray(documents.size() * 256);
+        documents.forEach(document -> append(array, document, stripSystemProperties));
+        return closeArray(array);
+    }
+}
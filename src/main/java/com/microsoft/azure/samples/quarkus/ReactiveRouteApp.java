@@ -3,8 +3,13 @@ package com.microsoft.azure.samples.quarkus;
 import com.azure.cosmos.*;
 import com.azure.cosmos.models.*;
 import com.azure.cosmos.util.CosmosPagedFlux;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.microsoft.azure.samples.quarkus.jsonmapper.*;
 import io.quarkus.vertx.web.Body;
+import io.quarkus.vertx.web.Header;
 import io.quarkus.vertx.web.Param;
 import io.quarkus.vertx.web.ReactiveRoutes;
 import io.quarkus.vertx.web.Route;
@@ -12,16 +17,21 @@ import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
 import io.smallrye.mutiny.converters.multi.MultiReactorConverters;
 import io.smallrye.mutiny.converters.uni.UniReactorConverters;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpHeaders;
 import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.RoutingContext;
 import org.jboss.logging.Logger;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-import javax.annotation.PostConstruct;
-import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
 import javax.json.bind.Jsonb;
 import javax.json.bind.JsonbBuilder;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.NoSuchFileException;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDateTime;
@@ -30,49 +40,85 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
-import java.util.stream.IntStream;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 @ApplicationScoped
 public class ReactiveRouteApp {
     private static final Logger LOGGER = Logger.getLogger(ReactiveRouteApp.class);
 
-    // 本来は MicroProfile Config や Azure App Configuration 等を利用して
-    // 設定情報を外に書き出すべき、機密情報は Azure KeyVault に格納すべき
-    private final static String COSMOS_DB_ENDPOINT = "https://HOSTNAME-cosmosdb.documents.azure.com:443/";
-    private final static String CONNECTION_KEY_STRING = "CONNECTION-KEY-STRING-FOR_COSMOSDB";
-    private final static String LOCATION = "Japan East";
-
     private final static String QUERY_SELECT_ALL = "SELECT * FROM Person P";
     private final static String QUERY_SELECT_BY_ID = "SELECT * FROM Person P WHERE P.id = \"%s\"";
+    private final static String QUERY_SELECT_COLUMNS = "SELECT P.id, P.firstName, P.lastName, P.age FROM Person P";
     private final static String QUERY_SELECT_OFFSET_LIMIT = "SELECT * FROM Person P ORDER BY P.age OFFSET %s LIMIT 30";
 
-    private CosmosAsyncClient asyncClient;
     private final static int PREFERRED_PAGE_SIZE = 10;
+    // Cosmos DB のトランザクション・バッチの操作数の上限
+    private final static int MAX_BATCH_OPERATIONS = 100;
+    private final static int DEFAULT_SEARCH_LIMIT = 20;
+    private final static int MAX_SEARCH_LIMIT = 100;
+    private final static int SEARCH_READ_CONCURRENCY = 8;
+    private final static String HEADER_REQUEST_CHARGE = "x-ms-request-charge";
+    private final static String HEADER_SESSION_TOKEN = "x-ms-session-token";
+    private final static ObjectWriter JSON_WRITER = new ObjectMapper().writer();
 
-    /**
-     * Initialize Operation If this Application is started, This will be created the
-     * instance of Async client for Cosmos DB
-     */
+    // CosmosClientProducer で生成した共有のクライアント
+    @Inject
+    CosmosAsyncClient asyncClient;
 
-    @PostConstruct
-    public void init() {
-        asyncClient = new CosmosClientBuilder().endpoint(COSMOS_DB_ENDPOINT)
-                .directMode(DirectConnectionConfig.getDefaultConfig()).key(CONNECTION_KEY_STRING)
-                .preferredRegions(Collections.singletonList(LOCATION)).consistencyLevel(ConsistencyLevel.EVENTUAL) // パフォーマンス優先の
-                                                                                                                   // EVENTUAL
-                .contentResponseOnWriteEnabled(true) // true でレスポンスから作成したオブジェクトを取得可能(データ転送量を少なくするためには false の方が良く推奨)
-                .buildAsyncClient();
-    }
+    // 読み込み用 (レイテンシの小さいリージョンを優先) のクライアント
+    @Inject
+    RegionalReadClients readClients;
 
-    /**
-     * Before shutdown the Application This will close the connection of Azure
-     * Cosmos DB
-     */
+    // データベース / コンテナ毎のハンドルとメタデータのキャッシュ
+    @Inject
+    ContainerRegistry containerRegistry;
 
-    @PreDestroy
-    public void destroy() {
-        asyncClient.close();
-    }
+    @Inject
+    CosmosSchedulers schedulers;
+
+    @Inject
+    PartitionKeyStrategy partitionKeyStrategy;
+
+    @Inject
+    HotPartitionDetector hotPartitionDetector;
+
+    @Inject
+    ConditionalGetCache conditionalGetCache;
+
+    @Inject
+    BulkDeleter bulkDeleter;
+
+    @Inject
+    RequestCancellation requestCancellation;
+
+    @Inject
+    PersonChangeFeed personChangeFeed;
+
+    @Inject
+    PersonAggregateView personAggregateView;
+
+    @Inject
+    PersonNameIndex personNameIndex;
+
+    @Inject
+    ContainerTransfer containerTransfer;
+
+    @Inject
+    SyntheticPersons syntheticPersons;
+
+    @Inject
+    Tracing tracing;
+
+    @Inject
+    HedgedReads hedgedReads;
+
+    @Inject
+    CircuitBreakers circuitBreakers;
 
     /*
      * 1. Quarkus Route の基本的な実装方法の紹介
@@ -88,12 +134,42 @@ public class ReactiveRouteApp {
      * curl -X GET
      * http://localhost:8080/react-route/database/PERSON_DB/container/personmanage/
      * item
+     *
+     * 3. 読み込み系のルートでは、リクエスト毎に整合性レベルを指定可能
+     *
+     * 書き込み (addItem) のレスポンス・ヘッダ x-ms-session-token の値を、読み込み時にリクエスト・ヘッダで渡すと
+     * SESSION 整合性で読み込むため、自分が書き込んだデータを確実に読み込める (Read Your Writes)。
+     * 指定しない場合は、クライアントのデフォルト (EVENTUAL) で読み込む。
+     *
+     * curl -X GET -H 'x-ms-session-token: 0:-1#12' \
+     * http://localhost:8080/react-route/database/PERSON_DB/container/personmanage/item
+     *
+     * curl -X GET
+     * "http://localhost:8080/react-route/database/PERSON_DB/container/personmanage/item?consistency=SESSION"
+     *
+     * 4. レスポンスには ETag ヘッダを設定 (一覧の場合は各ドキュメントの id と _etag から計算)
+     *
+     * 前回のレスポンスの ETag を If-None-Match で渡すと、内容が変わっていない場合は 304 (ボディ無し) を返す。
+     * ConditionalGetCache の有効期限内で、このアプリケーションからの書き込みが無い場合は Cosmos DB への
+     * クエリも実行しない。
+     *
+     * curl -X GET -H 'If-None-Match: "5f2c..."' -i \
+     * http://localhost:8080/react-route/database/PERSON_DB/container/personmanage/item
      */
 
     @Route(path = "/react-route/database/:database/container/:container/item", methods = HttpMethod.GET, produces = "application/json")
-    public Uni<List<Person>> listAllPersonGet(@Param("database") String databaseName,
-            @Param("container") String containerName) {
-        return listPersonFromQuery(databaseName, containerName, QUERY_SELECT_ALL);
+    public Uni<Buffer> listAllPersonGet(@Param("database") String databaseName,
+            @Param("container") String containerName, @Param("consistency") String consistency,
+            @Header(HEADER_SESSION_TOKEN) String sessionToken, RoutingContext rc) {
+        CosmosQueryRequestOptions queryOptions = createQueryOptions(consistency, sessionToken);
+        if (queryOptions == null) {
+            return Uni.createFrom().nullItem();
+        }
+        RequestCancellation.Guard guard = requestCancellation.open(rc);
+        Mono<List<Person>> listMono = listPersonFromQuery(databaseName, containerName, QUERY_SELECT_ALL, queryOptions,
+                guard, rc);
+        return conditionalResponse(rc, guard, databaseName, containerName, listMono, ReactiveRouteApp::etagOfPersons,
+                Function.identity());
     }
 
     /*
@@ -125,20 +201,263 @@ public class ReactiveRouteApp {
      * この計測結果を元に、コンテナ作成時の RU を決定するか（金額に影響）、 もしくは、金額内におさえたいならば、消費する RU
      * からどの程度のリクエスト/秒を 実行するかを計測できるようになる（金額とパフォーマンスのバランス調整に利用）。
      *
+     * 3. ページ毎の RU は RequestCancellation.Guard に記録し、クライアントが切断した場合やタイムアウトした場合は
+     * 無駄になった RU としてメトリクスに加算する。
+     *
+     * 4. トレースが有効な場合は、ページ毎に RU とアクティビティ ID を持つスパンを Tracing に記録する。
+     *
      */
 
-    private Uni<List<Person>> listPersonFromQuery(String databaseName, String containerName, String query) {
-        CosmosAsyncDatabase database = asyncClient.getDatabase(databaseName);
-        CosmosAsyncContainer container = database.getContainer(containerName);
+    private Mono<List<Person>> listPersonFromQuery(String databaseName, String containerName, String query,
+            CosmosQueryRequestOptions queryOptions, RequestCancellation.Guard guard, RoutingContext rc) {
+        CosmosAsyncContainer container = containerRegistry.container(readClients.current(), databaseName,
+                containerName);
 
         // Execute Cosmos DB Query
-        CosmosQueryRequestOptions queryOptions = new CosmosQueryRequestOptions();
-        queryOptions.setQueryMetricsEnabled(true);
         CosmosPagedFlux<Person> fluxResponse = container.queryItems(query, queryOptions, Person.class);
 
-        Mono<List<Person>> listMono = fluxResponse
-                .handle(response -> LOGGER.info(response.getCosmosDiagnostics().toString())).collectList();
-        return Uni.createFrom().converter(UniReactorConverters.fromMono(), listMono);
+        Mono<List<Person>> listMono = fluxResponse.handle(onPage(rc, guard, databaseName, containerName))
+                .doOnError(onQueryError(databaseName, containerName)).publishOn(schedulers.io()).collectList();
+        // タイムアウトを失敗として数えるため、ブレーカーの内側でタイムアウトを適用する
+        return circuitBreakers.protect(databaseName, containerName, guard.deadline(listMono));
+    }
+
+    /*
+     * クエリのページ毎の処理 (診断情報のログ、RU の記録、トレース、ThroughputAutoScaler の入力)
+     */
+    private <T> Consumer<FeedResponse<T>> onPage(RoutingContext rc, RequestCancellation.Guard guard,
+            String databaseName, String containerName) {
+        String usageKey = databaseName + "/" + containerName;
+        return response -> {
+            LOGGER.info(response.getCosmosDiagnostics().toString());
+            guard.charge(response.getRequestCharge());
+            tracing.page(rc, response);
+            hotPartitionDetector.recordUsage(usageKey, response.getRequestCharge(), 200);
+        };
+    }
+
+    /*
+     * クエリが失敗した場合 (SDK の再試行後の 429 など) に ThroughputAutoScaler の入力として記録
+     */
+    private Consumer<Throwable> onQueryError(String databaseName, String containerName) {
+        String usageKey = databaseName + "/" + containerName;
+        return error -> hotPartitionDetector.recordUsageError(usageKey, error);
+    }
+
+    /*
+     * ETag を設定したレスポンスの作成
+     *
+     * If-None-Match と ETag が一致した場合は 304 を返し、ボディ (JSON) を作成しない。
+     * 一致しない場合は Jackson で JSON に変換して返す。ETag は ConditionalGetCache に記録し、
+     * 次回の同じ URL へのリクエストではクエリを実行せずに 304 を返せるようにする。
+     *
+     * クライアントが切断した場合はクエリをキャンセルし、タイムアウトした場合は 504 を返す。
+     */
+    private <T> Uni<Buffer> conditionalResponse(RoutingContext rc, RequestCancellation.Guard guard,
+            String databaseName, String containerName, Mono<T> itemMono, Function<T, String> etagOf,
+            Function<T, ?> bodyOf) {
+        String key = ConditionalGetCache.keyOf(rc.request());
+        String ifNoneMatch = rc.request().getHeader(HttpHeaders.IF_NONE_MATCH);
+
+        Mono<Buffer> bufferMono = guard.apply(itemMono).publishOn(schedulers.serialize()).map(item -> {
+            String etag = etagOf.apply(item);
+            conditionalGetCache.remember(key, databaseName, containerName, etag);
+            if (etag != null) {
+                rc.response().putHeader(HttpHeaders.ETAG, etag);
+            }
+            if (ConditionalGetCache.matches(ifNoneMatch, etag)) {
+                rc.response().setStatusCode(304);
+                return Buffer.buffer();
+            }
+            return tracing.inSpan(rc, "serialize", () -> toJsonBuffer(bodyOf.apply(item)));
+        }).onErrorResume(TimeoutException.class, error -> gatewayTimeout(rc))
+                .onErrorResume(CircuitBreakers.OpenException.class, error -> serviceUnavailable(rc, error));
+        return Uni.createFrom().converter(UniReactorConverters.fromMono(), bufferMono);
+    }
+
+    private static Mono<Buffer> serviceUnavailable(RoutingContext rc, CircuitBreakers.OpenException error) {
+        LOGGER.warn("REQUEST REJECTED: " + error.getMessage());
+        rc.response().setStatusCode(503).putHeader("Retry-After",
+                String.valueOf(Math.max(1, error.getRetryAfter().getSeconds())));
+        return Mono.just(Buffer.buffer());
+    }
+
+    /*
+     * ストリーム (SSE) 用。最初のイベントを書き込む前のため、503 と Retry-After を設定して空のストリームを返す
+     */
+    private static <T> Flux<T> serviceUnavailableStream(RoutingContext rc, CircuitBreakers.OpenException error) {
+        return serviceUnavailable(rc, error).thenMany(Flux.<T>empty());
+    }
+
+    private static Mono<Buffer> gatewayTimeout(RoutingContext rc) {
+        LOGGER.warn("REQUEST TIMED OUT: " + rc.request().path());
+        rc.response().setStatusCode(504);
+        return Mono.just(Buffer.buffer());
+    }
+
+    private static Buffer toJsonBuffer(Object value) {
+        try {
+            return Buffer.buffer(JSON_WRITER.writeValueAsBytes(value));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String etagOfPersons(List<Person> persons) {
+        return ConditionalGetCache
+                .etagOf(persons.stream().flatMap(person -> Stream.of(person.getId(), person.getEtag())));
+    }
+
+    /*
+     * ここでは、大量のデータを返す場合にヒープの使用量を抑える例
+     *
+     * 必要な項目だけを SELECT し、ページ毎に受信したドキュメントを Person に変換せずに
+     * PersonColumns (項目毎の配列) に追加する。レスポンスは PersonColumns から直接 Buffer に書き出すため、
+     * List<Person> を作成する場合に比べ、レスポンスを返すまでに保持するオブジェクトの数が少ない。
+     *
+     * レスポンスの形式は item と同じ (Person の JSON 配列)
+     *
+     * curl -X GET
+     * http://localhost:8080/react-route/database/PERSON_DB/container/personmanage/compact/item
+     */
+
+    @Route(path = "/react-route/database/:database/container/:container/compact/item", methods = HttpMethod.GET, produces = "application/json")
+    public Uni<Buffer> listAllPersonCompactGet(@Param("database") String databaseName,
+            @Param("container") String containerName, @Param("consistency") String consistency,
+            @Header(HEADER_SESSION_TOKEN) String sessionToken, RoutingContext rc) {
+        CosmosQueryRequestOptions queryOptions = createQueryOptions(consistency, sessionToken);
+        if (queryOptions == null) {
+            return Uni.createFrom().nullItem();
+        }
+        CosmosAsyncContainer container = containerRegistry.container(readClients.current(), databaseName,
+                containerName);
+
+        RequestCancellation.Guard guard = requestCancellation.open(rc);
+
+        Mono<PersonColumns> columnsMono = container.queryItems(QUERY_SELECT_COLUMNS, queryOptions, JsonNode.class)
+                .handle(onPage(rc, guard, databaseName, containerName))
+                .publishOn(schedulers.io())
+                .reduceWith(PersonColumns::new, PersonColumns::add)
+                .doOnError(onQueryError(databaseName, containerName));
+        // タイムアウトを失敗として数えるため、ブレーカーの内側でタイムアウトを適用する
+        Mono<Buffer> bufferMono = guard.apply(circuitBreakers.protect(databaseName, containerName,
+                guard.deadline(columnsMono)))
+                .publishOn(schedulers.serialize())
+                .map(columns -> tracing.inSpan(rc, "serialize", columns::toJsonBuffer))
+                .onErrorResume(TimeoutException.class, error -> gatewayTimeout(rc))
+                .onErrorResume(CircuitBreakers.OpenException.class, error -> serviceUnavailable(rc, error));
+        return Uni.createFrom().converter(UniReactorConverters.fromMono(), bufferMono);
+    }
+
+    /*
+     * ここでは、Cosmos DB から取得したドキュメントを Person に変換せずにそのまま返す例 (パス・スルー)
+     *
+     * JsonNode でクエリを実行し、RawDocuments でドキュメントのバイト列を直接レスポンスの Buffer に書き出す。
+     * Person へのバインドと Person から JSON への変換を省略できるため、読み込み専用の一覧の取得に向いている。
+     *
+     * systemProperties=keep を指定した場合は、_rid, _ts, _etag などのシステム・プロパティも返す (デフォルトは取り除く)
+     *
+     * curl -X GET
+     * http://localhost:8080/react-route/database/PERSON_DB/container/personmanage/raw/item
+     */
+
+    @Route(path = "/react-route/database/:database/container/:container/raw/item", methods = HttpMethod.GET, produces = "application/json")
+    public Uni<Buffer> listAllPersonRawGet(@Param("database") String databaseName,
+            @Param("container") String containerName, @Param("systemProperties") String systemProperties,
+            @Param("consistency") String consistency, @Header(HEADER_SESSION_TOKEN) String sessionToken,
+            RoutingContext rc) {
+        CosmosQueryRequestOptions queryOptions = createQueryOptions(consistency, sessionToken);
+        if (queryOptions == null) {
+            return Uni.createFrom().nullItem();
+        }
+        boolean strip = !"keep".equalsIgnoreCase(systemProperties);
+        CosmosAsyncContainer container = containerRegistry.container(readClients.current(), databaseName,
+                containerName);
+
+        RequestCancellation.Guard guard = requestCancellation.open(rc);
+
+        Mono<Buffer> rawMono = container.queryItems(QUERY_SELECT_ALL, queryOptions, JsonNode.class)
+                .handle(onPage(rc, guard, databaseName, containerName))
+                .publishOn(schedulers.serialize())
+                .reduceWith(() -> RawDocuments.openArray(64 * 1024),
+                        (array, document) -> RawDocuments.append(array, document, strip))
+                .map(RawDocuments::closeArray)
+                .doOnError(onQueryError(databaseName, containerName));
+        Mono<Buffer> bufferMono = guard.apply(circuitBreakers.protect(databaseName, containerName,
+                guard.deadline(rawMono)))
+                .onErrorResume(TimeoutException.class, error -> gatewayTimeout(rc))
+                .onErrorResume(CircuitBreakers.OpenException.class, error -> serviceUnavailable(rc, error));
+        return Uni.createFrom().converter(UniReactorConverters.fromMono(), bufferMono);
+    }
+
+    /*
+     * item/preferred のパス・スルー版
+     *
+     * PREFERRED_PAGE_SIZE 毎のページを、Person に変換せずに JSON 配列として SSE で返す
+     *
+     * curl -X GET
+     * http://localhost:8080/react-route/database/PERSON_DB/container/personmanage/raw/item/preferred
+     */
+
+    @Route(path = "/react-route/database/:database/container/:container/raw/item/preferred", methods = HttpMethod.GET, produces = "application/json")
+    public Multi<String> listPageNatePersonRawGet(@Param("database") String databaseName,
+            @Param("container") String containerName, @Param("systemProperties") String systemProperties,
+            @Param("consistency") String consistency, @Header(HEADER_SESSION_TOKEN) String sessionToken,
+            RoutingContext rc) {
+        CosmosQueryRequestOptions queryOptions = createQueryOptions(consistency, sessionToken);
+        if (queryOptions == null) {
+            return ReactiveRoutes.asEventStream(Multi.createFrom().empty());
+        }
+        boolean strip = !"keep".equalsIgnoreCase(systemProperties);
+        CosmosAsyncContainer container = containerRegistry.container(readClients.current(), databaseName,
+                containerName);
+
+        RequestCancellation.Guard guard = requestCancellation.openStream(rc);
+
+        Flux<FeedResponse<JsonNode>> pages = container.queryItems(QUERY_SELECT_ALL, queryOptions, JsonNode.class)
+                .handle(onPage(rc, guard, databaseName, containerName))
+                .byPage(PREFERRED_PAGE_SIZE)
+                .doOnError(onQueryError(databaseName, containerName));
+        // 最初のページのタイムアウトを失敗として数えるため、ブレーカーの内側でタイムアウトを適用する
+        Flux<String> pageFlux = guard.apply(circuitBreakers.protect(databaseName, containerName,
+                guard.deadline(pages))
+                .publishOn(schedulers.serialize())
+                .map(response -> RawDocuments.toJsonArray(response.getResults(), strip).toString()))
+                .onErrorResume(TimeoutException.class, error -> Flux.empty())
+                .onErrorResume(CircuitBreakers.OpenException.class, error -> serviceUnavailableStream(rc, error));
+
+        Multi<String> multiPages = Multi.createFrom().converter(MultiReactorConverters.fromFlux(), pageFlux);
+        return ReactiveRoutes.asEventStream(multiPages);
+    }
+
+    /*
+     * 読み込み用のクエリ・オプションの作成
+     *
+     * consistency : リクエスト毎の整合性レベル (アカウントの既定値より弱いレベルのみ指定可能)
+     *
+     * sessionToken : 書き込み時に返したセッション・トークン。指定された場合、consistency の指定がなければ
+     * SESSION 整合性で読み込む
+     *
+     * consistency に不正な値が指定された場合は null を返す
+     */
+    CosmosQueryRequestOptions createQueryOptions(String consistency, String sessionToken) {
+        CosmosQueryRequestOptions queryOptions = new CosmosQueryRequestOptions();
+        queryOptions.setQueryMetricsEnabled(true);
+        if (consistency != null && !consistency.isEmpty()) {
+            try {
+                queryOptions.setConsistencyLevel(ConsistencyLevel.valueOf(consistency.toUpperCase()));
+            } catch (IllegalArgumentException iae) {
+                LOGGER.warn("Invalid consistency level: " + consistency);
+                return null;
+            }
+        }
+        if (sessionToken != null && !sessionToken.isEmpty()) {
+            queryOptions.setSessionToken(sessionToken);
+            if (queryOptions.getConsistencyLevel() == null) {
+                queryOptions.setConsistencyLevel(ConsistencyLevel.SESSION);
+            }
+        }
+        return queryOptions;
     }
 
     /*
@@ -153,16 +472,26 @@ public class ReactiveRouteApp {
      */
 
     @Route(path = "/react-route/database/:database/container/:container/item/offset/:offset", methods = HttpMethod.GET, produces = "application/json")
-    public Uni<List<Person>> listOffsetPersonGet(@Param("database") String databaseName,
-            @Param("container") String containerName, @Param("offset") String offset) {
+    public Uni<Buffer> listOffsetPersonGet(@Param("database") String databaseName,
+            @Param("container") String containerName, @Param("offset") String offset,
+            @Param("consistency") String consistency, @Header(HEADER_SESSION_TOKEN) String sessionToken,
+            RoutingContext rc) {
         try {
             Integer.parseInt(offset);
         } catch (NumberFormatException nume) {
             return Uni.createFrom().nullItem();
         }
+        CosmosQueryRequestOptions queryOptions = createQueryOptions(consistency, sessionToken);
+        if (queryOptions == null) {
+            return Uni.createFrom().nullItem();
+        }
 
         String query = String.format(QUERY_SELECT_OFFSET_LIMIT, offset);
-        return listPersonFromQuery(databaseName, containerName, query);
+        RequestCancellation.Guard guard = requestCancellation.open(rc);
+        Mono<List<Person>> listMono = listPersonFromQuery(databaseName, containerName, query, queryOptions, guard,
+                rc);
+        return conditionalResponse(rc, guard, databaseName, containerName, listMono, ReactiveRouteApp::etagOfPersons,
+                Function.identity());
     }
 
     /**
@@ -174,6 +503,8 @@ public class ReactiveRouteApp {
      * <p>
      * 3. Multi を ReactiveRoutes.asEventStream(multiPersons) でラップして返す事で イベント・ストリームを
      * Server Sent Event (SSE) で返すことができる
+     * <p>
+     * 4. クライアントが途中で切断した場合や app.request.stream-timeout を超えた場合は、残りのページを取得せずに終了する
      * 
      * curl -X GET
      * http://localhost:8080/react-route/database/PERSON_DB/container/personmanage/item/preferred
@@ -181,20 +512,32 @@ public class ReactiveRouteApp {
 
     @Route(path = "/react-route/database/:database/container/:container/item/preferred", methods = HttpMethod.GET, produces = "application/json")
     public Multi<List<Person>> listPageNatePersonGet(@Param("database") String databaseName,
-            @Param("container") String containerName) {
-        CosmosAsyncDatabase database = asyncClient.getDatabase(databaseName);
-        CosmosAsyncContainer container = database.getContainer(containerName);
+            @Param("container") String containerName, @Param("consistency") String consistency,
+            @Header(HEADER_SESSION_TOKEN) String sessionToken, RoutingContext rc) {
+        CosmosAsyncContainer container = containerRegistry.container(readClients.current(), databaseName,
+                containerName);
 
         // Configure the QueryOption in order to get the Diagnostic info
-        CosmosQueryRequestOptions queryOptions = new CosmosQueryRequestOptions();
-        queryOptions.setQueryMetricsEnabled(true);
+        CosmosQueryRequestOptions queryOptions = createQueryOptions(consistency, sessionToken);
+        if (queryOptions == null) {
+            return ReactiveRoutes.asEventStream(Multi.createFrom().empty());
+        }
         CosmosPagedFlux<Person> pagedFluxResponse = container.queryItems(QUERY_SELECT_ALL, queryOptions, Person.class);
 
+        RequestCancellation.Guard guard = requestCancellation.openStream(rc);
+
         // Preferred size Request
-        Flux<List<Person>> listFlux = pagedFluxResponse
-                .handle(response -> LOGGER.info(response.getCosmosDiagnostics().toString())).byPage(PREFERRED_PAGE_SIZE)
+        Flux<FeedResponse<Person>> pages = pagedFluxResponse.handle(onPage(rc, guard, databaseName, containerName))
+                .byPage(PREFERRED_PAGE_SIZE)
+                .doOnError(onQueryError(databaseName, containerName));
+        // 最初のページのタイムアウトを失敗として数えるため、ブレーカーの内側でタイムアウトを適用する
+        Flux<List<Person>> listFlux = guard.apply(circuitBreakers.protect(databaseName, containerName,
+                guard.deadline(pages))
                 // .take(5)
-                .flatMap(response -> Flux.just(response.getResults()));
+                .publishOn(schedulers.io())
+                .flatMap(response -> Flux.just(response.getResults())))
+                .onErrorResume(TimeoutException.class, error -> Flux.empty())
+                .onErrorResume(CircuitBreakers.OpenException.class, error -> serviceUnavailableStream(rc, error));
 
         // Return the Result as Event Stream (SSE)
         Multi<List<Person>> multiPersons = Multi.createFrom().converter(MultiReactorConverters.fromFlux(), listFlux);
@@ -204,6 +547,7 @@ public class ReactiveRouteApp {
     /*
      * ここでは、クエリの結果 Flux で返ってきた値を Mono に変換して返す例
      *
+     * ETag はドキュメントの _etag (If-None-Match で一致した場合は 304)
      *
      * curl -X GET
      * http://localhost:8080/react-route/database/PERSON_DB/container/personmanage/
@@ -211,22 +555,233 @@ public class ReactiveRouteApp {
      */
 
     @Route(path = "/react-route/database/:database/container/:container/item/:id", methods = HttpMethod.GET, produces = "application/json")
-    public Uni<Person> listPersonGet(@Param("database") String databaseName, @Param("container") String containerName,
-            @Param("id") String id) {
-        CosmosAsyncDatabase database = asyncClient.getDatabase(databaseName);
-        CosmosAsyncContainer container = database.getContainer(containerName);
+    public Uni<Buffer> listPersonGet(@Param("database") String databaseName, @Param("container") String containerName,
+            @Param("id") String id, @Param("consistency") String consistency,
+            @Header(HEADER_SESSION_TOKEN) String sessionToken, RoutingContext rc) {
+        RequestCancellation.Guard guard = requestCancellation.open(rc);
 
         String query = String.format(QUERY_SELECT_BY_ID, id);
 
         // Configure the QueryOption in order to get the Diagnostic info
-        CosmosQueryRequestOptions queryOptions = new CosmosQueryRequestOptions();
-        queryOptions.setQueryMetricsEnabled(true);
-        CosmosPagedFlux<Person> pagedFluxResponse = container.queryItems(query, queryOptions, Person.class);
+        CosmosQueryRequestOptions queryOptions = createQueryOptions(consistency, sessionToken);
+        if (queryOptions == null) {
+            return Uni.createFrom().nullItem();
+        }
+
+        // 応答が遅い場合は別のリージョン (レプリカ) にもクエリを送信し、先に返った方を採用する
+        Mono<Person> hedgedRead = hedgedReads.read(client -> {
+            CosmosPagedFlux<Person> pagedFluxResponse = containerRegistry.container(client, databaseName, containerName)
+                    .queryItems(query, queryOptions, Person.class);
+            return pagedFluxResponse.handle(onPage(rc, guard, databaseName, containerName)).next();
+        });
+        // タイムアウトを失敗として数えるため、ブレーカーの内側でタイムアウトを適用する
+        Mono<Person> monoPerson = circuitBreakers.protect(databaseName, containerName,
+                guard.deadline(hedgedRead.doOnError(onQueryError(databaseName, containerName))))
+                .publishOn(schedulers.io());
+
+        return conditionalResponse(rc, guard, databaseName, containerName, monoPerson, Person::getEtag,
+                Function.identity());
+    }
+
+    /*
+     * ここでは、パーティション・キーを指定したポイント・リードの例
+     *
+     * id だけを指定したクエリは全パーティションに問い合わせるが、パーティション・キーと id を指定した
+     * readItem() は 1 パーティションだけを読むため、最も RU が少なくレイテンシも小さい。
+     * 合成パーティション・キー (PartitionKeyStrategy) を利用する場合も、lastName と id からキーを計算する。
+     *
+     * ETag はドキュメントの _etag (If-None-Match で一致した場合は 304)
+     *
+     * curl -X GET
+     * http://localhost:8080/react-route/database/PERSON_DB/container/personmanage/
+     * item/5998c7db-0c90-48b3-be3a-ef8b55f84201/lastName/Terada
+     */
 
-        Mono<Person> monoPerson = pagedFluxResponse
-                .handle(response -> LOGGER.info(response.getCosmosDiagnostics().toString())).next();
+    @Route(path = "/react-route/database/:database/container/:container/item/:id/lastName/:lastName", methods = HttpMethod.GET, produces = "application/json")
+    public Uni<Buffer> readPersonGet(@Param("database") String databaseName, @Param("container") String containerName,
+            @Param("id") String id, @Param("lastName") String lastName, @Param("consistency") String consistency,
+            @Header(HEADER_SESSION_TOKEN) String sessionToken, RoutingContext rc) {
+        PartitionKey partitionKey = partitionKeyStrategy.partitionKeyFor(lastName, id);
+        String partitionKeyValue = partitionKeyStrategy.partitionKeyValueOf(lastName, id);
+        String hotPartitionKey = databaseName + "/" + containerName;
 
-        return Uni.createFrom().converter(UniReactorConverters.fromMono(), monoPerson);
+        CosmosItemRequestOptions options = new CosmosItemRequestOptions();
+        if (sessionToken != null && !sessionToken.isEmpty()) {
+            options.setSessionToken(sessionToken);
+            options.setConsistencyLevel(ConsistencyLevel.SESSION);
+        }
+        if (consistency != null && !consistency.isEmpty()) {
+            try {
+                options.setConsistencyLevel(ConsistencyLevel.valueOf(consistency.toUpperCase()));
+            } catch (IllegalArgumentException iae) {
+                return Uni.createFrom().nullItem();
+            }
+        }
+
+        RequestCancellation.Guard guard = requestCancellation.open(rc);
+        Mono<CosmosItemResponse<Person>> hedgedRead = hedgedReads.read(client -> containerRegistry
+                .container(client, databaseName, containerName).readItem(id, partitionKey, options, Person.class));
+        Mono<CosmosItemResponse<Person>> readMono = circuitBreakers.protect(databaseName, containerName,
+                guard.deadline(hedgedRead));
+        Mono<CosmosItemResponse<Person>> monoResponse = readMono.publishOn(schedulers.io())
+                .doOnNext(response -> {
+                    LOGGER.info(response.getDiagnostics().toString());
+                    guard.charge(response.getRequestCharge());
+                    tracing.item(rc, response);
+                    hotPartitionDetector.record(hotPartitionKey, partitionKeyValue, response.getRequestCharge());
+                }).doOnError(error -> hotPartitionDetector.recordError(hotPartitionKey, partitionKeyValue, error))
+                .onErrorResume(error -> error instanceof CosmosException
+                        && ((CosmosException) error).getStatusCode() == 404, error -> Mono.empty());
+        return conditionalResponse(rc, guard, databaseName, containerName, monoResponse, CosmosItemResponse::getETag,
+                CosmosItemResponse::getItem);
+    }
+
+    /**
+     * firstName / lastName の前方一致検索
+     *
+     * STARTSWITH のクエリ (全パーティションへのファン・アウト) の代わりに、PersonNameIndex から一致する
+     * id とパーティション・キーを取り出し、ポイント・リードで取得する。
+     * app.search-index.enabled=true で、PersonChangeFeed が読み込んでいるコンテナのみ (それ以外は 404)
+     *
+     * curl -X GET
+     * "http://localhost:8080/react-route/database/PERSON_DB/container/personmanage/search?field=lastName&prefix=Yo&limit=20"
+     *
+     * @return 名前順の Person (インデックスの反映後に削除されたものは除く)
+     */
+    @Route(path = "/react-route/database/:database/container/:container/search", methods = HttpMethod.GET, produces = "application/json")
+    public Uni<Buffer> searchPersonGet(@Param("database") String databaseName,
+            @Param("container") String containerName, @Param("field") String field, @Param("prefix") String prefix,
+            @Param("limit") String limit, RoutingContext rc) {
+        HttpServerResponse response = rc.response();
+        if (!personNameIndex.isEnabled() || !personChangeFeed.isWatching(databaseName, containerName)) {
+            response.setStatusCode(404);
+            return Uni.createFrom().item(Buffer.buffer());
+        }
+        List<PersonNameIndex.DocumentRef> refs;
+        try {
+            if (prefix == null || prefix.isEmpty()) {
+                throw new IllegalArgumentException("prefix is required");
+            }
+            int max = limit == null ? DEFAULT_SEARCH_LIMIT : Integer.parseInt(limit);
+            if (max <= 0 || max > MAX_SEARCH_LIMIT) {
+                throw new IllegalArgumentException("limit must be between 1 and " + MAX_SEARCH_LIMIT);
+            }
+            refs = personNameIndex.search(field == null ? "lastName" : field, prefix, max);
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("INVALID SEARCH: " + e.getMessage());
+            response.setStatusCode(400);
+            return Uni.createFrom().item(Buffer.buffer());
+        }
+
+        CosmosAsyncContainer container = containerRegistry.container(readClients.current(), databaseName,
+                containerName);
+        RequestCancellation.Guard guard = requestCancellation.open(rc);
+        DoubleAdder requestCharge = new DoubleAdder();
+        Mono<List<Person>> personsMono = Flux.fromIterable(refs)
+                .flatMapSequential(ref -> container
+                        .readItem(ref.getId(), new PartitionKey(ref.getPartitionKey()), Person.class)
+                        .doOnNext(itemResponse -> {
+                            requestCharge.add(itemResponse.getRequestCharge());
+                            guard.charge(itemResponse.getRequestCharge());
+                            hotPartitionDetector.recordUsage(databaseName + "/" + containerName,
+                                    itemResponse.getRequestCharge(), itemResponse.getStatusCode());
+                        })
+                        .doOnError(onQueryError(databaseName, containerName))
+                        .map(CosmosItemResponse::getItem)
+                        .onErrorResume(error -> error instanceof CosmosException
+                                && ((CosmosException) error).getStatusCode() == 404, error -> Mono.empty()),
+                        SEARCH_READ_CONCURRENCY)
+                .collectList();
+        // タイムアウトを失敗として数えるため、ブレーカーの内側でタイムアウトを適用する
+        Mono<Buffer> bufferMono = guard.apply(circuitBreakers.protect(databaseName, containerName,
+                guard.deadline(personsMono)))
+                .publishOn(schedulers.serialize()).map(persons -> {
+                    response.putHeader(HEADER_REQUEST_CHARGE, String.valueOf(requestCharge.sum()));
+                    return toJsonBuffer(persons);
+                })
+                .onErrorResume(TimeoutException.class, error -> gatewayTimeout(rc))
+                .onErrorResume(CircuitBreakers.OpenException.class, error -> serviceUnavailable(rc, error));
+        return Uni.createFrom().converter(UniReactorConverters.fromMono(), bufferMono);
+    }
+
+    /**
+     * パーティション・キー毎の RU と 429 の発生状況 (ホット・パーティションの検出)
+     *
+     * curl -X GET
+     * http://localhost:8080/react-route/database/PERSON_DB/container/personmanage/partitions/hot
+     *
+     * @return 直前の集計期間のパーティション・キー毎の RU 消費量と偏り (skew)
+     */
+    @Route(path = "/react-route/database/:database/container/:container/partitions/hot", methods = HttpMethod.GET, produces = "application/json")
+    public Uni<PartitionSkewReport> hotPartitionReport(@Param("database") String databaseName,
+            @Param("container") String containerName) {
+        return Uni.createFrom().item(hotPartitionDetector.report(databaseName + "/" + containerName));
+    }
+
+    /**
+     * lastName 毎の件数 (Change Feed から更新する PersonAggregateView から返すため、Cosmos DB へのクエリは無し)
+     *
+     * app.person-feed.enabled=true で、app.person-feed.database/container のコンテナのみ (それ以外は 404)
+     *
+     * curl -X GET
+     * http://localhost:8080/react-route/database/PERSON_DB/container/personmanage/view/lastName
+     *
+     * curl -X GET
+     * http://localhost:8080/react-route/database/PERSON_DB/container/personmanage/view/lastName/Yoshio
+     */
+    @Route(path = "/react-route/database/:database/container/:container/view/lastName", methods = HttpMethod.GET, produces = "application/json")
+    public Uni<Buffer> lastNameView(@Param("database") String databaseName, @Param("container") String containerName,
+            HttpServerResponse response) {
+        return viewResponse(databaseName, containerName, response,
+                () -> new ViewCounts("lastName", personAggregateView.total(), personAggregateView.countsByLastName()));
+    }
+
+    @Route(path = "/react-route/database/:database/container/:container/view/lastName/:lastName", methods = HttpMethod.GET, produces = "application/json")
+    public Uni<Buffer> lastNameCountView(@Param("database") String databaseName,
+            @Param("container") String containerName, @Param("lastName") String lastName,
+            HttpServerResponse response) {
+        return viewResponse(databaseName, containerName, response, () -> new ViewCounts("lastName",
+                personAggregateView.total(),
+                Collections.singletonMap(lastName, personAggregateView.countByLastName(lastName))));
+    }
+
+    /**
+     * 年齢層 (app.view.age-bucket-width 歳毎) の件数
+     *
+     * curl -X GET
+     * http://localhost:8080/react-route/database/PERSON_DB/container/personmanage/view/age
+     */
+    @Route(path = "/react-route/database/:database/container/:container/view/age", methods = HttpMethod.GET, produces = "application/json")
+    public Uni<Buffer> ageView(@Param("database") String databaseName, @Param("container") String containerName,
+            HttpServerResponse response) {
+        return viewResponse(databaseName, containerName, response,
+                () -> new ViewCounts("age", personAggregateView.total(), personAggregateView.countsByAgeBucket()));
+    }
+
+    /**
+     * ビューを空にして Change Feed を先頭から読み直す (削除されたドキュメントを反映する場合など)
+     *
+     * curl -X POST
+     * http://localhost:8080/react-route/database/PERSON_DB/container/personmanage/view/rebuild
+     */
+    @Route(path = "/react-route/database/:database/container/:container/view/rebuild", methods = HttpMethod.POST, produces = "application/json")
+    public Uni<Buffer> rebuildViews(@Param("database") String databaseName, @Param("container") String containerName,
+            HttpServerResponse response) {
+        return viewResponse(databaseName, containerName, response, () -> {
+            personChangeFeed.rebuild();
+            response.setStatusCode(202);
+            return null;
+        });
+    }
+
+    private Uni<Buffer> viewResponse(String databaseName, String containerName, HttpServerResponse response,
+            Supplier<Object> view) {
+        if (!personChangeFeed.isWatching(databaseName, containerName)) {
+            response.setStatusCode(404);
+            return Uni.createFrom().item(Buffer.buffer());
+        }
+        Object body = view.get();
+        return Uni.createFrom().item(body == null ? Buffer.buffer() : toJsonBuffer(body));
     }
 
     /**
@@ -235,16 +790,24 @@ public class ReactiveRouteApp {
      * curl -X POST -H 'Content-Type:application/json' \
      * localhost:8080/react-route/database/create-database \ -d
      * '{"dbName":"PERSON_DB"}'
+     *
+     * requestUnit (手動) もしくは autoscaleMaxThroughput (オートスケール) を指定すると、
+     * データベース内のコンテナで共有するスループットを設定する。
      */
     // @Components(requestBodies =
     // @RequestBody(name="dbName",required=true,description = "DatabaseName"))
     @Route(path = "/react-route/database/create-database", methods = HttpMethod.POST, produces = "application/json")
     public Uni<String> createDBCosmosDB(@Body RequestCosmosDB requestCosmosDb) {
-        Mono<String> stringMono = asyncClient.createDatabaseIfNotExists(requestCosmosDb.getDbName())
-                .doOnSuccess(response -> {
+        ThroughputProperties throughputProperties = toThroughputProperties(requestCosmosDb.getRequestUnit(),
+                requestCosmosDb.getAutoscaleMaxThroughput());
+        Mono<CosmosDatabaseResponse> createDatabase = throughputProperties == null
+                ? asyncClient.createDatabaseIfNotExists(requestCosmosDb.getDbName())
+                : asyncClient.createDatabaseIfNotExists(requestCosmosDb.getDbName(), throughputProperties);
+        Mono<String> stringMono = createDatabase
+                .publishOn(schedulers.io()).doOnSuccess(response -> {
                     LOGGER.info("COMPLETES SUCCESSFULLY to Create Database " + response.getProperties().getId());
                     LOGGER.info(response.getDiagnostics().toString());
-                }).doOnError(LOGGER::error).map(dbresponse -> {
+                }).doOnError(LOGGER::error).publishOn(schedulers.serialize()).map(dbresponse -> {
                     String createdDBName = dbresponse.getProperties().getId();
                     Instant timestamp = dbresponse.getProperties().getTimestamp();
                     LocalDateTime localDateTime = LocalDateTime.ofInstant(timestamp, ZoneId.of("Asia/Tokyo"));
@@ -268,6 +831,7 @@ public class ReactiveRouteApp {
         CosmosPagedFlux<CosmosDatabaseProperties> readAllDbProp = asyncClient.readAllDatabases();
         Mono<List<String>> listMono = readAllDbProp
                 .handle(response -> LOGGER.info(response.getCosmosDiagnostics().toString()))
+                .publishOn(schedulers.io())
                 .flatMap(properties -> Flux.just(properties.getId())).collectList();
         return Uni.createFrom().converter(UniReactorConverters.fromMono(), listMono);
     }
@@ -285,10 +849,11 @@ public class ReactiveRouteApp {
 
     @Route(path = "/react-route/database/delete-database", methods = HttpMethod.DELETE, produces = "application/json")
     public Uni<String> deleteDBCosmosDB(@Body RequestCosmosDB database) {
-        Mono<String> stringMono = asyncClient.getDatabase(database.getDbName()).delete()
-                .doOnSuccess(cosmosDatabaseResponse -> {
+        Mono<String> stringMono = containerRegistry.database(database.getDbName()).delete()
+                .publishOn(schedulers.io()).doOnSuccess(cosmosDatabaseResponse -> {
                     LOGGER.info("DELETED SUCCESSFULLY : " + database.getDbName());
-                }).doOnError(LOGGER::error)
+                    containerRegistry.invalidateDatabase(database.getDbName());
+                }).doOnError(LOGGER::error).publishOn(schedulers.serialize())
                 .map(dbResponse -> convertDatabaseResponseToJSON(database.getDbName(), LocalDateTime.now()));
         return Uni.createFrom().converter(UniReactorConverters.fromMono(), stringMono);
     }
@@ -308,30 +873,230 @@ public class ReactiveRouteApp {
      * '{"dbName":"PERSON_DB","containerName": "personmanage", "partitionName":
      * "/lastName","requestUnit": 1000}'
      *
+     * autoscaleMaxThroughput を指定すると、最大 RU の 10% から最大 RU の範囲で Cosmos DB が自動で増減する
+     * (requestUnit より優先)。
+     *
+     * defaultTimeToLive (秒) を指定すると、最後の更新からその時間が経過したドキュメントを Cosmos DB が削除する。
+     * -1 の場合は既定では削除せず、ttl を指定したドキュメントだけを削除する。
+     *
+     * indexingPolicy を指定すると、インデックスを作成するパスを限定できる (書き込みの RU を削減)。
+     * 下記は lastName と age だけにインデックスを作成し、ORDER BY P.age, P.lastName 用の複合インデックスを作成する例。
+     *
+     * curl -X POST -H 'Content-Type:application/json' \
+     * localhost:8080/react-route/database/PERSON_DB/container/create-container \ -d
+     * '{"containerName": "personmanage", "partitionName": "/lastName", "requestUnit": 1000,
+     *   "indexingPolicy": {"indexingMode": "consistent", "includedPaths": ["/lastName/?", "/age/?"],
+     *   "excludedPaths": ["/*"], "compositeIndexes": [[{"path": "/age"}, {"path": "/lastName"}]]}}'
+     *
      */
 
     @Route(path = "/react-route/database/:database/container/create-container", methods = HttpMethod.POST, produces = "application/json")
     public Uni<String> createContainerCosmosDB(@Body RequestCosmosContainer container,
-            @Param("database") String databaseName) {
-        Long counter = asyncClient.readAllDatabases().filter(prop -> prop.getId().equals(databaseName)).count().block();
-        if (counter == null || counter < 1) {
-            return Uni.createFrom().nullItem();
+            @Param("database") String databaseName, HttpServerResponse response) {
+        CosmosAsyncDatabase database = containerRegistry.database(databaseName);
+        // 合成パーティション・キーを利用する場合、partitionName を省略すると /partitionKey で作成
+        String partitionName = container.getPartitionName();
+        if ((partitionName == null || partitionName.isEmpty()) && partitionKeyStrategy.isSynthetic()) {
+            partitionName = PartitionKeyStrategy.SYNTHETIC_PARTITION_KEY_PATH;
         }
-
-        CosmosAsyncDatabase database = asyncClient.getDatabase(databaseName);
         CosmosContainerProperties containerProperties = new CosmosContainerProperties(container.getContainerName(),
-                container.getPartitionName());
-        ThroughputProperties throughputProperties = ThroughputProperties
-                .createManualThroughput(container.getRequestUnit());
+                partitionName);
+        // TTL を有効にすると、期限切れのドキュメントを Cosmos DB が削除する (-1 は既定では期限切れにせず、Person の ttl で指定)
+        if (container.getDefaultTimeToLive() != null) {
+            containerProperties.setDefaultTimeToLiveInSeconds(container.getDefaultTimeToLive());
+        }
+        if (container.getIndexingPolicy() != null) {
+            try {
+                containerProperties.setIndexingPolicy(IndexingPolicies.toIndexingPolicy(container.getIndexingPolicy()));
+            } catch (IllegalArgumentException iae) {
+                LOGGER.error(iae.getMessage());
+                response.setStatusCode(400);
+                return Uni.createFrom().item("");
+            }
+        }
+        // requestUnit, autoscaleMaxThroughput のどちらも指定しない場合は、データベースの共有スループットを利用
+        ThroughputProperties throughputProperties = toThroughputProperties(
+                container.getRequestUnit() > 0 ? container.getRequestUnit() : null,
+                container.getAutoscaleMaxThroughput());
 
-        Mono<String> stringMono = database.createContainerIfNotExists(containerProperties, throughputProperties)
-                .doOnSuccess(response -> {
+        // DB が存在しない場合は null を返す
+        Mono<String> stringMono = existsDatabase(databaseName).filter(Boolean::booleanValue)
+                .flatMap(exists -> throughputProperties == null
+                        ? database.createContainerIfNotExists(containerProperties)
+                        : database.createContainerIfNotExists(containerProperties, throughputProperties))
+                .publishOn(schedulers.io()).doOnNext(response -> {
                     LOGGER.info("COMPLETES SUCCESSFULLY to Create Container : " + response.getProperties().getId());
+                    // 同じ名前で削除、再作成した場合に古いパーティション・キーなどを使わないようにする
+                    containerRegistry.invalidate(databaseName, response.getProperties().getId());
                     LOGGER.info(response.getDiagnostics().toString());
-                }).doOnError(LOGGER::error).map(this::convertResponseToJSONString);
+                }).doOnError(LOGGER::error).publishOn(schedulers.serialize()).map(this::convertResponseToJSONString);
+        return Uni.createFrom().converter(UniReactorConverters.fromMono(), stringMono);
+    }
+
+    /**
+     * Update Container
+     *
+     * 既存のコンテナのインデックス・ポリシーと TTL (defaultTimeToLive) を変更する (指定した項目のみ)。
+     * インデックス・ポリシーの変更はバックグラウンドで反映されるため、反映が完了するまでのクエリは
+     * 結果が不完全になる場合がある。
+     *
+     * curl -X PUT -H 'Content-Type:application/json' \
+     * localhost:8080/react-route/database/PERSON_DB/container/update-container \ -d
+     * '{"containerName": "personmanage", "indexingPolicy": {"excludedPaths": ["/firstName/?"]}}'
+     *
+     * @param request 変更するコンテナ名とインデックス・ポリシー、TTL
+     * @return 変更したコンテナ名と日時
+     */
+    @Route(path = "/react-route/database/:database/container/update-container", methods = HttpMethod.PUT, produces = "application/json")
+    public Uni<String> updateContainerCosmosDB(@Body RequestCosmosContainer request,
+            @Param("database") String databaseName, HttpServerResponse response) {
+        CosmosAsyncContainer asyncContainer = containerRegistry.container(databaseName, request.getContainerName());
+        IndexingPolicy indexingPolicy = null;
+        if (request.getIndexingPolicy() != null) {
+            try {
+                indexingPolicy = IndexingPolicies.toIndexingPolicy(request.getIndexingPolicy());
+            } catch (IllegalArgumentException iae) {
+                LOGGER.error(iae.getMessage());
+                response.setStatusCode(400);
+                return Uni.createFrom().item("");
+            }
+        }
+        IndexingPolicy newIndexingPolicy = indexingPolicy;
+
+        Mono<String> stringMono = asyncContainer.read().flatMap(containerResponse -> {
+            CosmosContainerProperties properties = containerResponse.getProperties();
+            if (newIndexingPolicy != null) {
+                properties.setIndexingPolicy(newIndexingPolicy);
+            }
+            if (request.getDefaultTimeToLive() != null) {
+                properties.setDefaultTimeToLiveInSeconds(request.getDefaultTimeToLive());
+            }
+            return asyncContainer.replace(properties);
+        }).publishOn(schedulers.io()).doOnNext(containerResponse -> {
+            LOGGER.info("COMPLETES SUCCESSFULLY to Update Container : " + request.getContainerName());
+            containerRegistry.invalidate(databaseName, request.getContainerName());
+            LOGGER.info(containerResponse.getDiagnostics().toString());
+        }).publishOn(schedulers.serialize()).map(this::convertResponseToJSONString)
+                .onErrorResume(CosmosException.class, error -> {
+                    LOGGER.error(error);
+                    if (error.getStatusCode() == 400 || error.getStatusCode() == 404) {
+                        response.setStatusCode(error.getStatusCode());
+                        return Mono.just("");
+                    }
+                    return Mono.error(error);
+                });
         return Uni.createFrom().converter(UniReactorConverters.fromMono(), stringMono);
     }
 
+    /**
+     * Read Container Throughput
+     *
+     * curl -X GET
+     * http://localhost:8080/react-route/database/PERSON_DB/container/personmanage/throughput
+     *
+     * @return 手動もしくはオートスケールの RU と、設定可能な最小の RU
+     */
+    @Route(path = "/react-route/database/:database/container/:container/throughput", methods = HttpMethod.GET, produces = "application/json")
+    public Uni<ThroughputInfo> readContainerThroughput(@Param("database") String databaseName,
+            @Param("container") String containerName, HttpServerResponse response) {
+        Mono<ThroughputResponse> throughput = containerRegistry.container(databaseName, containerName)
+                .readThroughput();
+        return throughputResponse(containerName, throughput, response);
+    }
+
+    /**
+     * Replace Container Throughput
+     *
+     * 手動とオートスケールの切り替えも可能。RU を増やす場合、パーティションの分割を伴うと反映までに時間がかかる
+     * (その間は replacePending が true)。
+     *
+     * curl -X PUT -H 'Content-Type:application/json' \
+     * http://localhost:8080/react-route/database/PERSON_DB/container/personmanage/throughput \
+     * -d '{"autoscaleMaxThroughput": 4000}'
+     */
+    @Route(path = "/react-route/database/:database/container/:container/throughput", methods = HttpMethod.PUT, produces = "application/json")
+    public Uni<ThroughputInfo> replaceContainerThroughput(@Body RequestThroughput requestThroughput,
+            @Param("database") String databaseName, @Param("container") String containerName,
+            HttpServerResponse response) {
+        ThroughputProperties throughputProperties = toThroughputProperties(requestThroughput.getRequestUnit(),
+                requestThroughput.getAutoscaleMaxThroughput());
+        if (throughputProperties == null) {
+            response.setStatusCode(400);
+            return Uni.createFrom().item(new ThroughputInfo());
+        }
+        Mono<ThroughputResponse> throughput = containerRegistry.container(databaseName, containerName)
+                .replaceThroughput(throughputProperties);
+        return throughputResponse(containerName, throughput, response);
+    }
+
+    /**
+     * Read Database Throughput (データベースで共有するスループット)
+     *
+     * curl -X GET http://localhost:8080/react-route/database/PERSON_DB/throughput
+     */
+    @Route(path = "/react-route/database/:database/throughput", methods = HttpMethod.GET, produces = "application/json")
+    public Uni<ThroughputInfo> readDatabaseThroughput(@Param("database") String databaseName,
+            HttpServerResponse response) {
+        return throughputResponse(databaseName, containerRegistry.database(databaseName).readThroughput(), response);
+    }
+
+    /**
+     * Replace Database Throughput
+     *
+     * curl -X PUT -H 'Content-Type:application/json' \
+     * http://localhost:8080/react-route/database/PERSON_DB/throughput -d '{"requestUnit": 800}'
+     */
+    @Route(path = "/react-route/database/:database/throughput", methods = HttpMethod.PUT, produces = "application/json")
+    public Uni<ThroughputInfo> replaceDatabaseThroughput(@Body RequestThroughput requestThroughput,
+            @Param("database") String databaseName, HttpServerResponse response) {
+        ThroughputProperties throughputProperties = toThroughputProperties(requestThroughput.getRequestUnit(),
+                requestThroughput.getAutoscaleMaxThroughput());
+        if (throughputProperties == null) {
+            response.setStatusCode(400);
+            return Uni.createFrom().item(new ThroughputInfo());
+        }
+        Mono<ThroughputResponse> throughput = containerRegistry.database(databaseName)
+                .replaceThroughput(throughputProperties);
+        return throughputResponse(databaseName, throughput, response);
+    }
+
+    /*
+     * スループットのレスポンスの変換
+     *
+     * 専用のスループットが無い (共有スループットを利用している) 場合などは Cosmos DB のステータス・コードを返す
+     */
+    private Uni<ThroughputInfo> throughputResponse(String name, Mono<ThroughputResponse> throughput,
+            HttpServerResponse response) {
+        Mono<ThroughputInfo> infoMono = throughput.publishOn(schedulers.io()).map(throughputResponse -> {
+            ThroughputProperties properties = throughputResponse.getProperties();
+            int autoscaleMax = properties.getAutoscaleMaxThroughput();
+            return new ThroughputInfo(name, autoscaleMax > 0 ? null : properties.getManualThroughput(),
+                    autoscaleMax > 0 ? autoscaleMax : null, throughputResponse.getMinThroughput(),
+                    throughputResponse.isReplacePending());
+        }).onErrorResume(CosmosException.class, error -> {
+            LOGGER.error(error);
+            if (error.getStatusCode() == 400 || error.getStatusCode() == 404) {
+                response.setStatusCode(error.getStatusCode());
+                return Mono.just(new ThroughputInfo());
+            }
+            return Mono.error(error);
+        });
+        return Uni.createFrom().converter(UniReactorConverters.fromMono(), infoMono);
+    }
+
+    /*
+     * オートスケールの最大 RU を優先し、どちらも指定されていない場合は null
+     */
+    private static ThroughputProperties toThroughputProperties(Integer requestUnit, Integer autoscaleMaxThroughput) {
+        if (autoscaleMaxThroughput != null && autoscaleMaxThroughput > 0) {
+            return ThroughputProperties.createAutoscaledThroughput(autoscaleMaxThroughput);
+        }
+        if (requestUnit != null && requestUnit > 0) {
+            return ThroughputProperties.createManualThroughput(requestUnit);
+        }
+        return null;
+    }
+
     /**
      * List All of the Containers in the DB
      *
@@ -343,18 +1108,14 @@ public class ReactiveRouteApp {
 
     @Route(path = "/react-route/database/:database/container", methods = HttpMethod.GET, produces = "application/json")
     public Uni<List<String>> listAllContainers(@Param("database") String databaseName) {
-
-        Long counter = asyncClient.readAllDatabases().filter(prop -> prop.getId().equals(databaseName)).count().block();
-        if (counter == null || counter < 1) {
-            Uni.createFrom().nullItem();
-        }
-
-        CosmosAsyncDatabase database = asyncClient.getDatabase(databaseName);
+        CosmosAsyncDatabase database = containerRegistry.database(databaseName);
         CosmosPagedFlux<CosmosContainerProperties> readContainerProp = database.readAllContainers();
 
-        Mono<List<String>> listMono = readContainerProp
-                .handle(response -> LOGGER.info(response.getCosmosDiagnostics().toString()))
-                .flatMap(properties -> Flux.just(properties.getId())).collectList();
+        Mono<List<String>> listMono = existsDatabase(databaseName).filter(Boolean::booleanValue)
+                .flatMap(exists -> readContainerProp
+                        .handle(response -> LOGGER.info(response.getCosmosDiagnostics().toString()))
+                        .publishOn(schedulers.io())
+                        .flatMap(properties -> Flux.just(properties.getId())).collectList());
 
         return Uni.createFrom().converter(UniReactorConverters.fromMono(), listMono);
     }
@@ -372,19 +1133,18 @@ public class ReactiveRouteApp {
 
     @Route(path = "/react-route/database/:database/container/delete-container", methods = HttpMethod.DELETE, produces = "application/json")
     public Uni<String> deleteContainer(@Body RequestCosmosContainer container, @Param("database") String databaseName) {
-        Long counter = asyncClient.readAllDatabases().filter(prop -> prop.getId().equals(databaseName)).count().block();
-        if (counter == null || counter < 1) {
-            return Uni.createFrom().nullItem();
-        }
-        CosmosAsyncDatabase asyncDatabase = asyncClient.getDatabase(databaseName);
-        CosmosAsyncContainer asyncContainer = asyncDatabase.getContainer(container.getContainerName());
+        CosmosAsyncContainer asyncContainer = containerRegistry.container(databaseName, container.getContainerName());
         if (asyncContainer == null) {
             return Uni.createFrom().nullItem();
         }
-        Mono<String> stringMono = asyncContainer.delete().doOnSuccess(response -> {
-            LOGGER.info("COMPLETES SUCCESSFULLY to Delete Container : " + container.getContainerName());
-            LOGGER.info(response.getDiagnostics().toString());
-        }).doOnError(LOGGER::error)
+        Mono<String> stringMono = existsDatabase(databaseName).filter(Boolean::booleanValue)
+                .flatMap(exists -> asyncContainer.delete())
+                .publishOn(schedulers.io()).doOnNext(response -> {
+                    LOGGER.info("COMPLETES SUCCESSFULLY to Delete Container : " + container.getContainerName());
+                    conditionalGetCache.invalidate(databaseName, container.getContainerName());
+                    containerRegistry.invalidate(databaseName, container.getContainerName());
+                    LOGGER.info(response.getDiagnostics().toString());
+                }).doOnError(LOGGER::error).publishOn(schedulers.serialize())
                 .map(response -> convertCreateObjectToString(container.getContainerName(), LocalDateTime.now()));
         return Uni.createFrom().converter(UniReactorConverters.fromMono(), stringMono);
     }
@@ -407,74 +1167,580 @@ public class ReactiveRouteApp {
      *
      * curl -X POST -H 'Content-Type:application/json' http://localhost:8080/react-route/database/PERSON_DB/container/personmanage/item/addItem -d '{"firstName": "a", "lastName": "b","age": 39}'
      *
+     * デフォルトでは Cosmos DB から作成したドキュメントを返さず (contentResponseOnWrite = false)、
+     * ローカルで採番した id を設定した Person を返します。消費した RU と ETag はレスポンス・ヘッダで返します。
+     * Cosmos DB が保存したドキュメントそのものが必要な場合は returnContent=true を指定します。
+     *
+     * curl -X POST -H 'Content-Type:application/json' "http://localhost:8080/react-route/database/PERSON_DB/container/personmanage/item/addItem?returnContent=true" -d '{"firstName": "a", "lastName": "b","age": 39}'
+     *
      * @param person Person data convert from JSON of HTTP Body
      * @param databaseName  Database Name
      * @param containerName Container Name
+     * @param returnContent true の場合は Cosmos DB から作成したドキュメントを取得して返す
+     * @param response RU, ETag, セッション・トークンをヘッダに設定するための HTTP レスポンス
      * @return Person data which succeeded
      */
     @Route(path = "/react-route/database/:database/container/:container/item/addItem", methods = HttpMethod.POST, produces = "application/json")
     public Uni<Person> createItemCosmosDB(@Body Person person, @Param("database") String databaseName,
-            @Param("container") String containerName) {
-        Long counter = asyncClient.readAllDatabases().filter(prop -> prop.getId().equals(databaseName)).count().block();
-        if (counter == null || counter < 1) {
-            return Uni.createFrom().nullItem();
-        }
-        CosmosAsyncDatabase asyncDatabase = asyncClient.getDatabase(databaseName);
-        CosmosAsyncContainer asyncContainer = asyncDatabase.getContainer(containerName);
+            @Param("container") String containerName, @Param("returnContent") String returnContent,
+            HttpServerResponse response) {
+        CosmosAsyncContainer asyncContainer = containerRegistry.container(databaseName, containerName);
         if (asyncContainer == null) {
             return Uni.createFrom().nullItem();
         }
 
         person.setId(UUID.randomUUID().toString());
+        partitionKeyStrategy.apply(person);
+        String partitionKeyValue = partitionKeyStrategy.partitionKeyValueOf(person.getLastName(), person.getId());
+        String hotPartitionKey = databaseName + "/" + containerName;
 
-        Mono<Person> successPerson = asyncContainer.createItem(person)
-                .doOnSuccess(cosmosItemResponse -> {
+        boolean contentOnWrite = Boolean.parseBoolean(returnContent);
+        Mono<Person> successPerson = existsDatabase(databaseName).filter(Boolean::booleanValue)
+                .flatMap(exists -> createPerson(asyncContainer, person, contentOnWrite))
+                .publishOn(schedulers.io()).doOnNext(cosmosItemResponse -> {
                     LOGGER.info(cosmosItemResponse.getDiagnostics());
-                    Person returnedPerson = cosmosItemResponse.getItem();
-                    LOGGER.info("SUCCEEDED to Create Item: " + returnedPerson);
-                }).doOnError(LOGGER::error)
-                .map(cosmosItemResponse -> cosmosItemResponse.getItem());
+                    hotPartitionDetector.record(hotPartitionKey, partitionKeyValue,
+                            cosmosItemResponse.getRequestCharge());
+                    LOGGER.info("SUCCEEDED to Create Item: " + person.getId());
+                    conditionalGetCache.invalidate(databaseName, containerName);
+                    putWriteHeaders(response, cosmosItemResponse);
+                }).doOnError(error -> {
+                    LOGGER.error(error);
+                    hotPartitionDetector.recordError(hotPartitionKey, partitionKeyValue, error);
+                })
+                .map(cosmosItemResponse -> contentOnWrite ? cosmosItemResponse.getItem() : person);
         return Uni.createFrom().converter(UniReactorConverters.fromMono(), successPerson);
     }
 
     /**
-     * Create Dummy Item into Container in CosmosDB <p> curl -X POST
-     * "http://localhost:8080/react-route/database/PERSON_DB/container/personmanage/item/addDummyItems"
-     * \ -H "accept: application/json" \ -H "Content-Type: application/json"
+     * Replace One Person Item (楽観的同時実行制御)
+     *
+     * 読み込み時の ETag を If-Match で指定すると、その後に他のクライアントが更新していた場合は
+     * 412 (Precondition Failed) を返し、更新を上書きしない。If-Match を省略した場合は無条件に置き換える。
+     * 存在しない場合は 404 を返す。
+     *
+     * curl -i -X PUT -H 'Content-Type:application/json' -H 'If-Match: "00000000-0000-0000-0000-000000000000"' \
+     * http://localhost:8080/react-route/database/PERSON_DB/container/personmanage/item/5998c7db-0c90-48b3-be3a-ef8b55f84201 \
+     * -d '{"firstName": "a", "lastName": "b","age": 40}'
+     *
+     * @param person 置き換える Person (id はパスの値を利用)
+     * @param ifMatch 読み込み時の ETag
+     * @param returnContent true の場合は Cosmos DB が保存したドキュメントを返す
+     * @return 置き換えた Person (新しい ETag はレスポンス・ヘッダで返す)
      */
-/*
-    @Route(path = "/react-route/database/:database/container/:container/item/addDummyItems", methods = HttpMethod.POST, produces = "application/json")
-    public Uni<List<Person>> createDummyItemCosmosDB(@Param("database") String databaseName,
-            @Param("container") String containerName) {
-        List<Person> persons = createDummyPersons();
+    @Route(path = "/react-route/database/:database/container/:container/item/:id", methods = HttpMethod.PUT, produces = "application/json")
+    public Uni<Buffer> replaceItemCosmosDB(@Body Person person, @Param("database") String databaseName,
+            @Param("container") String containerName, @Param("id") String id, @Header("If-Match") String ifMatch,
+            @Param("returnContent") String returnContent, HttpServerResponse response) {
+        CosmosAsyncContainer container = containerRegistry.container(databaseName, containerName);
+        person.setId(id);
+        partitionKeyStrategy.apply(person);
 
-        CosmosAsyncDatabase database = asyncClient.getDatabase(databaseName);
-        CosmosAsyncContainer container = database.getContainer(containerName);
+        boolean contentOnWrite = Boolean.parseBoolean(returnContent);
+        CosmosItemRequestOptions options = writeOptions(ifMatch, contentOnWrite);
+        Mono<CosmosItemResponse<Person>> replace = container.replaceItem(person, id,
+                partitionKeyStrategy.partitionKeyFor(person.getLastName(), id), options);
+        return writeResponse(databaseName, containerName,
+                partitionKeyStrategy.partitionKeyValueOf(person.getLastName(), id), replace, contentOnWrite, person,
+                response);
+    }
 
-        Mono<List<Person>> listMono = Flux.fromIterable(persons).delayElements(Duration.ofMillis(10))
-                .flatMap(container::createItem).map(response -> {
-                    LOGGER.info(response.getDiagnostics().toString());
-                    return response.getItem();
-                }).collectList();
-        return Uni.createFrom().converter(UniReactorConverters.fromMono(), listMono);
-    }*/
+    /**
+     * Upsert One Person Item
+     *
+     * id が存在すれば置き換え、存在しなければ作成する (読み込んでから作成・更新する往復が不要)。
+     * id を省略した場合は新しい id を採番する。If-Match を指定した場合、既存のドキュメントの ETag と
+     * 一致しなければ 412 を返す。
+     *
+     * curl -i -X POST -H 'Content-Type:application/json' \
+     * http://localhost:8080/react-route/database/PERSON_DB/container/personmanage/item/upsertItem \
+     * -d '{"id": "5998c7db-0c90-48b3-be3a-ef8b55f84201", "firstName": "a", "lastName": "b","age": 40}'
+     */
+    @Route(path = "/react-route/database/:database/container/:container/item/upsertItem", methods = HttpMethod.POST, produces = "application/json")
+    public Uni<Buffer> upsertItemCosmosDB(@Body Person person, @Param("database") String databaseName,
+            @Param("container") String containerName, @Header("If-Match") String ifMatch,
+            @Param("returnContent") String returnContent, HttpServerResponse response) {
+        CosmosAsyncContainer container = containerRegistry.container(databaseName, containerName);
+        if (person.getId() == null || person.getId().isEmpty()) {
+            person.setId(UUID.randomUUID().toString());
+        }
+        partitionKeyStrategy.apply(person);
+
+        boolean contentOnWrite = Boolean.parseBoolean(returnContent);
+        CosmosItemRequestOptions options = writeOptions(ifMatch, contentOnWrite);
+        Mono<CosmosItemResponse<Person>> upsert = container.upsertItem(person,
+                partitionKeyStrategy.partitionKeyFor(person.getLastName(), person.getId()), options);
+        return writeResponse(databaseName, containerName,
+                partitionKeyStrategy.partitionKeyValueOf(person.getLastName(), person.getId()), upsert,
+                contentOnWrite, person, response);
+    }
+
+    /**
+     * Patch One Person Item (部分更新)
+     *
+     * 変更する項目だけを送信し、Cosmos DB 側で更新する。ドキュメント全体を読み込んで書き戻す必要がないため
+     * 往復の回数と転送量が少なく、同じドキュメントの別の項目への同時更新も失われない。
+     * op は add, set, replace, remove, increment を指定可能。If-Match を指定した場合は ETag が一致した場合のみ更新する。
+     *
+     * returnContent=true の場合は更新後のドキュメントを返し、指定しない場合は 204 (ボディ無し) を返す。
+     *
+     * curl -i -X PATCH -H 'Content-Type:application/json' \
+     * http://localhost:8080/react-route/database/PERSON_DB/container/personmanage/item/5998c7db-0c90-48b3-be3a-ef8b55f84201/lastName/Terada \
+     * -d '{"operations": [{"op": "increment", "path": "/age", "value": 1}]}'
+     */
+    @Route(path = "/react-route/database/:database/container/:container/item/:id/lastName/:lastName", methods = HttpMethod.PATCH, produces = "application/json")
+    public Uni<Buffer> patchItemCosmosDB(@Body RequestPatch patch, @Param("database") String databaseName,
+            @Param("container") String containerName, @Param("id") String id, @Param("lastName") String lastName,
+            @Header("If-Match") String ifMatch, @Param("returnContent") String returnContent,
+            HttpServerResponse response) {
+        CosmosAsyncContainer container = containerRegistry.container(databaseName, containerName);
+        CosmosPatchOperations patchOperations;
+        try {
+            patchOperations = toPatchOperations(patch.getOperations());
+        } catch (IllegalArgumentException iae) {
+            LOGGER.error(iae.getMessage());
+            response.setStatusCode(400);
+            return Uni.createFrom().item(Buffer.buffer());
+        }
+
+        boolean contentOnWrite = Boolean.parseBoolean(returnContent);
+        CosmosPatchItemRequestOptions options = new CosmosPatchItemRequestOptions();
+        options.setContentResponseOnWriteEnabled(contentOnWrite);
+        if (ifMatch != null && !ifMatch.isEmpty()) {
+            options.setIfMatchETag(ifMatch);
+        }
+        Mono<CosmosItemResponse<Person>> patchMono = container.patchItem(id,
+                partitionKeyStrategy.partitionKeyFor(lastName, id), patchOperations, options, Person.class);
+        return writeResponse(databaseName, containerName, partitionKeyStrategy.partitionKeyValueOf(lastName, id),
+                patchMono, contentOnWrite, null, response);
+    }
 
     /*
-     * This method create Dummy Data.
+     * RequestPatchOperation の一覧を CosmosPatchOperations に変換
+     *
+     * 不明な op や値の無い操作は IllegalArgumentException
      */
-    static List<Person> createDummyPersons() {
-        int counter = 1;
-        int range = 1000;
+    static CosmosPatchOperations toPatchOperations(List<RequestPatchOperation> operations) {
+        if (operations == null || operations.isEmpty()) {
+            throw new IllegalArgumentException("No patch operations");
+        }
+        CosmosPatchOperations patchOperations = CosmosPatchOperations.create();
+        for (RequestPatchOperation operation : operations) {
+            String op = operation.getOp() == null ? "" : operation.getOp().toLowerCase();
+            String path = operation.getPath();
+            Object value = operation.getValue();
+            if (path == null || !path.startsWith("/")) {
+                throw new IllegalArgumentException("Invalid patch path: " + path);
+            }
+            if (!op.equals("remove") && value == null) {
+                throw new IllegalArgumentException("No value for patch operation: " + op + " " + path);
+            }
+            switch (op) {
+            case "add":
+                patchOperations.add(path, value);
+                break;
+            case "set":
+                patchOperations.set(path, value);
+                break;
+            case "replace":
+                patchOperations.replace(path, value);
+                break;
+            case "remove":
+                patchOperations.remove(path);
+                break;
+            case "increment":
+                if (!(value instanceof Number)) {
+                    throw new IllegalArgumentException("Increment value must be a number: " + path);
+                }
+                Number number = (Number) value;
+                if (number instanceof Double || number instanceof Float) {
+                    patchOperations.increment(path, number.doubleValue());
+                } else {
+                    patchOperations.increment(path, number.longValue());
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown patch operation: " + operation.getOp());
+            }
+        }
+        return patchOperations;
+    }
 
-        List<Person> persons = new ArrayList<>();
-        IntStream.rangeClosed(counter, counter + range).forEach(value -> {
-            Person person = new Person();
-            person.setId(UUID.randomUUID().toString());
-            person.setFirstName("Yoshio" + value);
-            person.setLastName("Terada" + value);
-            person.setAge(value);
-            persons.add(person);
+    private static CosmosItemRequestOptions writeOptions(String ifMatch, boolean contentOnWrite) {
+        CosmosItemRequestOptions options = new CosmosItemRequestOptions();
+        options.setContentResponseOnWriteEnabled(contentOnWrite);
+        if (ifMatch != null && !ifMatch.isEmpty()) {
+            options.setIfMatchETag(ifMatch);
+        }
+        return options;
+    }
+
+    /*
+     * replace, upsert, patch の共通処理
+     *
+     * RU, ETag, セッション・トークンをヘッダに設定し、contentOnWrite の場合は Cosmos DB のドキュメントを、
+     * それ以外はローカルの Person (null の場合は 204) を返す。
+     * ETag の不一致 (412)、存在しない (404)、不正なリクエスト (400) はそのステータス・コードで返す。
+     */
+    private Uni<Buffer> writeResponse(String databaseName, String containerName, String partitionKeyValue,
+            Mono<CosmosItemResponse<Person>> write, boolean contentOnWrite, Person localPerson,
+            HttpServerResponse response) {
+        String hotPartitionKey = databaseName + "/" + containerName;
+        Mono<Buffer> bufferMono = write.publishOn(schedulers.io()).doOnNext(itemResponse -> {
+            LOGGER.info(itemResponse.getDiagnostics());
+            hotPartitionDetector.record(hotPartitionKey, partitionKeyValue, itemResponse.getRequestCharge());
+            conditionalGetCache.invalidate(databaseName, containerName);
+            putWriteHeaders(response, itemResponse);
+        }).doOnError(error -> {
+            LOGGER.error(error);
+            hotPartitionDetector.recordError(hotPartitionKey, partitionKeyValue, error);
+        }).publishOn(schedulers.serialize()).map(itemResponse -> {
+            Object body = contentOnWrite ? itemResponse.getItem() : localPerson;
+            if (body == null) {
+                response.setStatusCode(204);
+                return Buffer.buffer();
+            }
+            return toJsonBuffer(body);
+        }).onErrorResume(CosmosException.class, error -> {
+            int statusCode = error.getStatusCode();
+            if (statusCode == 400 || statusCode == 404 || statusCode == 412) {
+                response.setStatusCode(statusCode);
+                response.putHeader(HEADER_REQUEST_CHARGE, String.valueOf(error.getRequestCharge()));
+                return Mono.just(Buffer.buffer());
+            }
+            return Mono.error(error);
         });
-        return persons;
+        return Uni.createFrom().converter(UniReactorConverters.fromMono(), bufferMono);
+    }
+
+    private static void putWriteHeaders(HttpServerResponse response, CosmosItemResponse<?> itemResponse) {
+        response.putHeader(HEADER_REQUEST_CHARGE, String.valueOf(itemResponse.getRequestCharge()));
+        response.putHeader(HttpHeaders.ETAG, itemResponse.getETag());
+        // 直後の読み込みで Read Your Writes を保証するためのセッション・トークン
+        response.putHeader(HEADER_SESSION_TOKEN, itemResponse.getSessionToken());
+    }
+
+    /**
+     * Transactional Batch
+     *
+     * 同じパーティション・キー (lastName) の複数の操作を 1 回の往復で、トランザクションとして実行する。
+     * 1 つでも失敗した場合は全ての操作がロールバックされ、失敗した操作のステータス・コードを返す。
+     * 操作は create, upsert, replace, delete, read, patch を最大 100 件まで指定可能。
+     *
+     * 合成パーティション・キー (PartitionKeyStrategy) を利用する場合は、全ての操作の
+     * パーティション・キーが一致する必要がある (一致しない場合は 400)。
+     *
+     * curl -X POST -H 'Content-Type:application/json' \
+     * http://localhost:8080/react-route/database/PERSON_DB/container/personmanage/batch \
+     * -d '{"lastName": "Terada", "operations": [
+     *   {"type": "create", "item": {"firstName": "Yoshio", "lastName": "Terada", "age": 40}},
+     *   {"type": "patch", "id": "5998c7db-0c90-48b3-be3a-ef8b55f84201",
+     *    "operations": [{"op": "increment", "path": "/age", "value": 1}]}]}'
+     *
+     * @param requestBatch パーティション・キーと操作の一覧
+     * @return 操作毎の結果と合計の RU
+     */
+    @Route(path = "/react-route/database/:database/container/:container/batch", methods = HttpMethod.POST, produces = "application/json")
+    public Uni<Buffer> executeBatch(@Body RequestBatch requestBatch, @Param("database") String databaseName,
+            @Param("container") String containerName, HttpServerResponse response) {
+        CosmosAsyncContainer container = containerRegistry.container(databaseName, containerName);
+        String partitionKeyValue;
+        CosmosBatch batch;
+        try {
+            partitionKeyValue = batchPartitionKeyValue(requestBatch);
+            batch = toCosmosBatch(requestBatch, partitionKeyValue);
+        } catch (IllegalArgumentException iae) {
+            LOGGER.error(iae.getMessage());
+            response.setStatusCode(400);
+            return Uni.createFrom().item(Buffer.buffer());
+        }
+        String hotPartitionKey = databaseName + "/" + containerName;
+
+        Mono<Buffer> bufferMono = container.executeCosmosBatch(batch).publishOn(schedulers.io())
+                .doOnNext(batchResponse -> {
+                    LOGGER.info(batchResponse.getDiagnostics());
+                    hotPartitionDetector.record(hotPartitionKey, partitionKeyValue, batchResponse.getRequestCharge());
+                    if (batchResponse.isSuccessStatusCode()) {
+                        conditionalGetCache.invalidate(databaseName, containerName);
+                    } else {
+                        response.setStatusCode(batchResponse.getStatusCode());
+                    }
+                    response.putHeader(HEADER_REQUEST_CHARGE, String.valueOf(batchResponse.getRequestCharge()));
+                    response.putHeader(HEADER_SESSION_TOKEN, batchResponse.getSessionToken());
+                }).doOnError(error -> {
+                    LOGGER.error(error);
+                    hotPartitionDetector.recordError(hotPartitionKey, partitionKeyValue, error);
+                }).publishOn(schedulers.serialize()).map(batchResponse -> toJsonBuffer(toBatchResult(batchResponse)))
+                .onErrorResume(CosmosException.class, error -> {
+                    if (error.getStatusCode() == 400 || error.getStatusCode() == 404) {
+                        response.setStatusCode(error.getStatusCode());
+                        return Mono.just(Buffer.buffer());
+                    }
+                    return Mono.error(error);
+                });
+        return Uni.createFrom().converter(UniReactorConverters.fromMono(), bufferMono);
+    }
+
+    /*
+     * バッチの全ての操作に共通のパーティション・キーの値
+     *
+     * create, upsert で id が無い場合はここで採番し、Person の lastName と合成パーティション・キーを設定する
+     */
+    String batchPartitionKeyValue(RequestBatch requestBatch) {
+        List<RequestBatchOperation> operations = requestBatch.getOperations();
+        if (requestBatch.getLastName() == null || requestBatch.getLastName().isEmpty()) {
+            throw new IllegalArgumentException("No lastName (partition key) for batch");
+        }
+        if (operations == null || operations.isEmpty() || operations.size() > MAX_BATCH_OPERATIONS) {
+            throw new IllegalArgumentException("Batch must contain 1 to " + MAX_BATCH_OPERATIONS + " operations");
+        }
+        String lastName = requestBatch.getLastName();
+        String partitionKeyValue = null;
+        for (RequestBatchOperation operation : operations) {
+            Person item = operation.getItem();
+            if (item != null) {
+                if (item.getLastName() != null && !item.getLastName().equals(lastName)) {
+                    throw new IllegalArgumentException("lastName of item does not match the batch: " + item.getLastName());
+                }
+                item.setLastName(lastName);
+                if (item.getId() == null || item.getId().isEmpty()) {
+                    item.setId(operation.getId() != null ? operation.getId() : UUID.randomUUID().toString());
+                }
+                operation.setId(item.getId());
+                partitionKeyStrategy.apply(item);
+            }
+            if (operation.getId() == null || operation.getId().isEmpty()) {
+                throw new IllegalArgumentException("No id for batch operation: " + operation.getType());
+            }
+            String value = partitionKeyStrategy.partitionKeyValueOf(lastName, operation.getId());
+            if (partitionKeyValue != null && !partitionKeyValue.equals(value)) {
+                throw new IllegalArgumentException("Batch operations span multiple partition keys");
+            }
+            partitionKeyValue = value;
+        }
+        return partitionKeyValue;
+    }
+
+    private CosmosBatch toCosmosBatch(RequestBatch requestBatch, String partitionKeyValue) {
+        CosmosBatch batch = CosmosBatch.createCosmosBatch(new PartitionKey(partitionKeyValue));
+        for (RequestBatchOperation operation : requestBatch.getOperations()) {
+            String type = operation.getType() == null ? "" : operation.getType().toLowerCase();
+            CosmosBatchItemRequestOptions options = new CosmosBatchItemRequestOptions();
+            if (operation.getIfMatch() != null && !operation.getIfMatch().isEmpty()) {
+                options.setIfMatchETag(operation.getIfMatch());
+            }
+            if (!type.equals("create") && !type.equals("upsert") && !type.equals("replace")
+                    && operation.getItem() != null) {
+                throw new IllegalArgumentException("item is not allowed for batch operation: " + type);
+            }
+            switch (type) {
+            case "create":
+                batch.createItemOperation(requireItem(operation), options);
+                break;
+            case "upsert":
+                batch.upsertItemOperation(requireItem(operation), options);
+                break;
+            case "replace":
+                batch.replaceItemOperation(operation.getId(), requireItem(operation), options);
+                break;
+            case "delete":
+                batch.deleteItemOperation(operation.getId(), options);
+                break;
+            case "read":
+                batch.readItemOperation(operation.getId(), options);
+                break;
+            case "patch":
+                CosmosBatchPatchItemRequestOptions patchOptions = new CosmosBatchPatchItemRequestOptions();
+                if (operation.getIfMatch() != null && !operation.getIfMatch().isEmpty()) {
+                    patchOptions.setIfMatchETag(operation.getIfMatch());
+                }
+                batch.patchItemOperation(operation.getId(), toPatchOperations(operation.getOperations()),
+                        patchOptions);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown batch operation: " + operation.getType());
+            }
+        }
+        return batch;
+    }
+
+    private static Person requireItem(RequestBatchOperation operation) {
+        if (operation.getItem() == null) {
+            throw new IllegalArgumentException("No item for batch operation: " + operation.getType());
+        }
+        return operation.getItem();
+    }
+
+    private static BatchResult toBatchResult(CosmosBatchResponse batchResponse) {
+        List<BatchOperationResult> results = new ArrayList<>(batchResponse.getResults().size());
+        for (CosmosBatchOperationResult result : batchResponse.getResults()) {
+            CosmosItemOperation operation = result.getOperation();
+            Person item = operation.getOperationType() == CosmosItemOperationType.READ && result.isSuccessStatusCode()
+                    ? result.getItem(Person.class)
+                    : null;
+            results.add(new BatchOperationResult(operation.getId(), operation.getOperationType().name().toLowerCase(),
+                    result.getStatusCode(), result.getRequestCharge(), result.getETag(), item));
+        }
+        return new BatchResult(batchResponse.isSuccessStatusCode(), batchResponse.getStatusCode(),
+                batchResponse.getRequestCharge(), batchResponse.getErrorMessage(), results);
+    }
+
+    /**
+     * Bulk Delete
+     *
+     * 条件に一致する Person をバルク操作で削除する (DB やコンテナを削除せずに一部のデータだけを削除)。
+     * 条件の項目は id, firstName, lastName, age, partitionKey, _ts、演算子は =, !=, <, <=, >, >=, startswith。
+     * dryRun=true の場合は削除せずに対象の件数だけを返す。削除の RU は app.bulk-delete.max-ru-per-second で制限する。
+     *
+     * 定期的に古いデータを削除する場合は、アプリケーションで削除せずにコンテナの TTL (defaultTimeToLive) を利用する。
+     * PersonChangeFeed が読み込んでいるコンテナで削除した場合は、ビューを作り直す (TTL の削除は反映しないため、
+     * TTL を利用する場合は定期的に view/rebuild を呼び出す)。
+     *
+     * curl -X POST -H 'Content-Type:application/json' \
+     * http://localhost:8080/react-route/database/PERSON_DB/container/personmanage/item/bulkDelete \
+     * -d '{"field": "age", "operator": ">", "value": 100, "dryRun": true}'
+     *
+     * @param request 削除の条件
+     * @return 対象の件数と削除した件数、消費した RU
+     */
+    @Route(path = "/react-route/database/:database/container/:container/item/bulkDelete", methods = HttpMethod.POST, produces = "application/json")
+    public Uni<BulkDeleteResult> bulkDeleteCosmosDB(@Body RequestBulkDelete request,
+            @Param("database") String databaseName, @Param("container") String containerName,
+            HttpServerResponse response) {
+        CosmosAsyncContainer container = containerRegistry.container(databaseName, containerName);
+        Mono<BulkDeleteResult> resultMono;
+        try {
+            resultMono = bulkDeleter.delete(container, request);
+        } catch (IllegalArgumentException iae) {
+            LOGGER.error(iae.getMessage());
+            response.setStatusCode(400);
+            return Uni.createFrom().item(new BulkDeleteResult());
+        }
+        resultMono = resultMono.doOnNext(result -> {
+            response.putHeader(HEADER_REQUEST_CHARGE, String.valueOf(result.getRequestCharge()));
+            if (result.getDeleted() > 0) {
+                conditionalGetCache.invalidate(databaseName, containerName);
+                // Change Feed には削除が含まれないため、先頭から読み直して削除を反映する
+                if (personChangeFeed.isWatching(databaseName, containerName)) {
+                    personChangeFeed.rebuild();
+                }
+            }
+        }).doOnError(LOGGER::error);
+        return Uni.createFrom().converter(UniReactorConverters.fromMono(), resultMono);
+    }
+
+    /**
+     * コンテナの全ドキュメントを app.transfer.directory/:name に NDJSON (gzip) でエクスポート
+     *
+     * curl -X POST
+     * http://localhost:8080/react-route/database/PERSON_DB/container/personmanage/export/backup-20201101
+     *
+     * @return 400 (不正な名前), 404 (コンテナが無い), 409 (同じ名前のエクスポートが有る)
+     */
+    @Route(path = "/react-route/database/:database/container/:container/export/:name", methods = HttpMethod.POST, produces = "application/json")
+    public Uni<Buffer> exportContainer(@Param("database") String databaseName,
+            @Param("container") String containerName, @Param("name") String name, HttpServerResponse response) {
+        return transferResponse(() -> containerTransfer.exportContainer(databaseName, containerName, name), response);
+    }
+
+    /**
+     * app.transfer.directory/:name のファイルをバルク操作 (upsert) でコンテナにインポート
+     *
+     * curl -X POST
+     * http://localhost:8080/react-route/database/PERSON_DB/container/personmanage/import/backup-20201101
+     *
+     * @return 400 (不正な名前), 404 (コンテナもしくはファイルが無い)
+     */
+    @Route(path = "/react-route/database/:database/container/:container/import/:name", methods = HttpMethod.POST, produces = "application/json")
+    public Uni<Buffer> importContainer(@Param("database") String databaseName,
+            @Param("container") String containerName, @Param("name") String name, HttpServerResponse response) {
+        return transferResponse(() -> {
+            Mono<TransferResult> resultMono = containerTransfer.importContainer(databaseName, containerName, name);
+            return resultMono.doOnNext(result -> conditionalGetCache.invalidate(databaseName, containerName));
+        }, response);
+    }
+
+    private Uni<Buffer> transferResponse(Supplier<Mono<TransferResult>> transfer, HttpServerResponse response) {
+        Mono<Buffer> bufferMono = Mono.defer(transfer)
+                .doOnNext(result -> response.putHeader(HEADER_REQUEST_CHARGE,
+                        String.valueOf(result.getRequestCharge())))
+                .map(ReactiveRouteApp::toJsonBuffer)
+                .onErrorResume(error -> {
+                    int statusCode;
+                    if (error instanceof IllegalArgumentException) {
+                        statusCode = 400;
+                    } else if (error instanceof NoSuchFileException) {
+                        statusCode = 404;
+                    } else if (error instanceof FileAlreadyExistsException) {
+                        statusCode = 409;
+                    } else if (error instanceof CosmosException) {
+                        statusCode = ((CosmosException) error).getStatusCode();
+                    } else {
+                        return Mono.error(error);
+                    }
+                    LOGGER.error("TRANSFER FAILED: " + error.getMessage());
+                    response.setStatusCode(statusCode);
+                    return Mono.just(Buffer.buffer());
+                });
+        return Uni.createFrom().converter(UniReactorConverters.fromMono(), bufferMono);
+    }
+
+    /*
+     * Person の作成
+     *
+     * contentOnWrite が false の場合は、Cosmos DB は作成したドキュメントをレスポンスに含めないため
+     * 転送量を削減できる (id, RU, ETag, セッション・トークンはレスポンスから取得可能)
+     */
+    Mono<CosmosItemResponse<Person>> createPerson(CosmosAsyncContainer container, Person person,
+            boolean contentOnWrite) {
+        CosmosItemRequestOptions options = new CosmosItemRequestOptions();
+        options.setContentResponseOnWriteEnabled(contentOnWrite);
+        return container.createItem(person, options);
+    }
+
+    /*
+     * DB の存在確認
+     *
+     * ルートはイベント・ループ上で呼ばれるため block() せずに Mono で結果を返す
+     */
+    private Mono<Boolean> existsDatabase(String databaseName) {
+        return containerRegistry.existsDatabase(databaseName);
+    }
+
+    /**
+     * ベンチマーク用のダミー・データ (SyntheticPersons) をバルク操作でコンテナに書き込む。
+     * データは 1 件ずつ遅延して生成するため、数百万件でもメモリの使用量は一定です。
+     * ボディを省略した場合は既定値 (1000 件、seed=42) で生成します。
+     *
+     * curl -X POST -H 'Content-Type:application/json' \
+     * http://localhost:8080/react-route/database/PERSON_DB/container/personmanage/item/addDummyItems \
+     * -d '{"count": 1000000, "seed": 42, "lastNames": 1000, "skew": 1.2, "width": 512}'
+     *
+     * @return 400 (不正な設定), 404 (コンテナが無い)
+     */
+    @Route(path = "/react-route/database/:database/container/:container/item/addDummyItems", methods = HttpMethod.POST, produces = "application/json")
+    public Uni<Buffer> createDummyItemCosmosDB(@Body RequestSyntheticData request,
+            @Param("database") String databaseName, @Param("container") String containerName,
+            HttpServerResponse response) {
+        return transferResponse(() -> {
+            Flux<JsonNode> documents = syntheticPersons.generate(request != null ? request : new RequestSyntheticData());
+            return containerTransfer.generateInto(databaseName, containerName, documents)
+                    .doOnNext(result -> conditionalGetCache.invalidate(databaseName, containerName));
+        }, response);
+    }
+
+    /**
+     * ダミー・データを app.transfer.directory/:name にファイルとして書き込む (import ルートで投入)
+     *
+     * curl -X POST -H 'Content-Type:application/json' \
+     * http://localhost:8080/react-route/synthetic/persons-1m -d '{"count": 1000000, "seed": 42}'
+     *
+     * @return 400 (不正な名前や設定), 409 (同じ名前のファイルが有る)
+     */
+    @Route(path = "/react-route/synthetic/:name", methods = HttpMethod.POST, produces = "application/json")
+    public Uni<Buffer> createDummyFiles(@Body RequestSyntheticData request, @Param("name") String name,
+            HttpServerResponse response) {
+        return transferResponse(() -> containerTransfer.generateFiles(name,
+                syntheticPersons.generate(request != null ? request : new RequestSyntheticData())), response);
     }
 }
@@ -0,0 +1,139 @@
+package com.microsoft.azure.samples.quarkus;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+import org.eclipse.microprofile.metrics.Tag;
+import org.jboss.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Cosmos DB アカウントの各リージョンのエンドポイントまでのラウンド・トリップ時間を計測します。
+ *
+ * 各リージョンのエンドポイント (https://{アカウント名}-{リージョン名}.documents.azure.com:443/) に
+ * TCP 接続を行い、その所要時間の中央値をリージョンのレイテンシとします。
+ * 計測結果は region.latency (ミリ秒) として MicroProfile Metrics で公開します。
+ *
+ * 計測はブロッキング処理のため、呼び出し側でブロッキングを許可したスレッド上で実行します。
+ */
+
+@ApplicationScoped
+public class RegionLatencyMonitor {
+
+    private static final Logger LOGGER = Logger.getLogger(RegionLatencyMonitor.class);
+    private static final long UNREACHABLE = Long.MAX_VALUE;
+
+    // 計測対象のリージョン (アカウントでレプリケーションを有効にしているリージョン)
+    @ConfigProperty(name = "cosmos.regions", defaultValue = "Japan East")
+    List<String> regions;
+
+    @ConfigProperty(name = "cosmos.region.probe-timeout", defaultValue = "PT2S")
+    Duration probeTimeout;
+
+    @ConfigProperty(name = "cosmos.region.probe-count", defaultValue = "3")
+    int probeCount;
+
+    @Inject
+    CosmosClientProducer clientProducer;
+
+    @Inject
+    MetricRegistry metricRegistry;
+
+    private final Map<String, Long> latencies = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        for (String region : regions) {
+            latencies.put(region, UNREACHABLE);
+            metricRegistry.register(Metadata.builder().withName("region.latency").withType(MetricType.GAUGE)
+                    .withUnit("milliseconds").withDescription("Measured TCP round trip time to the region").build(),
+                    (Gauge<Long>) () -> {
+                        long latency = latencies.getOrDefault(region, UNREACHABLE);
+                        return latency == UNREACHABLE ? -1L : latency;
+                    }, new Tag("region", normalize(region)));
+        }
+    }
+
+    /**
+     * @return 計測対象のリージョンが複数ある場合は true
+     */
+    public boolean isMultiRegion() {
+        return regions.size() > 1;
+    }
+
+    /**
+     * 全リージョンのレイテンシを計測 (ブロッキング)
+     */
+    public void probe() {
+        String accountName = accountName(clientProducer.getEndpoint());
+        for (String region : regions) {
+            String host = accountName + "-" + normalize(region) + ".documents.azure.com";
+            long[] samples = new long[probeCount];
+            for (int i = 0; i < probeCount; i++) {
+                samples[i] = connect(host);
+            }
+            Arrays.sort(samples);
+            latencies.put(region, samples[probeCount / 2]);
+        }
+        LOGGER.info("REGION LATENCIES (ms): " + latencies);
+    }
+
+    /**
+     * @return 1 つ以上のリージョンのレイテンシを計測できた場合は true
+     * (全てのリージョンに接続できない場合、orderedRegions() は cosmos.regions の記載順になる)
+     */
+    public boolean hasMeasurements() {
+        return latencies.values().stream().anyMatch(latency -> latency != UNREACHABLE);
+    }
+
+    /**
+     * @return レイテンシの小さい順に並べたリージョン (計測できなかったリージョンは末尾)
+     */
+    public List<String> orderedRegions() {
+        return regions.stream()
+                .sorted(Comparator.comparingLong(region -> latencies.getOrDefault(region, UNREACHABLE)))
+                .collect(Collectors.toList());
+    }
+
+    private long connect(String host) {
+        long start = System.nanoTime();
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(host, 443), (int) probeTimeout.toMillis());
+            return Duration.ofNanos(System.nanoTime() - start).toMillis();
+        } catch (IOException e) {
+            LOGGER.debug("FAILED to connect to " + host + ": " + e.getMessage());
+            return UNREACHABLE;
+        }
+    }
+
+    /*
+     * https://HOSTNAME-cosmosdb.documents.azure.com:443/ -> HOSTNAME-cosmosdb
+     */
+    static String accountName(String endpoint) {
+        String host = URI.create(endpoint).getHost();
+        return host.substring(0, host.indexOf('.'));
+    }
+
+    /*
+     * "Japan East" -> "japaneast"
+     */
+    static String normalize(String region) {
+        return region.replace(" ", "").toLowerCase();
+    }
+}
@@ -0,0 +1,154 @@
+package com.microsoft.azure.samples.quarkus;
+
+import com.azure.cosmos.CosmosAsyncClient;
+import io.quarkus.runtime.StartupEvent;
+import io.quarkus.scheduler.Scheduled;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 読み込み用の CosmosAsyncClient を管理します。
+ *
+ * 書き込みは共有のクライアント (CosmosClientProducer) を利用し、アカウントの書き込みリージョンで処理されます。
+ * 読み込みは RegionLatencyMonitor で計測したレイテンシの小さい順にリージョンを並べたクライアントを利用します。
+ *
+ * preferredRegions はクライアントの生成時にしか指定できないため、定期的 (cosmos.region.probe-interval) に
+ * レイテンシを計測し、リージョンの順が変わった場合は読み込み用のクライアントを作り直します
+ * (先頭以外の順が変わった場合も、フェイルオーバー先や secondary() のリージョンが変わるため作り直します)。
+ * 古いクライアントは処理中のリクエストが完了するのを待ってからクローズします。
+ *
+ * 計測対象のリージョンが 1 つの場合は共有のクライアントをそのまま利用します。
+ *
+ * secondary() は 2 番目にレイテンシの小さいリージョンを優先するクライアントで、HedgedReads の
+ * 2 回目のリクエストに利用します。クライアントの生成はブロッキング処理 (GlobalEndpointManager の初期化) のため、
+ * ヘッジ (Reactor の parallel スケジューラ) では生成せず、reevaluate() で読み込み用のクライアントと一緒に生成、
+ * 切り替え、クローズします。
+ */
+
+@ApplicationScoped
+public class RegionalReadClients {
+
+    private static final Logger LOGGER = Logger.getLogger(RegionalReadClients.class);
+
+    @ConfigProperty(name = "cosmos.region.close-delay", defaultValue = "PT1M")
+    Duration closeDelay;
+
+    @Inject
+    CosmosAsyncClient asyncClient;
+
+    @Inject
+    CosmosClientProducer clientProducer;
+
+    @Inject
+    RegionLatencyMonitor latencyMonitor;
+
+    @Inject
+    CosmosSchedulers schedulers;
+
+    private final AtomicReference<RegionalClient> readClient = new AtomicReference<>();
+    private boolean destroyed;
+
+    void onStart(@Observes StartupEvent event) {
+        if (latencyMonitor.isMultiRegion()) {
+            Mono.fromRunnable(this::reevaluate).subscribeOn(schedulers.blocking()).subscribe();
+        }
+    }
+
+    /**
+     * @return 読み込み用のクライアント (レイテンシを計測するまでは共有のクライアント)
+     */
+    public CosmosAsyncClient current() {
+        RegionalClient regionalClient = readClient.get();
+        return regionalClient != null ? regionalClient.client : asyncClient;
+    }
+
+    /**
+     * @return 2 番目のリージョンを優先するクライアント (リージョンが 1 つの場合やレイテンシの計測前は current() と同じ)
+     */
+    public CosmosAsyncClient secondary() {
+        RegionalClient regionalClient = readClient.get();
+        if (regionalClient == null || regionalClient.secondary == null) {
+            return current();
+        }
+        return regionalClient.secondary;
+    }
+
+    /**
+     * @return 現在の読み込みで優先しているリージョンの順
+     */
+    public List<String> currentRegions() {
+        RegionalClient regionalClient = readClient.get();
+        return regionalClient != null ? regionalClient.regions : clientProducer.getPreferredRegions();
+    }
+
+    @Scheduled(every = "{cosmos.region.probe-interval}")
+    synchronized void reevaluate() {
+        if (destroyed || !latencyMonitor.isMultiRegion()) {
+            return;
+        }
+        latencyMonitor.probe();
+        // 全てのリージョンに接続できない場合 (プライベート・エンドポイントや DNS の制限など) は、
+        // 根拠の無い順でクライアントを作り直さない
+        if (!latencyMonitor.hasMeasurements()) {
+            LOGGER.warn("NO REGION LATENCY MEASURED: keeping " + currentRegions());
+            return;
+        }
+        List<String> ordered = latencyMonitor.orderedRegions();
+        if (ordered.equals(currentRegions())) {
+            return;
+        }
+
+        LOGGER.info("PREFERRED READ REGIONS CHANGED: " + currentRegions() + " -> " + ordered);
+        CosmosAsyncClient client = clientProducer.buildAsyncClient(ordered);
+        CosmosAsyncClient secondary = null;
+        if (ordered.size() > 1) {
+            List<String> rotated = new ArrayList<>(ordered);
+            Collections.rotate(rotated, -1);
+            secondary = clientProducer.buildAsyncClient(rotated);
+        }
+        RegionalClient previous = readClient.getAndSet(new RegionalClient(client, secondary, ordered));
+        if (previous != null) {
+            Mono.delay(closeDelay).subscribe(unused -> previous.close());
+        }
+    }
+
+    @PreDestroy
+    public synchronized void destroy() {
+        destroyed = true;
+        RegionalClient regionalClient = readClient.getAndSet(null);
+        if (regionalClient != null) {
+            regionalClient.close();
+        }
+    }
+
+    private static final class RegionalClient {
+        private final CosmosAsyncClient client;
+        // 2 番目のリージョンを優先するクライアント (リージョンが 1 つの場合は null)
+        private final CosmosAsyncClient secondary;
+        private final List<String> regions;
+
+        RegionalClient(CosmosAsyncClient client, CosmosAsyncClient secondary, List<String> regions) {
+            this.client = client;
+            this.secondary = secondary;
+            this.regions = regions;
+        }
+
+        void close() {
+            client.close();
+            if (secondary != null) {
+                secondary.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.microsoft.azure.samples.quarkus;
+
+import io.vertx.ext.web.RoutingContext;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+import org.eclipse.microprofile.metrics.Tag;
+import org.jboss.logging.Logger;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HTTP クライアントの切断とリクエスト毎のタイムアウトを Cosmos DB のクエリに伝えます。
+ *
+ * クライアントが切断した場合やタイムアウトした場合は、Reactor のパイプラインをキャンセルし、
+ * 残りのページの取得 (RU の消費) をすぐに止めます。
+ *
+ * 中断したリクエストがそれまでに消費した RU は、無駄になった RU としてメトリクスで公開します。
+ *
+ * request.wasted.request.charge : 中断したリクエストが消費した RU の合計
+ *
+ * request.cancelled : 中断したリクエスト数 (reason=disconnect | timeout)
+ *
+ * azure-cosmos 4.19 にはエンド・ツー・エンドのタイムアウトの設定が無いため、Reactor の timeout() で実装しています。
+ */
+
+@ApplicationScoped
+public class RequestCancellation {
+
+    private static final Logger LOGGER = Logger.getLogger(RequestCancellation.class);
+
+    // 一覧や 1 件の取得のタイムアウト
+    @ConfigProperty(name = "app.request.timeout", defaultValue = "PT30S")
+    Duration timeout;
+
+    // SSE (item/preferred) のストリーム全体のタイムアウト
+    @ConfigProperty(name = "app.request.stream-timeout", defaultValue = "PT5M")
+    Duration streamTimeout;
+
+    @Inject
+    MetricRegistry metricRegistry;
+
+    private final DoubleAdder wastedRequestCharge = new DoubleAdder();
+    private final LongAdder disconnected = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+
+    @PostConstruct
+    void registerMetrics() {
+        metricRegistry.register(Metadata.builder().withName("request.wasted.request.charge").withType(MetricType.GAUGE)
+                .withDescription("Request units consumed by requests that were cancelled or timed out").build(),
+                (Gauge<Double>) wastedRequestCharge::sum);
+        Metadata cancelled = Metadata.builder().withName("request.cancelled").withType(MetricType.GAUGE)
+                .withDescription("Number of requests cancelled before the response completed").build();
+        metricRegistry.register(cancelled, (Gauge<Long>) disconnected::sum, new Tag("reason", "disconnect"));
+        metricRegistry.register(cancelled, (Gauge<Long>) timedOut::sum, new Tag("reason", "timeout"));
+    }
+
+    /**
+     * 一覧や 1 件の取得用 (app.request.timeout)
+     */
+    public Guard open(RoutingContext rc) {
+        return new Guard(rc, timeout);
+    }
+
+    /**
+     * SSE のストリーム用 (app.request.stream-timeout)
+     */
+    public Guard openStream(RoutingContext rc) {
+        return new Guard(rc, streamTimeout);
+    }
+
+    double getWastedRequestCharge() {
+        return wastedRequestCharge.sum();
+    }
+
+    /**
+     * 1 リクエストの切断とタイムアウトの監視
+     */
+    public final class Guard {
+        private final Sinks.One<Boolean> disconnect = Sinks.one();
+        private final DoubleAdder requestCharge = new DoubleAdder();
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private volatile boolean abandoned;
+        private volatile boolean deadlineApplied;
+        private final Duration deadline;
+
+        Guard(RoutingContext rc, Duration deadline) {
+            this.deadline = deadline;
+            // レスポンスの完了時 (成功) とコネクションの切断時 (失敗) に呼ばれる。response.closeHandler() は
+            // Vert.x Web や Quarkus (Multi の書き込み) が設定したハンドラを置き換えるため使わない
+            rc.addEndHandler(result -> {
+                if (result.failed() && abandon(disconnected)) {
+                    disconnect.tryEmitValue(Boolean.TRUE);
+                }
+            });
+        }
+
+        /**
+         * Cosmos DB のレスポンス (ページ) 毎の RU を記録 (中断後に届いたページの RU も無駄として記録)
+         */
+        public void charge(double requestUnits) {
+            requestCharge.add(requestUnits);
+            if (abandoned) {
+                wastedRequestCharge.add(requestUnits);
+            }
+        }
+
+        /**
+         * 切断された場合は空で完了し、タイムアウトした場合は TimeoutException で失敗する (いずれも上流をキャンセル)
+         *
+         * deadline() を適用した Mono を渡した場合は、タイムアウトを重ねて適用しない。
+         */
+        public <T> Mono<T> apply(Mono<T> mono) {
+            return (deadlineApplied ? mono : deadline(mono)).takeUntilOther(disconnect.asMono())
+                    .doOnSuccess(unused -> finished.set(true));
+        }
+
+        /**
+         * タイムアウトだけを適用する。CircuitBreakers.protect() の内側で使うと、タイムアウトを
+         * キャンセルではなく TimeoutException (失敗) として数えさせることができる。apply() より先に組み立てること
+         */
+        public <T> Mono<T> deadline(Mono<T> mono) {
+            deadlineApplied = true;
+            return mono.timeout(deadline).doOnError(TimeoutException.class, unused -> abandon(timedOut));
+        }
+
+        /**
+         * ストリーム用。最初のページが届くまでにタイムアウトした場合は TimeoutException で失敗する
+         * (CircuitBreakers.protect() の内側で使い、応答の無いコンテナを失敗として数えさせる)。
+         * ストリーム全体のタイムアウトは apply() で適用する
+         */
+        public <T> Flux<T> deadline(Flux<T> flux) {
+            return flux.timeout(Mono.delay(deadline), item -> Mono.never())
+                    .doOnError(TimeoutException.class, unused -> abandon(timedOut));
+        }
+
+        /**
+         * ストリーム用。切断された場合もタイムアウトした場合も、上流をキャンセルしてストリームを終了する
+         */
+        public <T> Flux<T> apply(Flux<T> flux) {
+            Mono<Boolean> expired = Mono.delay(deadline).map(unused -> abandon(timedOut));
+            return flux.takeUntilOther(disconnect.asMono()).takeUntilOther(expired)
+                    .doOnComplete(() -> finished.set(true));
+        }
+
+        private boolean abandon(LongAdder reason) {
+            if (!finished.compareAndSet(false, true)) {
+                return false;
+            }
+            abandoned = true;
+            reason.increment();
+            wastedRequestCharge.add(requestCharge.sum());
+            LOGGER.info("REQUEST ABANDONED (" + (reason == disconnected ? "disconnect" : "timeout") + "): "
+                    + requestCharge.sum() + " RU wasted");
+            return true;
+        }
+    }
+}
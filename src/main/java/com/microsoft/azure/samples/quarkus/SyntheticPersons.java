@@ -0,0 +1,138 @@
+package com.microsoft.azure.samples.quarkus;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.microsoft.azure.samples.quarkus.jsonmapper.RequestSyntheticData;
+import reactor.core.publisher.Flux;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * ベンチマーク用の Person のダミー・データを生成します。
+ *
+ * 1 件ずつ遅延して生成する Flux を返すため、数百万件でもデータ全体をメモリに保持しません
+ * (下流の要求数だけ生成します)。同じシードと設定の場合は、毎回同じデータ (id を含む) を生成します。
+ *
+ * lastName : lastNames 種類の姓から Zipf 分布 (指数 skew) で選択。よくある姓にデータが集中する本番に近い
+ * パーティション・キーの偏りを再現します。合成パーティション・キー (PartitionKeyStrategy) も設定します。
+ *
+ * firstName : 均等に選択 / age : 正規分布 (ageMean, ageStdDev) / payload : width 文字のランダムな英数字
+ */
+
+@ApplicationScoped
+public class SyntheticPersons {
+
+    static final int MAX_LAST_NAMES = 1_000_000;
+    // Cosmos DB のドキュメントの最大サイズ (2 MB) に収まる範囲
+    static final int MAX_WIDTH = 1_000_000;
+    private static final int MAX_AGE = 120;
+
+    private static final String[] LAST_NAMES = { "Sato", "Suzuki", "Takahashi", "Tanaka", "Watanabe", "Ito",
+            "Yamamoto", "Nakamura", "Kobayashi", "Kato", "Yoshida", "Yamada", "Sasaki", "Yamaguchi", "Matsumoto",
+            "Inoue", "Kimura", "Hayashi", "Shimizu", "Terada" };
+    private static final String[] FIRST_NAMES = { "Hiroshi", "Takeshi", "Yoshio", "Taro", "Kenji", "Makoto",
+            "Daisuke", "Shota", "Yuki", "Haruto", "Yui", "Aoi", "Sakura", "Hina", "Yoko", "Keiko", "Naoko", "Emi",
+            "Mei", "Rin" };
+    private static final char[] PAYLOAD_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789"
+            .toCharArray();
+
+    @Inject
+    PartitionKeyStrategy partitionKeyStrategy;
+
+    /**
+     * @return spec.count 件の Person (JSON) を遅延して生成する Flux
+     * @throws IllegalArgumentException 設定が不正な場合
+     */
+    public Flux<JsonNode> generate(RequestSyntheticData spec) {
+        validate(spec);
+        Zipf lastNames = new Zipf(spec.getLastNames(), spec.getSkew());
+        return Flux.<JsonNode, Random>generate(() -> new Random(spec.getSeed()), (random, sink) -> {
+            sink.next(next(random, spec, lastNames));
+            return random;
+        }).take(spec.getCount());
+    }
+
+    private JsonNode next(Random random, RequestSyntheticData spec, Zipf lastNames) {
+        String id = new UUID((random.nextLong() & ~0xF000L) | 0x4000L,
+                (random.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L).toString();
+        String lastName = lastName(lastNames.sample(random));
+        long age = Math.round(spec.getAgeMean() + random.nextGaussian() * spec.getAgeStdDev());
+
+        ObjectNode node = JsonNodeFactory.instance.objectNode();
+        node.put("id", id);
+        node.put("firstName", FIRST_NAMES[random.nextInt(FIRST_NAMES.length)]);
+        node.put("lastName", lastName);
+        node.put("age", (int) Math.max(0, Math.min(MAX_AGE, age)));
+        if (partitionKeyStrategy.isSynthetic()) {
+            node.put("partitionKey", partitionKeyStrategy.partitionKeyValueOf(lastName, id));
+        }
+        if (spec.getWidth() > 0) {
+            node.put("payload", payload(random, spec.getWidth()));
+        }
+        return node;
+    }
+
+    /**
+     * 頻度の順位 (0 が最も多い) に対応する姓 (LAST_NAMES の種類を超える場合は番号を付ける)
+     */
+    static String lastName(int rank) {
+        String base = LAST_NAMES[rank % LAST_NAMES.length];
+        return rank < LAST_NAMES.length ? base : base + (rank / LAST_NAMES.length);
+    }
+
+    private static String payload(Random random, int width) {
+        char[] chars = new char[width];
+        for (int i = 0; i < width; i++) {
+            chars[i] = PAYLOAD_CHARS[random.nextInt(PAYLOAD_CHARS.length)];
+        }
+        return new String(chars);
+    }
+
+    private static void validate(RequestSyntheticData spec) {
+        if (spec.getCount() < 1) {
+            throw new IllegalArgumentException("count must be positive: " + spec.getCount());
+        }
+        if (spec.getLastNames() < 1 || spec.getLastNames() > MAX_LAST_NAMES) {
+            throw new IllegalArgumentException("lastNames must be between 1 and " + MAX_LAST_NAMES);
+        }
+        if (spec.getSkew() < 0 || Double.isNaN(spec.getSkew())) {
+            throw new IllegalArgumentException("skew must not be negative: " + spec.getSkew());
+        }
+        if (spec.getWidth() < 0 || spec.getWidth() > MAX_WIDTH) {
+            throw new IllegalArgumentException("width must be between 0 and " + MAX_WIDTH);
+        }
+        if (spec.getAgeStdDev() < 0 || Double.isNaN(spec.getAgeStdDev()) || Double.isNaN(spec.getAgeMean())) {
+            throw new IllegalArgumentException("ageStdDev must not be negative: " + spec.getAgeStdDev());
+        }
+    }
+
+    /**
+     * 順位 k (0 始まり) を 1 / (k + 1)^exponent に比例する確率で選択 (累積分布の二分探索)
+     */
+    static final class Zipf {
+        private final double[] cumulative;
+
+        Zipf(int size, double exponent) {
+            cumulative = new double[size];
+            double total = 0;
+            for (int k = 0; k < size; k++) {
+                total += 1 / Math.pow(k + 1, exponent);
+                cumulative[k] = total;
+            }
+            for (int k = 0; k < size; k++) {
+                cumulative[k] /= total;
+            }
+        }
+
+        int sample(Random random) {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble());
+            // 見つからない場合は挿入位置 (値を超える最初の順位)
+            return Math.min(index >= 0 ? index : -index - 1, cumulative.length - 1);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.microsoft.azure.samples.quarkus;
+
+import com.azure.cosmos.CosmosAsyncContainer;
+import com.azure.cosmos.models.ThroughputProperties;
+import io.quarkus.scheduler.Scheduled;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+import reactor.core.publisher.Mono;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 手動スループットのコンテナの RU を、観測した RU 消費量と 429 の割合から定期的に増減します。
+ *
+ * RU 消費量と 429 の割合は HotPartitionDetector の直前の集計期間の値を利用します
+ * (このインスタンスが実行した書き込み、ポイント・リード、クエリ、検索、エクスポート、インポート、バルク削除。
+ * Change Feed の読み込みは含みません。複数のインスタンスで実行する場合は
+ * app.throughput.scaler.instances にインスタンス数を指定して全体の消費量を見積もります)。
+ *
+ * 429 の割合が app.throughput.scaler.throttle-threshold を超えた場合は 1.5 倍以上に増やし、
+ * 消費量が RU の target-utilization を超えた場合は消費量に合わせて増やします。
+ * 消費量が RU の半分未満の場合は、前回の縮小から scale-down-cooldown 経過後に減らします。
+ * オートスケールのコンテナは Cosmos DB が増減するため対象外です。
+ */
+
+@ApplicationScoped
+public class ThroughputAutoScaler {
+
+    private static final Logger LOGGER = Logger.getLogger(ThroughputAutoScaler.class);
+    private static final int THROUGHPUT_STEP = 100;
+
+    @ConfigProperty(name = "app.throughput.scaler.enabled", defaultValue = "false")
+    boolean enabled;
+
+    // DB/Container,DB/Container
+    @ConfigProperty(name = "app.throughput.scaler.containers", defaultValue = "PERSON_DB/personmanage")
+    List<String> containers;
+
+    @ConfigProperty(name = "app.throughput.scaler.min-ru", defaultValue = "400")
+    int minRequestUnits;
+
+    @ConfigProperty(name = "app.throughput.scaler.max-ru", defaultValue = "10000")
+    int maxRequestUnits;
+
+    @ConfigProperty(name = "app.throughput.scaler.target-utilization", defaultValue = "0.7")
+    double targetUtilization;
+
+    @ConfigProperty(name = "app.throughput.scaler.throttle-threshold", defaultValue = "0.01")
+    double throttleThreshold;
+
+    @ConfigProperty(name = "app.throughput.scaler.scale-down-cooldown", defaultValue = "PT15M")
+    Duration scaleDownCooldown;
+
+    @ConfigProperty(name = "app.throughput.scaler.instances", defaultValue = "1")
+    int instances;
+
+    @Inject
+    ContainerRegistry containerRegistry;
+
+    @Inject
+    HotPartitionDetector hotPartitionDetector;
+
+    private final Map<String, Long> lastScaleDown = new ConcurrentHashMap<>();
+
+    @Scheduled(every = "{app.throughput.scaler.interval}")
+    void evaluate() {
+        if (!enabled) {
+            return;
+        }
+        for (String entry : containers) {
+            String[] names = entry.trim().split("/");
+            if (names.length != 2) {
+                LOGGER.warn("Invalid app.throughput.scaler.containers entry: " + entry);
+                continue;
+            }
+            scale(names[0], names[1]).subscribe(
+                    throughput -> LOGGER.info("THROUGHPUT SCALED: " + entry + " -> " + throughput + " RU/s"),
+                    error -> LOGGER.error("THROUGHPUT SCALING FAILED: " + entry, error));
+        }
+    }
+
+    /**
+     * @return 変更後の RU (変更しなかった場合は empty)
+     */
+    Mono<Integer> scale(String databaseName, String containerName) {
+        String key = databaseName + "/" + containerName;
+        CosmosAsyncContainer container = containerRegistry.container(databaseName, containerName);
+        return container.readThroughput().flatMap(response -> {
+            ThroughputProperties properties = response.getProperties();
+            Integer current = properties.getManualThroughput();
+            if (properties.getAutoscaleMaxThroughput() > 0 || current == null || response.isReplacePending()) {
+                return Mono.empty();
+            }
+
+            HotPartitionDetector.Usage usage = hotPartitionDetector.usage(key);
+            double requestUnitsPerSecond = usage.windowSeconds == 0 ? 0
+                    : usage.requestCharge * instances / usage.windowSeconds;
+            double throttleRate = usage.requests == 0 ? 0 : (double) usage.throttled / usage.requests;
+
+            int target = decide(current, requestUnitsPerSecond, throttleRate,
+                    Math.max(minRequestUnits, response.getMinThroughput()), maxRequestUnits, targetUtilization,
+                    throttleThreshold);
+            if (target == current) {
+                return Mono.empty();
+            }
+            if (target < current) {
+                Long last = lastScaleDown.get(key);
+                if (last != null && System.currentTimeMillis() - last < scaleDownCooldown.toMillis()) {
+                    return Mono.empty();
+                }
+                lastScaleDown.put(key, System.currentTimeMillis());
+            }
+            LOGGER.info("SCALING THROUGHPUT: " + key + " " + current + " -> " + target + " RU/s (observed "
+                    + requestUnitsPerSecond + " RU/s, throttleRate " + throttleRate + ")");
+            return container.replaceThroughput(ThroughputProperties.createManualThroughput(target))
+                    .thenReturn(target);
+        });
+    }
+
+    /**
+     * 観測値から新しい RU を決定
+     *
+     * @param current              現在の RU
+     * @param requestUnitsPerSecond 観測した RU 消費量 (RU/s)
+     * @param throttleRate         429 の割合
+     * @return 100 RU 単位に切り上げ、min から max の範囲に収めた RU
+     */
+    static int decide(int current, double requestUnitsPerSecond, double throttleRate, int min, int max,
+            double targetUtilization, double throttleThreshold) {
+        int required = roundUp(requestUnitsPerSecond / targetUtilization);
+        int target = current;
+        if (throttleRate > throttleThreshold) {
+            target = Math.max(roundUp(current * 1.5), required);
+        } else if (required > current || required < current / 2) {
+            target = required;
+        }
+        return Math.max(min, Math.min(max, target));
+    }
+
+    private static int roundUp(double requestUnits) {
+        return (int) Math.ceil(requestUnits / THROUGHPUT_STEP) * THROUGHPUT_STEP;
+    }
+}
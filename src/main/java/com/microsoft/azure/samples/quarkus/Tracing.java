@@ -0,0 +1,218 @@
+package com.microsoft.azure.samples.quarkus;
+
+import com.azure.cosmos.CosmosDiagnostics;
+import com.azure.cosmos.models.CosmosItemResponse;
+import com.azure.cosmos.models.FeedResponse;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.export.BatchSpanProcessor;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
+import io.quarkus.vertx.web.RouteFilter;
+import io.vertx.ext.web.Route;
+import io.vertx.ext.web.RoutingContext;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * OpenTelemetry によるトレース (app.tracing.enabled=true の場合)。
+ *
+ * HTTP リクエスト : ルート・フィルタでスパンを開始し、レスポンスの書き込みが終わった時点で終了します
+ * (ConditionalGetCache が返す 304 や、SSE のストリーム全体を含みます)。
+ * クライアントの切断やストリームのリセットでレスポンスが終わらなかった場合も、その時点で ERROR として終了します。
+ *
+ * Cosmos DB : ページ (FeedResponse) やポイント・リードのレスポンス毎に、リクエストのスパンの子スパンを作成します。
+ * 開始時刻は CosmosDiagnostics の所要時間から逆算し、RU とアクティビティ ID を属性に設定します。
+ *
+ * Change Feed : バッチの処理と、NotificationOutbox の配信 (バッチと送信毎) をそれぞれスパンにします。
+ *
+ * サンプリングはトレース ID の比率 (app.tracing.sample-ratio) で行い、子スパンは親の判定に従います。
+ * サンプリングされなかったスパンは記録しないため、属性の設定やエクスポートのコストはかかりません。
+ * 終了したスパンは BatchSpanProcessor が別スレッドで app.tracing.file に NDJSON で書き出します (FileSpanExporter)。
+ */
+
+@ApplicationScoped
+public class Tracing {
+
+    private static final String INSTRUMENTATION_NAME = "com.microsoft.azure.samples.quarkus";
+    private static final String CONTEXT_KEY = "otel.context";
+
+    private static final AttributeKey<String> HTTP_METHOD = AttributeKey.stringKey("http.method");
+    private static final AttributeKey<String> HTTP_TARGET = AttributeKey.stringKey("http.target");
+    private static final AttributeKey<Long> HTTP_STATUS_CODE = AttributeKey.longKey("http.status_code");
+    private static final AttributeKey<Boolean> HTTP_CANCELLED = AttributeKey.booleanKey("http.cancelled");
+    private static final AttributeKey<Double> REQUEST_CHARGE = AttributeKey.doubleKey("db.cosmosdb.request_charge");
+    private static final AttributeKey<String> ACTIVITY_ID = AttributeKey.stringKey("db.cosmosdb.activity_id");
+    private static final AttributeKey<Long> ITEM_COUNT = AttributeKey.longKey("db.cosmosdb.item_count");
+
+    @ConfigProperty(name = "app.tracing.enabled", defaultValue = "false")
+    boolean enabled;
+
+    // 0.0 - 1.0 (0.01 の場合はトレースの 1% を記録)
+    @ConfigProperty(name = "app.tracing.sample-ratio", defaultValue = "0.01")
+    double sampleRatio;
+
+    @ConfigProperty(name = "app.tracing.file", defaultValue = "traces/spans.ndjson")
+    String file;
+
+    @ConfigProperty(name = "app.tracing.max-file-size", defaultValue = "104857600")
+    long maxFileSize;
+
+    private SdkTracerProvider tracerProvider;
+    // 無効な場合 (とテスト) は何も記録しない Tracer
+    private Tracer tracer = OpenTelemetry.noop().getTracer(INSTRUMENTATION_NAME);
+
+    @PostConstruct
+    void init() {
+        if (!enabled) {
+            return;
+        }
+        tracerProvider = SdkTracerProvider.builder()
+                .setSampler(Sampler.parentBased(Sampler.traceIdRatioBased(sampleRatio)))
+                .setResource(Resource.getDefault().merge(Resource
+                        .create(Attributes.of(AttributeKey.stringKey("service.name"), "quarkus-cosmos-route"))))
+                .addSpanProcessor(BatchSpanProcessor
+                        .builder(new FileSpanExporter(Paths.get(file), maxFileSize))
+                        .setScheduleDelay(Duration.ofSeconds(5)).build())
+                .build();
+        tracer = tracerProvider.get(INSTRUMENTATION_NAME);
+    }
+
+    @PreDestroy
+    void close() {
+        if (tracerProvider != null) {
+            tracerProvider.shutdown().join(10, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * HTTP リクエストのスパンを開始し、レスポンスの書き込みが終わった時点で終了する
+     *
+     * ConditionalGetCache (優先度 100) より先に呼ばれるよう、優先度を高くしています。
+     */
+    @RouteFilter(200)
+    void traceRequest(RoutingContext rc) {
+        Span span = tracer.spanBuilder(rc.request().method().name()).setSpanKind(SpanKind.SERVER).startSpan();
+        if (span.isRecording()) {
+            span.setAttribute(HTTP_METHOD, rc.request().method().name());
+            span.setAttribute(HTTP_TARGET, rc.request().uri());
+            AtomicBoolean ended = new AtomicBoolean();
+            rc.addBodyEndHandler(unused -> endRequestSpan(rc, span, ended, null));
+            // 切断やリセットの場合は body end handler が呼ばれないため、end handler (失敗の結果) でも終了する
+            rc.addEndHandler(result -> endRequestSpan(rc, span, ended, result.failed() ? result.cause() : null));
+        }
+        rc.put(CONTEXT_KEY, Context.root().with(span));
+        rc.next();
+    }
+
+    private static void endRequestSpan(RoutingContext rc, Span span, AtomicBoolean ended, Throwable disconnect) {
+        if (!ended.compareAndSet(false, true)) {
+            return;
+        }
+        // スパン名はパス・パラメータを含まないルートのパス (カーディナリティを抑えるため)
+        span.updateName(rc.request().method().name() + " " + routePath(rc));
+        if (disconnect != null) {
+            span.setAttribute(HTTP_CANCELLED, true);
+            span.setStatus(StatusCode.ERROR, "Response not completed: " + disconnect.getMessage());
+        } else {
+            int statusCode = rc.response().getStatusCode();
+            span.setAttribute(HTTP_STATUS_CODE, statusCode);
+            if (statusCode >= 500) {
+                span.setStatus(StatusCode.ERROR);
+            }
+        }
+        span.end();
+    }
+
+    /**
+     * クエリのページ毎に呼び出し、リクエストのスパンの子スパンとして記録
+     */
+    public void page(RoutingContext rc, FeedResponse<?> response) {
+        Context parent = contextOf(rc);
+        if (Span.fromContext(parent).isRecording()) {
+            record(parent, "cosmos.query.page", response.getCosmosDiagnostics(), response.getRequestCharge(),
+                    response.getActivityId(), response.getResults().size());
+        }
+    }
+
+    /**
+     * ポイント・リードや書き込みのレスポンス毎に呼び出し、リクエストのスパンの子スパンとして記録
+     */
+    public void item(RoutingContext rc, CosmosItemResponse<?> response) {
+        Context parent = contextOf(rc);
+        if (Span.fromContext(parent).isRecording()) {
+            record(parent, "cosmos.item", response.getDiagnostics(), response.getRequestCharge(),
+                    response.getActivityId(), response.getItem() != null ? 1 : 0);
+        }
+    }
+
+    /**
+     * work の実行 (シリアライズなど) をリクエストのスパンの子スパンとして記録
+     */
+    public <T> T inSpan(RoutingContext rc, String name, Supplier<T> work) {
+        Context parent = contextOf(rc);
+        if (!Span.fromContext(parent).isRecording()) {
+            return work.get();
+        }
+        Span span = tracer.spanBuilder(name).setParent(parent).startSpan();
+        try {
+            return work.get();
+        } finally {
+            span.end();
+        }
+    }
+
+    /**
+     * HTTP リクエスト以外の処理 (Change Feed など) のスパンを開始 (現在のスレッドのスパンがあればその子スパン)
+     */
+    public Span startSpan(String name) {
+        return tracer.spanBuilder(name).startSpan();
+    }
+
+    /**
+     * parent の子スパンを開始 (別スレッドで実行する処理用)
+     */
+    public Span startSpan(String name, Span parent) {
+        return tracer.spanBuilder(name).setParent(Context.root().with(parent)).startSpan();
+    }
+
+    private void record(Context parent, String name, CosmosDiagnostics diagnostics, double requestCharge,
+            String activityId, long itemCount) {
+        Instant end = Instant.now();
+        Duration duration = diagnostics != null ? diagnostics.getDuration() : null;
+        Span span = tracer.spanBuilder(name).setParent(parent).setSpanKind(SpanKind.CLIENT)
+                .setStartTimestamp(duration != null ? end.minus(duration) : end).startSpan();
+        span.setAttribute(REQUEST_CHARGE, requestCharge);
+        span.setAttribute(ITEM_COUNT, itemCount);
+        if (activityId != null) {
+            span.setAttribute(ACTIVITY_ID, activityId);
+        }
+        span.end(end);
+    }
+
+    private static Context contextOf(RoutingContext rc) {
+        Context context = rc != null ? rc.get(CONTEXT_KEY) : null;
+        return context != null ? context : Context.root();
+    }
+
+    private static String routePath(RoutingContext rc) {
+        Route route = rc.currentRoute();
+        return route != null && route.getPath() != null ? route.getPath() : rc.request().path();
+    }
+}
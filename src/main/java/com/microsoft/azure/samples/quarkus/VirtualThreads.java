@@ -0,0 +1,42 @@
+package com.microsoft.azure.samples.quarkus;
+
+import java.lang.reflect.Method;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 仮想スレッド (Virtual Thread) を利用するためのユーティリティ
+ *
+ * ビルドは Java 11 を対象としているため、Executors.newVirtualThreadPerTaskExecutor() はリフレクションで呼び出し、
+ * 仮想スレッドをサポートする JDK (21 以降) で実行している場合だけ利用します。
+ */
+
+final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * タスク毎に仮想スレッドを生成する ExecutorService を作成
+     *
+     * @return 仮想スレッドをサポートしない JDK (JDK 19, 20 で preview 機能が無効な場合を含む) では Optional.empty()
+     */
+    static Optional<ExecutorService> newVirtualThreadPerTaskExecutor() {
+        return findFactoryMethod().flatMap(method -> {
+            try {
+                return Optional.of((ExecutorService) method.invoke(null));
+            } catch (ReflectiveOperationException e) {
+                return Optional.empty();
+            }
+        });
+    }
+
+    private static Optional<Method> findFactoryMethod() {
+        try {
+            return Optional.of(Executors.class.getMethod("newVirtualThreadPerTaskExecutor"));
+        } catch (NoSuchMethodException e) {
+            return Optional.empty();
+        }
+    }
+}
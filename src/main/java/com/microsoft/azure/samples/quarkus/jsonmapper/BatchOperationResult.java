@@ -0,0 +1,23 @@
+package com.microsoft.azure.samples.quarkus.jsonmapper;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchOperationResult {
+    private String id;
+    private String type;
+    private int statusCode;
+    private double requestCharge;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String etag;
+    // read の結果
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Person item;
+}
@@ -0,0 +1,23 @@
+package com.microsoft.azure.samples.quarkus.jsonmapper;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchResult {
+    // 全ての操作が成功した場合のみ true (1 つでも失敗した場合は全ての操作がロールバックされる)
+    private boolean success;
+    private int statusCode;
+    private double requestCharge;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String errorMessage;
+    private List<BatchOperationResult> results;
+}
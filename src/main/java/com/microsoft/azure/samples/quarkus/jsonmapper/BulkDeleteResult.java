@@ -0,0 +1,22 @@
+package com.microsoft.azure.samples.quarkus.jsonmapper;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkDeleteResult {
+    private boolean dryRun;
+    private long matched;
+    private long deleted;
+    // 削除前に他のクライアントが削除していた件数
+    private long notFound;
+    private long failed;
+    // 429 の件数 (SDK が再試行した後も 429 だったもの)
+    private long throttled;
+    private double requestCharge;
+}
@@ -0,0 +1,22 @@
+package com.microsoft.azure.samples.quarkus.jsonmapper;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PartitionSkewReport {
+    private String containerName;
+    private long windowSeconds;
+    private double totalRequestCharge;
+    // 最も RU を消費したパーティション・キーの RU / パーティション・キー毎の平均 RU
+    private double skew;
+    // RU の多い順
+    private List<PartitionUsage> partitions;
+}
@@ -0,0 +1,21 @@
+package com.microsoft.azure.samples.quarkus.jsonmapper;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PartitionUsage {
+    private String partitionKey;
+    private long requests;
+    private double requestCharge;
+    private long throttled;
+    // 429 の割合
+    private double throttleRate;
+    // コンテナ全体の RU に占める割合
+    private double share;
+}
@@ -1,6 +1,8 @@
 package com.microsoft.azure.samples.quarkus.jsonmapper;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Data;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
@@ -10,4 +12,13 @@ public class Person {
     private String firstName;
     private String lastName;
     private int age;
-}
\ No newline at end of file
+    // 合成パーティション・キー (PartitionKeyStrategy で書き込み時に設定)
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String partitionKey;
+    // ドキュメント毎の TTL (秒)。コンテナの defaultTimeToLive が設定されている場合のみ有効
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Integer ttl;
+    // Cosmos DB のシステム・プロパティ _etag (読み込み時のみ設定し、レスポンスや書き込みには含めない)
+    @JsonProperty(value = "_etag", access = JsonProperty.Access.WRITE_ONLY)
+    private String etag;
+}
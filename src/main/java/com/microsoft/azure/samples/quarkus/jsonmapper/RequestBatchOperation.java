@@ -0,0 +1,25 @@
+package com.microsoft.azure.samples.quarkus.jsonmapper;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RequestBatchOperation {
+    // create | upsert | replace | delete | read | patch
+    private String type;
+    // replace, delete, read, patch で必須 (create, upsert で省略した場合は採番)
+    private String id;
+    // create, upsert, replace の場合の Person
+    private Person item;
+    // 指定した場合は ETag が一致した場合のみ実行
+    private String ifMatch;
+    // patch の場合の操作
+    private List<RequestPatchOperation> operations;
+}
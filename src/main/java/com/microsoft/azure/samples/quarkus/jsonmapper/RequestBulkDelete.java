@@ -0,0 +1,20 @@
+package com.microsoft.azure.samples.quarkus.jsonmapper;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RequestBulkDelete {
+    // id | firstName | lastName | age | partitionKey | _ts
+    private String field;
+    // = | != | < | <= | > | >= | startswith
+    private String operator;
+    private Object value;
+    // true の場合は削除せずに対象の件数だけを返す
+    private boolean dryRun;
+}
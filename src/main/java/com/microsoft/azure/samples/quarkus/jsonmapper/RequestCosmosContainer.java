@@ -13,4 +13,10 @@ public class RequestCosmosContainer {
     private String containerName;
     private String partitionName;
     private int requestUnit;
+    // オートスケールの最大 RU (指定した場合は requestUnit より優先し、最大値の 10% から自動で増減)
+    private Integer autoscaleMaxThroughput;
+    // コンテナの既定の TTL (秒)。null は TTL 無効、-1 はドキュメント毎の ttl のみ有効
+    private Integer defaultTimeToLive;
+    // 省略した場合は全てのパスにインデックスを作成 (Cosmos DB のデフォルト)
+    private RequestIndexingPolicy indexingPolicy;
 }
\ No newline at end of file
@@ -11,4 +11,8 @@ import lombok.NoArgsConstructor;
 @NoArgsConstructor
 public class RequestCosmosDB {
     private String dbName;
+    // データベースで共有するスループット (省略した場合はコンテナ毎に指定)
+    private Integer requestUnit;
+    // オートスケールの最大 RU (指定した場合は requestUnit より優先)
+    private Integer autoscaleMaxThroughput;
 }
\ No newline at end of file
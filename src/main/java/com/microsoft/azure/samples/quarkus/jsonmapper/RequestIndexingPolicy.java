@@ -0,0 +1,23 @@
+package com.microsoft.azure.samples.quarkus.jsonmapper;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RequestIndexingPolicy {
+    // consistent | lazy | none (省略時は consistent)
+    private String indexingMode;
+    // インデックスを作成するパス (例: /lastName/?, 省略時は /*)
+    private List<String> includedPaths;
+    // インデックスを作成しないパス (例: /*)
+    private List<String> excludedPaths;
+    // 複数項目の ORDER BY やフィルタ用の複合インデックス
+    private List<List<RequestCompositePath>> compositeIndexes;
+}
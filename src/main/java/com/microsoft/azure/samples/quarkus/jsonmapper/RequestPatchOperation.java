@@ -0,0 +1,19 @@
+package com.microsoft.azure.samples.quarkus.jsonmapper;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RequestPatchOperation {
+    // add | set | replace | remove | increment
+    private String op;
+    // JSON Pointer (例: /age)
+    private String path;
+    // remove の場合は不要
+    private Object value;
+}
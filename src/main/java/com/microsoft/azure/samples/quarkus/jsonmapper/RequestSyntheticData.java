@@ -0,0 +1,26 @@
+package com.microsoft.azure.samples.quarkus.jsonmapper;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RequestSyntheticData {
+    // 生成する件数
+    private long count = 1000;
+    // 乱数のシード (同じシードと設定の場合は同じデータを生成)
+    private long seed = 42;
+    // lastName の種類数 (パーティション・キーの値の数)
+    private int lastNames = 100;
+    // lastName の偏り (Zipf 分布の指数、0 の場合は均等)
+    private double skew = 1.0;
+    // ドキュメント毎に追加する payload プロパティの文字数 (ドキュメントのサイズの調整用)
+    private int width = 0;
+    // 年齢の正規分布の平均と標準偏差 (0 - 120 に丸める)
+    private double ageMean = 40;
+    private double ageStdDev = 15;
+}
@@ -0,0 +1,17 @@
+package com.microsoft.azure.samples.quarkus.jsonmapper;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RequestThroughput {
+    // 手動スループット (RU/s)
+    private Integer requestUnit;
+    // オートスケールの最大 RU (指定した場合は requestUnit より優先)
+    private Integer autoscaleMaxThroughput;
+}
@@ -0,0 +1,23 @@
+package com.microsoft.azure.samples.quarkus.jsonmapper;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ThroughputInfo {
+    private String name;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Integer manualThroughput;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Integer autoscaleMaxThroughput;
+    // 設定可能な最小の RU
+    private int minThroughput;
+    // スループットの変更を反映中 (パーティションの分割を伴う場合など)
+    private boolean replacePending;
+}
@@ -0,0 +1,26 @@
+package com.microsoft.azure.samples.quarkus.jsonmapper;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TransferResult {
+    // export | import
+    private String direction;
+    private String name;
+    // NDJSON (gzip) ファイルの数
+    private int files;
+    private long documents;
+    // 書き込みに失敗したドキュメントの件数 (import のみ)
+    private long failed;
+    // 圧縮後のバイト数
+    private long bytes;
+    private double requestCharge;
+    private long elapsedMillis;
+    private double documentsPerSecond;
+}
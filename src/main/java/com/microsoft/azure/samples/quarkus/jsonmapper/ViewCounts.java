@@ -0,0 +1,20 @@
+package com.microsoft.azure.samples.quarkus.jsonmapper;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ViewCounts {
+    // lastName | age
+    private String view;
+    // ビューに含まれる Person の件数
+    private long total;
+    private Map<String, Long> counts;
+}
@@ -0,0 +1,74 @@
+package com.microsoft.azure.samples.quarkus;
+
+import com.microsoft.azure.samples.quarkus.jsonmapper.Person;
+import com.microsoft.azure.samples.quarkus.jsonmapper.RequestBatch;
+import com.microsoft.azure.samples.quarkus.jsonmapper.RequestBatchOperation;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class BatchRequestTest {
+
+    private static ReactiveRouteApp app(String strategyName) {
+        PartitionKeyStrategy strategy = new PartitionKeyStrategy();
+        strategy.strategy = strategyName;
+        strategy.buckets = 16;
+        ReactiveRouteApp app = new ReactiveRouteApp();
+        app.partitionKeyStrategy = strategy;
+        return app;
+    }
+
+    private static Person person(String lastName) {
+        Person person = new Person();
+        person.setFirstName("Yoshio");
+        person.setLastName(lastName);
+        return person;
+    }
+
+    private static RequestBatchOperation operation(String type, String id, Person item) {
+        return new RequestBatchOperation(type, id, item, null, null);
+    }
+
+    @Test
+    public void operationsShareLastNamePartition() {
+        Person created = person(null);
+        RequestBatch batch = new RequestBatch("Terada", Arrays.asList(operation("create", null, created),
+                operation("delete", "5998c7db-0c90-48b3-be3a-ef8b55f84201", null)));
+
+        assertEquals("Terada", app("none").batchPartitionKeyValue(batch));
+        assertNotNull(created.getId());
+        assertEquals("Terada", created.getLastName());
+        assertEquals(created.getId(), batch.getOperations().get(0).getId());
+    }
+
+    @Test
+    public void mismatchedLastNameIsRejected() {
+        RequestBatch batch = new RequestBatch("Terada",
+                Collections.singletonList(operation("create", null, person("Sato"))));
+
+        assertThrows(IllegalArgumentException.class, () -> app("none").batchPartitionKeyValue(batch));
+    }
+
+    @Test
+    public void compositeKeysCannotSpanOneBatch() {
+        RequestBatch batch = new RequestBatch("Terada",
+                Arrays.asList(operation("read", "a", null), operation("read", "b", null)));
+
+        assertThrows(IllegalArgumentException.class, () -> app("composite").batchPartitionKeyValue(batch));
+    }
+
+    @Test
+    public void missingIdOrEmptyBatchIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> app("none")
+                .batchPartitionKeyValue(new RequestBatch("Terada", Collections.singletonList(operation("read", null, null)))));
+        assertThrows(IllegalArgumentException.class,
+                () -> app("none").batchPartitionKeyValue(new RequestBatch("Terada", Collections.emptyList())));
+        assertThrows(IllegalArgumentException.class, () -> app("none")
+                .batchPartitionKeyValue(new RequestBatch(null, Collections.singletonList(operation("read", "a", null)))));
+    }
+}
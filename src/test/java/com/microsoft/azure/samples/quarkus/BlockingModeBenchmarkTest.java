@@ -0,0 +1,115 @@
+package com.microsoft.azure.samples.quarkus;
+
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * ブロッキングな呼び出しを想定した実行モデル毎のスループットとメモリの比較
+ *
+ * Change Feed の通知は NotificationOutbox が非同期の HttpClient で配信するようになったため、app.blocking.mode の
+ * 対象はリージョンのレイテンシ計測のみです。このベンチマークは、ブロッキングな呼び出しを追加する場合に
+ * platform / virtual を選ぶための参考として残しています (reactive が現在の通知の配信に相当)。
+ *
+ * 通常のテストでは実行せず、下記のように明示的に指定した場合のみ実行します。
+ *
+ * mvn test -Dtest=BlockingModeBenchmarkTest -Dbenchmark=true [-Dbenchmark.calls=20000] [-Dbenchmark.latency-ms=50]
+ *
+ * platform : 上限付きスレッド・プール上で Thread.sleep() によりブロッキング呼び出しを模擬
+ *
+ * virtual : 仮想スレッド上で同じブロッキング呼び出しを実行 (JDK 21 以降のみ)
+ *
+ * reactive : Mono.delay() によるノンブロッキングな呼び出し (非同期 HTTP クライアントを利用した場合に相当)
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class BlockingModeBenchmarkTest {
+
+    private static final Logger LOGGER = Logger.getLogger(BlockingModeBenchmarkTest.class);
+
+    private static final int CALLS = Integer.getInteger("benchmark.calls", 20000);
+    private static final int LATENCY_MS = Integer.getInteger("benchmark.latency-ms", 50);
+    private static final int PLATFORM_THREADS = Integer.getInteger("benchmark.platform-threads", 32);
+    private static final int CONCURRENCY = Integer.getInteger("benchmark.concurrency", 1000);
+
+    @Test
+    public void compareExecutionModes() {
+        CosmosSchedulers.BoundedPool platformPool = CosmosSchedulers.BoundedPool.create("bench-platform",
+                PLATFORM_THREADS, CALLS, false);
+        try {
+            report("platform", run(Optional.of(platformPool.getScheduler())));
+        } finally {
+            platformPool.dispose();
+        }
+
+        Optional<ExecutorService> virtualExecutor = VirtualThreads.newVirtualThreadPerTaskExecutor();
+        if (virtualExecutor.isPresent()) {
+            Scheduler virtual = Schedulers.fromExecutorService(virtualExecutor.get(), "bench-virtual");
+            try {
+                report("virtual", run(Optional.of(virtual)));
+            } finally {
+                virtual.dispose();
+                virtualExecutor.get().shutdown();
+            }
+        } else {
+            LOGGER.info("virtual : SKIPPED (virtual threads are not supported on this JDK)");
+        }
+
+        report("reactive", run(Optional.empty()));
+    }
+
+    /*
+     * scheduler が指定された場合はブロッキング呼び出しをその Scheduler 上で、指定されない場合は
+     * ノンブロッキングな遅延として実行する
+     */
+    private Result run(Optional<Scheduler> scheduler) {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        long baseHeap = memory.getHeapMemoryUsage().getUsed();
+        AtomicLong peakHeap = new AtomicLong(baseHeap);
+        ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+
+        long start = System.nanoTime();
+        Long completed = Flux.range(0, CALLS).flatMap(i -> {
+            Mono<Integer> call = scheduler.map(s -> Mono.fromCallable(() -> {
+                Thread.sleep(LATENCY_MS);
+                return i;
+            }).subscribeOn(s)).orElseGet(() -> Mono.delay(Duration.ofMillis(LATENCY_MS)).thenReturn(i));
+            return call.doOnNext(v -> peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max));
+        }, CONCURRENCY).count().block();
+        long elapsedNanos = System.nanoTime() - start;
+
+        assertEquals(CALLS, completed.intValue());
+        return new Result(CALLS / (elapsedNanos / 1_000_000_000.0), (peakHeap.get() - baseHeap) / (1024 * 1024),
+                ManagementFactory.getThreadMXBean().getPeakThreadCount());
+    }
+
+    private void report(String mode, Result result) {
+        LOGGER.infof("%-8s : %10.1f calls/sec, peak heap delta %5d MB, peak platform threads %d", mode,
+                result.throughput, result.heapDeltaMb, result.peakThreads);
+    }
+
+    private static final class Result {
+        private final double throughput;
+        private final long heapDeltaMb;
+        private final int peakThreads;
+
+        Result(double throughput, long heapDeltaMb, int peakThreads) {
+            this.throughput = throughput;
+            this.heapDeltaMb = heapDeltaMb;
+            this.peakThreads = peakThreads;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.microsoft.azure.samples.quarkus;
+
+import com.azure.cosmos.models.SqlQuerySpec;
+import com.microsoft.azure.samples.quarkus.jsonmapper.RequestBulkDelete;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class BulkDeleterTest {
+
+    @Test
+    public void comparisonIsParameterized() {
+        SqlQuerySpec spec = BulkDeleter.toQuerySpec(new RequestBulkDelete("age", ">", 100, false));
+
+        assertEquals("SELECT P.id, P.lastName, P.partitionKey FROM Person P WHERE P.age > @value", spec.getQueryText());
+        assertEquals("@value", spec.getParameters().get(0).getName());
+        assertEquals(100, spec.getParameters().get(0).getValue(Integer.class).intValue());
+    }
+
+    @Test
+    public void startsWithUsesFunction() {
+        SqlQuerySpec spec = BulkDeleter.toQuerySpec(new RequestBulkDelete("lastName", "StartsWith", "Ter", false));
+
+        assertEquals("SELECT P.id, P.lastName, P.partitionKey FROM Person P WHERE STARTSWITH(P.lastName, @value)",
+                spec.getQueryText());
+    }
+
+    @Test
+    public void unknownFieldsOperatorsAndValuesAreRejected() {
+        assertThrows(IllegalArgumentException.class,
+                () -> BulkDeleter.toQuerySpec(new RequestBulkDelete("age OR 1=1", "=", 1, false)));
+        assertThrows(IllegalArgumentException.class,
+                () -> BulkDeleter.toQuerySpec(new RequestBulkDelete("age", "IN", 1, false)));
+        assertThrows(IllegalArgumentException.class,
+                () -> BulkDeleter.toQuerySpec(new RequestBulkDelete("age", "=", null, false)));
+        assertThrows(IllegalArgumentException.class,
+                () -> BulkDeleter.toQuerySpec(new RequestBulkDelete("age", "startswith", 1, false)));
+    }
+
+    @Test
+    public void queryChargeIsThrottledOnceAndReported() {
+        BulkDeleter.Progress progress = new BulkDeleter.Progress();
+        progress.recordQuery(2.5);
+        progress.recordQuery(3.0);
+
+        assertEquals(5.5, progress.takeQueryCharge());
+        assertEquals(0.0, progress.takeQueryCharge());
+        assertEquals(5.5, progress.toResult().getRequestCharge());
+    }
+}
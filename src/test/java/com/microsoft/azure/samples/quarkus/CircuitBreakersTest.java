@@ -0,0 +1,160 @@
+package com.microsoft.azure.samples.quarkus;
+
+import io.smallrye.metrics.MetricsRegistryImpl;
+import io.vertx.ext.web.RoutingContext;
+import org.eclipse.microprofile.metrics.MetricID;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CircuitBreakersTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    private final MetricRegistry metricRegistry = new MetricsRegistryImpl();
+
+    private CircuitBreakers circuitBreakers(int maxContainers) {
+        ContainerRegistry containerRegistry = new ContainerRegistry();
+        containerRegistry.maxEntries = maxContainers;
+        containerRegistry.metadataTtl = Duration.ofMinutes(5);
+        CircuitBreakers circuitBreakers = new CircuitBreakers();
+        circuitBreakers.enabled = true;
+        circuitBreakers.failureRateThreshold = 0.5;
+        circuitBreakers.minimumRequests = 1;
+        circuitBreakers.window = Duration.ofSeconds(10);
+        circuitBreakers.openDuration = Duration.ofSeconds(30);
+        circuitBreakers.containerRegistry = containerRegistry;
+        circuitBreakers.metricRegistry = metricRegistry;
+        circuitBreakers.init();
+        return circuitBreakers;
+    }
+
+    private boolean hasStateGauge(String container) {
+        return metricRegistry.getGauges()
+                .containsKey(new MetricID("circuit.breaker.state", new Tag("container", container)));
+    }
+
+    private CircuitBreakers.Breaker breaker() {
+        return new CircuitBreakers.Breaker("PERSON_DB/personmanage", 0.5, 10, Duration.ofSeconds(10),
+                Duration.ofSeconds(30), now::get);
+    }
+
+    @Test
+    public void opensAfterSustainedFailures() {
+        CircuitBreakers.Breaker breaker = breaker();
+        for (int i = 0; i < 4; i++) {
+            breaker.onSuccess();
+            breaker.onFailure();
+        }
+        // 最小リクエスト数 (10) に満たない間は開かない
+        assertEquals(CircuitBreakers.State.CLOSED, breaker.state());
+        breaker.onSuccess();
+        breaker.onFailure();
+        assertEquals(CircuitBreakers.State.OPEN, breaker.state());
+        assertFalse(breaker.tryAcquire());
+        assertEquals(Duration.ofSeconds(30), breaker.retryAfter());
+    }
+
+    @Test
+    public void halfOpenAllowsOneProbe() {
+        CircuitBreakers.Breaker breaker = breaker();
+        for (int i = 0; i < 10; i++) {
+            breaker.onFailure();
+        }
+        now.addAndGet(Duration.ofSeconds(30).toNanos());
+
+        assertTrue(breaker.tryAcquire());
+        assertEquals(CircuitBreakers.State.HALF_OPEN, breaker.state());
+        assertFalse(breaker.tryAcquire());
+
+        breaker.onFailure();
+        assertEquals(CircuitBreakers.State.OPEN, breaker.state());
+
+        now.addAndGet(Duration.ofSeconds(30).toNanos());
+        assertTrue(breaker.tryAcquire());
+        breaker.onCancel();
+        assertTrue(breaker.tryAcquire());
+        breaker.onSuccess();
+        assertEquals(CircuitBreakers.State.CLOSED, breaker.state());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    public void failuresOutsideTheWindowAreForgotten() {
+        CircuitBreakers.Breaker breaker = breaker();
+        for (int i = 0; i < 9; i++) {
+            breaker.onFailure();
+        }
+        now.addAndGet(Duration.ofSeconds(10).toNanos());
+        breaker.onFailure();
+        assertEquals(CircuitBreakers.State.CLOSED, breaker.state());
+    }
+
+    @Test
+    public void onlyServiceFailuresCount() {
+        assertTrue(CircuitBreakers.isFailure(new TimeoutException()));
+        assertFalse(CircuitBreakers.isFailure(new IllegalArgumentException()));
+    }
+
+    @Test
+    public void breakersAreBoundedByTheContainerRegistry() {
+        CircuitBreakers circuitBreakers = circuitBreakers(2);
+        for (String container : new String[] { "a", "b", "c" }) {
+            circuitBreakers.protect("PERSON_DB", container, Mono.just(container)).block();
+        }
+
+        // LRU から削除された a のブレーカーとメトリクスは破棄される
+        assertNull(circuitBreakers.state("PERSON_DB", "a"));
+        assertFalse(hasStateGauge("PERSON_DB/a"));
+        assertEquals(CircuitBreakers.State.CLOSED, circuitBreakers.state("PERSON_DB", "c"));
+        assertTrue(hasStateGauge("PERSON_DB/c"));
+
+        circuitBreakers.containerRegistry.invalidate("PERSON_DB", "c");
+        assertNull(circuitBreakers.state("PERSON_DB", "c"));
+        assertFalse(hasStateGauge("PERSON_DB/c"));
+    }
+
+    @Test
+    public void deadlineInsideProtectCountsAsFailure() {
+        CircuitBreakers circuitBreakers = circuitBreakers(10);
+        // addEndHandler() だけを受け付ける RoutingContext
+        RoutingContext rc = (RoutingContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { RoutingContext.class }, (proxy, method, args) -> 0);
+        RequestCancellation.Guard guard = new RequestCancellation().new Guard(rc, Duration.ofMillis(50));
+
+        StepVerifier.create(guard.apply(circuitBreakers.protect("PERSON_DB", "personmanage",
+                guard.deadline(Mono.never())))).expectError(TimeoutException.class).verify(Duration.ofSeconds(5));
+
+        // minimum-requests = 1 のため、1 回のタイムアウトで OPEN になる
+        assertEquals(CircuitBreakers.State.OPEN, circuitBreakers.state("PERSON_DB", "personmanage"));
+    }
+
+    @Test
+    public void streamWithoutFirstPageOpensAndThenRejects() {
+        CircuitBreakers circuitBreakers = circuitBreakers(10);
+        RoutingContext rc = (RoutingContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { RoutingContext.class }, (proxy, method, args) -> 0);
+        RequestCancellation.Guard guard = new RequestCancellation().new Guard(rc, Duration.ofMillis(50));
+
+        StepVerifier.create(guard.apply(circuitBreakers.protect("PERSON_DB", "personmanage",
+                guard.deadline(Flux.never())))).expectError(TimeoutException.class).verify(Duration.ofSeconds(5));
+        assertEquals(CircuitBreakers.State.OPEN, circuitBreakers.state("PERSON_DB", "personmanage"));
+
+        // OPEN の間はストリームも Cosmos DB に送信せずに失敗する
+        StepVerifier.create(circuitBreakers.protect("PERSON_DB", "personmanage", Flux.just("page")))
+                .expectError(CircuitBreakers.OpenException.class).verify(Duration.ofSeconds(5));
+    }
+}
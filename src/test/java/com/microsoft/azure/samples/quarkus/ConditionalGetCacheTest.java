@@ -0,0 +1,120 @@
+package com.microsoft.azure.samples.quarkus;
+
+import io.vertx.core.http.HttpServerRequest;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ConditionalGetCacheTest {
+
+    private static final String KEY = "/react-route/database/PERSON_DB/container/personmanage/item";
+
+    private static ConditionalGetCache cache(Duration ttl) {
+        ConditionalGetCache cache = new ConditionalGetCache();
+        cache.enabled = true;
+        cache.ttl = ttl;
+        cache.maxEntries = 100;
+        return cache;
+    }
+
+    // path()、query()、getHeader() だけを返す HttpServerRequest
+    private static HttpServerRequest request(String query, Map<String, String> headers) {
+        return (HttpServerRequest) Proxy.newProxyInstance(ConditionalGetCacheTest.class.getClassLoader(),
+                new Class<?>[] { HttpServerRequest.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "path":
+                            return KEY;
+                        case "query":
+                            return query;
+                        case "getHeader":
+                            return headers.get(String.valueOf(args[0]));
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    @Test
+    public void keyIncludesConsistencyAndSessionToken() {
+        Map<String, String> session = new HashMap<>();
+        session.put(ConditionalGetCache.SESSION_TOKEN_HEADER, "0:1#42");
+        Map<String, String> laterSession = new HashMap<>();
+        laterSession.put(ConditionalGetCache.SESSION_TOKEN_HEADER, "0:1#43");
+
+        String plain = ConditionalGetCache.keyOf(request("page=1", new HashMap<>()));
+        assertEquals(KEY + "?page=1", plain);
+        assertNotEquals(plain, ConditionalGetCache.keyOf(request("page=1&consistency=EVENTUAL", new HashMap<>())));
+        assertNotEquals(plain, ConditionalGetCache.keyOf(request("page=1", session)));
+        assertNotEquals(ConditionalGetCache.keyOf(request("page=1", session)),
+                ConditionalGetCache.keyOf(request("page=1", laterSession)));
+        assertEquals(ConditionalGetCache.keyOf(request("page=1", session)),
+                ConditionalGetCache.keyOf(request("page=1", session)));
+    }
+
+    @Test
+    public void matchesHandlesListsWildcardAndWeakETags() {
+        assertTrue(ConditionalGetCache.matches("\"a\"", "\"a\""));
+        assertTrue(ConditionalGetCache.matches("\"x\", W/\"a\"", "\"a\""));
+        assertTrue(ConditionalGetCache.matches("*", "\"a\""));
+        assertFalse(ConditionalGetCache.matches("\"b\"", "\"a\""));
+        assertFalse(ConditionalGetCache.matches(null, "\"a\""));
+    }
+
+    @Test
+    public void etagDependsOnContentAndOrder() {
+        String etag = ConditionalGetCache.etagOf(Stream.of("1", "\"e1\"", "2", "\"e2\""));
+
+        assertEquals(etag, ConditionalGetCache.etagOf(Stream.of("1", "\"e1\"", "2", "\"e2\"")));
+        assertNotEquals(etag, ConditionalGetCache.etagOf(Stream.of("2", "\"e2\"", "1", "\"e1\"")));
+        assertNotEquals(etag, ConditionalGetCache.etagOf(Stream.of("1", "\"e1\"", "2", "\"e3\"")));
+        assertTrue(etag.startsWith("\"") && etag.endsWith("\""));
+    }
+
+    @Test
+    public void rememberedETagIsFreshUntilWrite() {
+        ConditionalGetCache cache = cache(Duration.ofMinutes(1));
+        cache.remember(KEY, "PERSON_DB", "personmanage", "\"v1\"");
+
+        assertEquals("\"v1\"", cache.freshETag(KEY, "\"v1\""));
+        assertNull(cache.freshETag(KEY, "\"v0\""));
+
+        cache.invalidate("PERSON_DB", "other");
+        assertEquals("\"v1\"", cache.freshETag(KEY, "\"v1\""));
+
+        cache.invalidate("PERSON_DB", "personmanage");
+        assertNull(cache.freshETag(KEY, "\"v1\""));
+    }
+
+    @Test
+    public void expiredETagIsNotFresh() {
+        ConditionalGetCache cache = cache(Duration.ZERO);
+        cache.remember(KEY, "PERSON_DB", "personmanage", "\"v1\"");
+
+        assertNull(cache.freshETag(KEY, "\"v1\""));
+    }
+
+    @Test
+    public void fullCacheEvictsTheOldestEntry() {
+        ConditionalGetCache cache = cache(Duration.ofMinutes(1));
+        cache.maxEntries = 2;
+        cache.remember(KEY + "/1", "PERSON_DB", "personmanage", "\"v1\"");
+        cache.remember(KEY + "/2", "PERSON_DB", "personmanage", "\"v2\"");
+        cache.remember(KEY + "/3", "PERSON_DB", "personmanage", "\"v3\"");
+
+        // 一杯でも新しい ETag は記録し、最も古い記録を削除する
+        assertEquals(2, cache.size());
+        assertNull(cache.freshETag(KEY + "/1", "\"v1\""));
+        assertEquals("\"v2\"", cache.freshETag(KEY + "/2", "\"v2\""));
+        assertEquals("\"v3\"", cache.freshETag(KEY + "/3", "\"v3\""));
+    }
+}
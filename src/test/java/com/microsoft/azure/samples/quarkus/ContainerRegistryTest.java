@@ -0,0 +1,64 @@
+package com.microsoft.azure.samples.quarkus;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ContainerRegistryTest {
+
+    // クライアントはハンドルやメタデータを実際に使うまで呼び出さないため、ここでは設定しない
+    private static ContainerRegistry registry(int maxEntries) {
+        ContainerRegistry registry = new ContainerRegistry();
+        registry.maxEntries = maxEntries;
+        registry.metadataTtl = Duration.ofMinutes(5);
+        return registry;
+    }
+
+    @Test
+    public void reusesMetadataPerContainer() {
+        ContainerRegistry registry = registry(10);
+        assertSame(registry.metadata("PERSON_DB", "personmanage"), registry.metadata("PERSON_DB", "personmanage"));
+        assertNotSame(registry.metadata("PERSON_DB", "personmanage"), registry.metadata("PERSON_DB", "message"));
+        assertEquals(2, registry.size());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        ContainerRegistry registry = registry(3);
+        registry.metadata("PERSON_DB", "a");
+        registry.metadata("PERSON_DB", "b");
+        registry.metadata("PERSON_DB", "c");
+        // a を利用したため、最も古いのは b
+        registry.metadata("PERSON_DB", "a");
+        registry.metadata("PERSON_DB", "d");
+
+        assertEquals(3, registry.size());
+        assertFalse(registry.isCached("PERSON_DB", "b"));
+        assertTrue(registry.isCached("PERSON_DB", "a"));
+        assertTrue(registry.isCached("PERSON_DB", "c"));
+        assertTrue(registry.isCached("PERSON_DB", "d"));
+    }
+
+    @Test
+    public void invalidatesContainerAndDatabase() {
+        ContainerRegistry registry = registry(10);
+        Object before = registry.metadata("PERSON_DB", "personmanage");
+        registry.metadata("PERSON_DB", "message");
+        registry.metadata("OTHER_DB", "personmanage");
+
+        registry.invalidate("PERSON_DB", "personmanage");
+        assertFalse(registry.isCached("PERSON_DB", "personmanage"));
+        assertNotSame(before, registry.metadata("PERSON_DB", "personmanage"));
+
+        registry.invalidateDatabase("PERSON_DB");
+        assertFalse(registry.isCached("PERSON_DB", "personmanage"));
+        assertFalse(registry.isCached("PERSON_DB", "message"));
+        assertTrue(registry.isCached("OTHER_DB", "personmanage"));
+    }
+}
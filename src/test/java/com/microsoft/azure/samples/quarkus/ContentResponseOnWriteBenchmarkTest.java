@@ -0,0 +1,75 @@
+package com.microsoft.azure.samples.quarkus;
+
+import com.azure.cosmos.CosmosAsyncClient;
+import com.azure.cosmos.CosmosAsyncContainer;
+import com.azure.cosmos.models.CosmosItemResponse;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.microsoft.azure.samples.quarkus.jsonmapper.Person;
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.util.UUID;
+
+/**
+ * contentResponseOnWrite の有無による書き込みのレイテンシ、RU、レスポンスのペイロード・サイズの比較
+ *
+ * mvn test -Dtest=ContentResponseOnWriteBenchmarkTest -Dbenchmark=true \
+ * -Dbenchmark.cosmos.endpoint=https://... -Dbenchmark.cosmos.key=... [-Dbenchmark.writes=500]
+ */
+@EnabledIfSystemProperty(named = "benchmark.cosmos.endpoint", matches = ".+")
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class ContentResponseOnWriteBenchmarkTest {
+
+    private static final Logger LOGGER = Logger.getLogger(ContentResponseOnWriteBenchmarkTest.class);
+    private static final int WRITES = Integer.getInteger("benchmark.writes", 500);
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void compareContentResponseOnWrite() throws Exception {
+        CosmosAsyncClient client = CosmosBenchmarkSupport.createClient();
+        try {
+            CosmosAsyncContainer container = client.getDatabase(CosmosBenchmarkSupport.DATABASE)
+                    .getContainer(CosmosBenchmarkSupport.CONTAINER);
+            ReactiveRouteApp app = new ReactiveRouteApp();
+
+            // ウォームアップ
+            for (int i = 0; i < 50; i++) {
+                app.createPerson(container, newPerson(i), false).block();
+            }
+            run(app, container, true);
+            run(app, container, false);
+        } finally {
+            client.close();
+        }
+    }
+
+    private void run(ReactiveRouteApp app, CosmosAsyncContainer container, boolean contentOnWrite)
+            throws Exception {
+        double[] latencies = new double[WRITES];
+        double requestCharge = 0;
+        long payloadBytes = 0;
+        for (int i = 0; i < WRITES; i++) {
+            long start = System.nanoTime();
+            CosmosItemResponse<Person> response = app.createPerson(container, newPerson(i), contentOnWrite).block();
+            latencies[i] = (System.nanoTime() - start) / 1_000_000.0;
+            requestCharge += response.getRequestCharge();
+            if (response.getItem() != null) {
+                payloadBytes += mapper.writeValueAsBytes(response.getItem()).length;
+            }
+        }
+        LOGGER.infof("contentResponseOnWrite=%-5s : avg %.2f ms, p99 %.2f ms, %.2f RU/write, %d bytes/write",
+                contentOnWrite, CosmosBenchmarkSupport.average(latencies),
+                CosmosBenchmarkSupport.percentile(latencies, 99), requestCharge / WRITES, payloadBytes / WRITES);
+    }
+
+    private static Person newPerson(int value) {
+        Person person = new Person();
+        person.setId(UUID.randomUUID().toString());
+        person.setFirstName("Bench" + value);
+        person.setLastName("Mark" + (value % 10));
+        person.setAge(value % 100);
+        return person;
+    }
+}
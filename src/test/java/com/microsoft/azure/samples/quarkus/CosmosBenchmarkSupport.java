@@ -0,0 +1,47 @@
+package com.microsoft.azure.samples.quarkus;
+
+import com.azure.cosmos.ConsistencyLevel;
+import com.azure.cosmos.CosmosAsyncClient;
+import com.azure.cosmos.CosmosClientBuilder;
+import com.azure.cosmos.DirectConnectionConfig;
+
+import java.util.Arrays;
+
+/**
+ * 実際の Cosmos DB (もしくは Cosmos DB Emulator) を利用するベンチマーク用のユーティリティ
+ *
+ * 接続情報はシステム・プロパティで指定します。
+ *
+ * -Dbenchmark=true -Dbenchmark.cosmos.endpoint=https://... -Dbenchmark.cosmos.key=...
+ * -Dbenchmark.cosmos.database=PERSON_DB -Dbenchmark.cosmos.container=personmanage
+ */
+final class CosmosBenchmarkSupport {
+
+    static final String ENDPOINT = System.getProperty("benchmark.cosmos.endpoint");
+    static final String KEY = System.getProperty("benchmark.cosmos.key");
+    static final String DATABASE = System.getProperty("benchmark.cosmos.database", "PERSON_DB");
+    static final String CONTAINER = System.getProperty("benchmark.cosmos.container", "personmanage");
+
+    private CosmosBenchmarkSupport() {
+    }
+
+    static CosmosAsyncClient createClient() {
+        return new CosmosClientBuilder().endpoint(ENDPOINT).key(KEY)
+                .directMode(DirectConnectionConfig.getDefaultConfig()).consistencyLevel(ConsistencyLevel.EVENTUAL)
+                .contentResponseOnWriteEnabled(false).buildAsyncClient();
+    }
+
+    /**
+     * @param samples 計測値 (ソートされる)
+     * @param percentile 0 - 100
+     */
+    static double percentile(double[] samples, double percentile) {
+        Arrays.sort(samples);
+        int index = (int) Math.ceil(percentile / 100.0 * samples.length) - 1;
+        return samples[Math.max(0, Math.min(index, samples.length - 1))];
+    }
+
+    static double average(double[] samples) {
+        return Arrays.stream(samples).average().orElse(0);
+    }
+}
@@ -0,0 +1,97 @@
+package com.microsoft.azure.samples.quarkus;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import reactor.blockhound.BlockHound;
+import reactor.blockhound.BlockingOperationError;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * BlockHound は JVM 全体にインストールされるため、pom.xml の blockhound 実行 (専用の JVM) でのみ実行します。
+ */
+public class CosmosSchedulersTest {
+
+    private static final String EVENT_LOOP_PREFIX = "vert.x-eventloop-thread";
+    // イベント・ループを模したスレッドのグループ (名前だけで判定すると、同じ JVM の他のスレッドも対象になる)
+    private static final ThreadGroup EVENT_LOOP_GROUP = new ThreadGroup("cosmos-schedulers-test-event-loop");
+
+    private static CosmosSchedulers.BoundedPool serializePool;
+    private static CosmosSchedulers.BoundedPool ioPool;
+
+    // このテストで作成したイベント・ループのスレッドと cosmos-serialize のスレッド上でのブロッキング呼び出しを検出
+    @BeforeAll
+    public static void installBlockHound() {
+        BlockHound.builder()
+                .nonBlockingThreadPredicate(current -> current.or(t -> t.getThreadGroup() == EVENT_LOOP_GROUP))
+                .install();
+        serializePool = CosmosSchedulers.BoundedPool.create("cosmos-serialize", 1, 10, true);
+        ioPool = CosmosSchedulers.BoundedPool.create("cosmos-io", 1, 10, false);
+    }
+
+    @AfterAll
+    public static void dispose() {
+        serializePool.dispose();
+        ioPool.dispose();
+    }
+
+    @Test
+    public void blockingOnSerializeSchedulerIsDetected() {
+        Mono<String> blocking = Mono.fromCallable(() -> {
+            Thread.sleep(10);
+            return "blocked";
+        }).subscribeOn(serializePool.getScheduler());
+
+        StepVerifier.create(blocking).expectError(BlockingOperationError.class).verify();
+    }
+
+    @Test
+    public void blockingOnIoSchedulerIsAllowed() {
+        Mono<String> blocking = Mono.fromCallable(() -> {
+            Thread.sleep(10);
+            return Thread.currentThread().getName();
+        }).subscribeOn(ioPool.getScheduler());
+
+        StepVerifier.create(blocking).assertNext(name -> assertTrue(name.startsWith("cosmos-io-"))).verifyComplete();
+    }
+
+    @Test
+    public void blockingOnEventLoopIsDetected() throws Exception {
+        CompletableFuture<Throwable> result = new CompletableFuture<>();
+        Thread eventLoop = new Thread(EVENT_LOOP_GROUP, () -> {
+            try {
+                Thread.sleep(10);
+                result.complete(null);
+            } catch (Throwable t) {
+                result.complete(t);
+            }
+        }, EVENT_LOOP_PREFIX + "-0");
+        eventLoop.start();
+
+        assertTrue(result.get(5, TimeUnit.SECONDS) instanceof BlockingOperationError);
+    }
+
+    @Test
+    public void queueDepthIsBounded() throws InterruptedException, ExecutionException {
+        CosmosSchedulers.BoundedPool pool = CosmosSchedulers.BoundedPool.create("bounded", 1, 1, false);
+        CompletableFuture<Void> gate = new CompletableFuture<>();
+        try {
+            pool.getScheduler().schedule(gate::join);
+            pool.getScheduler().schedule(() -> { });
+            assertEquals(1, pool.getQueueDepth());
+
+            StepVerifier.create(Mono.just(1).subscribeOn(pool.getScheduler())).expectError().verify();
+        } finally {
+            gate.complete(null);
+            pool.dispose();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.microsoft.azure.samples.quarkus;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HedgedReadsTest {
+
+    private static HedgedReads hedgedReads() {
+        HedgedReads hedgedReads = new HedgedReads();
+        hedgedReads.enabled = true;
+        hedgedReads.percentile = 0.95;
+        hedgedReads.initialDelay = Duration.ofMillis(50);
+        hedgedReads.minDelay = Duration.ofMillis(1);
+        hedgedReads.maxRate = 1.0;
+        // レイテンシの計測前は共有のクライアント (テストでは null) を返す
+        hedgedReads.readClients = new RegionalReadClients();
+        return hedgedReads;
+    }
+
+    @Test
+    public void slowReadIsAnsweredByTheHedge() {
+        HedgedReads hedgedReads = hedgedReads();
+        AtomicInteger calls = new AtomicInteger();
+
+        String result = hedgedReads.read(client -> calls.incrementAndGet() == 1
+                ? Mono.delay(Duration.ofSeconds(5)).thenReturn("primary")
+                : Mono.just("hedge")).block(Duration.ofSeconds(2));
+
+        assertEquals("hedge", result);
+        assertEquals(2, calls.get());
+        assertEquals(1.0, hedgedReads.hedgeRate());
+    }
+
+    @Test
+    public void primaryIsCancelledWhenTheHedgeWins() {
+        HedgedReads hedgedReads = hedgedReads();
+        AtomicInteger calls = new AtomicInteger();
+        AtomicBoolean primaryCancelled = new AtomicBoolean();
+
+        assertEquals("hedge", hedgedReads.read(client -> calls.incrementAndGet() == 1
+                ? Mono.<String>never().doOnCancel(() -> primaryCancelled.set(true))
+                : Mono.just("hedge")).block(Duration.ofSeconds(2)));
+
+        assertTrue(primaryCancelled.get());
+    }
+
+    @Test
+    public void cancellingTheReadCancelsThePrimary() {
+        HedgedReads hedgedReads = hedgedReads();
+        AtomicBoolean primaryCancelled = new AtomicBoolean();
+
+        // RequestCancellation の切断やタイムアウトと同じく、外側の購読をキャンセル
+        hedgedReads.read(client -> Mono.<String>never().doOnCancel(() -> primaryCancelled.set(true)))
+                .subscribe().dispose();
+
+        assertTrue(primaryCancelled.get());
+    }
+
+    @Test
+    public void fastReadIsNotHedged() {
+        HedgedReads hedgedReads = hedgedReads();
+        AtomicInteger calls = new AtomicInteger();
+
+        assertEquals("primary", hedgedReads.read(client -> {
+            calls.incrementAndGet();
+            return Mono.just("primary");
+        }).block(Duration.ofSeconds(2)));
+        Mono.delay(Duration.ofMillis(100)).block();
+
+        assertEquals(1, calls.get());
+        assertEquals(0.0, hedgedReads.hedgeRate());
+    }
+
+    @Test
+    public void primaryErrorIsReturnedWithoutHedging() {
+        HedgedReads hedgedReads = hedgedReads();
+        AtomicInteger calls = new AtomicInteger();
+
+        IllegalStateException error = assertThrows(IllegalStateException.class,
+                () -> hedgedReads.read(client -> {
+                    calls.incrementAndGet();
+                    return Mono.<String>error(new IllegalStateException("not found"));
+                }).block(Duration.ofSeconds(2)));
+
+        assertEquals("not found", error.getMessage());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void delayFollowsThePercentileOfRecentLatencies() {
+        HedgedReads.LatencyWindow window = new HedgedReads.LatencyWindow(1000);
+        assertEquals(-1, window.percentile(0.95, 100));
+
+        HedgedReads.LatencyWindow filled = new HedgedReads.LatencyWindow(1000);
+        for (int i = 1; i <= 1000; i++) {
+            filled.record(i);
+        }
+        assertEquals(950, filled.percentile(0.95, 100));
+        assertEquals(1000, filled.percentile(1.0, 100));
+    }
+}
@@ -0,0 +1,62 @@
+package com.microsoft.azure.samples.quarkus;
+
+import com.microsoft.azure.samples.quarkus.jsonmapper.PartitionSkewReport;
+import io.smallrye.metrics.MetricsRegistryImpl;
+import org.eclipse.microprofile.metrics.MetricID;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HotPartitionDetectorTest {
+
+    private final MetricRegistry metricRegistry = new MetricsRegistryImpl();
+
+    private HotPartitionDetector detector(int maxContainers) {
+        ContainerRegistry containerRegistry = new ContainerRegistry();
+        containerRegistry.maxEntries = maxContainers;
+        containerRegistry.metadataTtl = Duration.ofMinutes(5);
+        HotPartitionDetector detector = new HotPartitionDetector();
+        detector.window = Duration.ofMinutes(1);
+        detector.maxKeys = 100;
+        detector.skewThreshold = 5.0;
+        detector.containerRegistry = containerRegistry;
+        detector.metricRegistry = metricRegistry;
+        detector.init();
+        return detector;
+    }
+
+    private boolean hasSkewGauge(String container) {
+        return metricRegistry.getGauges().containsKey(new MetricID("partition.skew", new Tag("container", container)));
+    }
+
+    @Test
+    public void reportDoesNotCreateWindows() {
+        HotPartitionDetector detector = detector(10);
+
+        PartitionSkewReport report = detector.report("PERSON_DB/unknown");
+
+        assertEquals(0, report.getTotalRequestCharge());
+        assertTrue(report.getPartitions().isEmpty());
+        assertFalse(hasSkewGauge("PERSON_DB/unknown"));
+    }
+
+    @Test
+    public void windowsAreBoundedByTheContainerRegistry() {
+        HotPartitionDetector detector = detector(2);
+        detector.record("PERSON_DB/a", "Sato", 10);
+        detector.record("PERSON_DB/b", "Sato", 10);
+        detector.record("PERSON_DB/c", "Sato", 10);
+
+        // LRU から削除された a の集計とメトリクスは破棄される
+        assertFalse(hasSkewGauge("PERSON_DB/a"));
+        assertEquals(0, detector.report("PERSON_DB/a").getTotalRequestCharge());
+        assertTrue(hasSkewGauge("PERSON_DB/c"));
+        assertEquals(10, detector.report("PERSON_DB/c").getTotalRequestCharge());
+    }
+}
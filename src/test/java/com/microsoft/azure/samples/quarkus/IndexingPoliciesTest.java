@@ -0,0 +1,71 @@
+package com.microsoft.azure.samples.quarkus;
+
+import com.azure.cosmos.models.CompositePathSortOrder;
+import com.azure.cosmos.models.ExcludedPath;
+import com.azure.cosmos.models.IncludedPath;
+import com.azure.cosmos.models.IndexingMode;
+import com.azure.cosmos.models.IndexingPolicy;
+import com.microsoft.azure.samples.quarkus.jsonmapper.RequestCompositePath;
+import com.microsoft.azure.samples.quarkus.jsonmapper.RequestIndexingPolicy;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class IndexingPoliciesTest {
+
+    @Test
+    public void defaultsIncludeEverythingExceptETag() {
+        IndexingPolicy policy = IndexingPolicies.toIndexingPolicy(new RequestIndexingPolicy());
+
+        assertEquals(IndexingMode.CONSISTENT, policy.getIndexingMode());
+        assertEquals(Collections.singletonList("/*"),
+                policy.getIncludedPaths().stream().map(IncludedPath::getPath).collect(Collectors.toList()));
+        assertEquals(Collections.singletonList("/\"_etag\"/?"),
+                policy.getExcludedPaths().stream().map(ExcludedPath::getPath).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void tunedPolicyWithCompositeIndex() {
+        RequestIndexingPolicy request = new RequestIndexingPolicy("consistent", Arrays.asList("/lastName/?", "/age/?"),
+                Collections.singletonList("/*"), Collections.singletonList(Arrays.asList(
+                        new RequestCompositePath("/age", null), new RequestCompositePath("/lastName", "descending"))));
+        IndexingPolicy policy = IndexingPolicies.toIndexingPolicy(request);
+
+        assertEquals(2, policy.getIncludedPaths().size());
+        assertEquals(Collections.singletonList("/*"),
+                policy.getExcludedPaths().stream().map(ExcludedPath::getPath).collect(Collectors.toList()));
+        assertEquals(CompositePathSortOrder.ASCENDING, policy.getCompositeIndexes().get(0).get(0).getOrder());
+        assertEquals(CompositePathSortOrder.DESCENDING, policy.getCompositeIndexes().get(0).get(1).getOrder());
+    }
+
+    @Test
+    public void noneModeDisablesAutomaticIndexing() {
+        IndexingPolicy policy = IndexingPolicies.toIndexingPolicy(new RequestIndexingPolicy("none", null, null, null));
+
+        assertEquals(IndexingMode.NONE, policy.getIndexingMode());
+        assertFalse(policy.isAutomatic());
+        assertTrue(policy.getIncludedPaths().isEmpty());
+    }
+
+    @Test
+    public void invalidPoliciesAreRejected() {
+        assertThrows(IllegalArgumentException.class,
+                () -> IndexingPolicies.toIndexingPolicy(new RequestIndexingPolicy("eager", null, null, null)));
+        assertThrows(IllegalArgumentException.class, () -> IndexingPolicies.toIndexingPolicy(
+                new RequestIndexingPolicy(null, Collections.singletonList("lastName"), null, null)));
+        assertThrows(IllegalArgumentException.class,
+                () -> IndexingPolicies.toIndexingPolicy(new RequestIndexingPolicy(null, null, null,
+                        Collections.singletonList(Collections.singletonList(new RequestCompositePath("/age", null))))));
+        assertThrows(IllegalArgumentException.class,
+                () -> IndexingPolicies.toIndexingPolicy(new RequestIndexingPolicy(null, null, null,
+                        Collections.singletonList(Arrays.asList(new RequestCompositePath("/age", "up"),
+                                new RequestCompositePath("/lastName", null))))));
+    }
+}
@@ -0,0 +1,97 @@
+package com.microsoft.azure.samples.quarkus;
+
+import com.azure.cosmos.CosmosAsyncClient;
+import com.azure.cosmos.CosmosAsyncContainer;
+import com.azure.cosmos.CosmosAsyncDatabase;
+import com.azure.cosmos.CosmosException;
+import com.azure.cosmos.models.CosmosContainerProperties;
+import com.azure.cosmos.models.CosmosQueryRequestOptions;
+import com.azure.cosmos.models.FeedResponse;
+import com.azure.cosmos.models.ThroughputProperties;
+import com.microsoft.azure.samples.quarkus.jsonmapper.Person;
+import com.microsoft.azure.samples.quarkus.jsonmapper.RequestCompositePath;
+import com.microsoft.azure.samples.quarkus.jsonmapper.RequestIndexingPolicy;
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+
+/**
+ * インデックス・ポリシーによる書き込みとソート・クエリの RU の比較
+ *
+ * デフォルト (全てのパスにインデックス) と、lastName と age だけにインデックスを作成し
+ * (age, lastName) の複合インデックスを追加したポリシーで、それぞれ一時的なコンテナを作成して計測します。
+ *
+ * mvn test -Dtest=IndexingPolicyBenchmarkTest -Dbenchmark=true \
+ * -Dbenchmark.cosmos.endpoint=https://... -Dbenchmark.cosmos.key=... [-Dbenchmark.writes=500]
+ */
+@EnabledIfSystemProperty(named = "benchmark.cosmos.endpoint", matches = ".+")
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class IndexingPolicyBenchmarkTest {
+
+    private static final Logger LOGGER = Logger.getLogger(IndexingPolicyBenchmarkTest.class);
+    private static final int WRITES = Integer.getInteger("benchmark.writes", 500);
+
+    private static final String QUERY_ORDER_BY_AGE = "SELECT * FROM Person P ORDER BY P.age OFFSET 0 LIMIT 30";
+    private static final String QUERY_ORDER_BY_AGE_LAST_NAME = "SELECT * FROM Person P ORDER BY P.age, P.lastName OFFSET 0 LIMIT 30";
+
+    @Test
+    public void compareIndexingPolicies() {
+        CosmosAsyncClient client = CosmosBenchmarkSupport.createClient();
+        try {
+            CosmosAsyncDatabase database = client.getDatabase(CosmosBenchmarkSupport.DATABASE);
+            run(database, "default", null);
+            run(database, "tuned", new RequestIndexingPolicy("consistent", Arrays.asList("/lastName/?", "/age/?"),
+                    Collections.singletonList("/*"), Collections.singletonList(Arrays.asList(
+                            new RequestCompositePath("/age", null), new RequestCompositePath("/lastName", null)))));
+        } finally {
+            client.close();
+        }
+    }
+
+    private void run(CosmosAsyncDatabase database, String name, RequestIndexingPolicy indexingPolicy) {
+        CosmosContainerProperties properties = new CosmosContainerProperties(
+                "indexbench-" + name + "-" + UUID.randomUUID(), "/lastName");
+        if (indexingPolicy != null) {
+            properties.setIndexingPolicy(IndexingPolicies.toIndexingPolicy(indexingPolicy));
+        }
+        database.createContainer(properties, ThroughputProperties.createManualThroughput(400)).block();
+        CosmosAsyncContainer container = database.getContainer(properties.getId());
+        try {
+            double writeCharge = 0;
+            for (int i = 0; i < WRITES; i++) {
+                writeCharge += container.createItem(newPerson(i)).block().getRequestCharge();
+            }
+            LOGGER.infof("%-8s : %.2f RU/write, ORDER BY age %s RU, ORDER BY age, lastName %s RU", name,
+                    writeCharge / WRITES, queryCharge(container, QUERY_ORDER_BY_AGE),
+                    queryCharge(container, QUERY_ORDER_BY_AGE_LAST_NAME));
+        } finally {
+            container.delete().block();
+        }
+    }
+
+    /*
+     * 複合インデックスが無い場合、複数項目の ORDER BY は 400 で失敗する
+     */
+    private static String queryCharge(CosmosAsyncContainer container, String query) {
+        try {
+            double charge = container.queryItems(query, new CosmosQueryRequestOptions(), Person.class).byPage()
+                    .map(FeedResponse::getRequestCharge).reduce(0.0, Double::sum).block();
+            return String.format("%.2f", charge);
+        } catch (CosmosException e) {
+            return "n/a (" + e.getStatusCode() + ")";
+        }
+    }
+
+    private static Person newPerson(int value) {
+        Person person = new Person();
+        person.setId(UUID.randomUUID().toString());
+        person.setFirstName("Bench" + value);
+        person.setLastName("Mark" + (value % 10));
+        person.setAge(value % 100);
+        return person;
+    }
+}
@@ -0,0 +1,112 @@
+package com.microsoft.azure.samples.quarkus;
+
+import com.azure.cosmos.models.PartitionKey;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class NdjsonFilesTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static JsonNode document(int i) throws Exception {
+        return MAPPER.readTree("{\"id\":\"" + i + "\",\"lastName\":\"寺田\",\"age\":" + i + "}");
+    }
+
+    @Test
+    public void writesChunksAndReadsThemBackInOrder(@TempDir Path base) throws Exception {
+        Path directory = NdjsonFiles.resolve(base, "backup-1");
+        try (NdjsonFiles.ChunkWriter writer = new NdjsonFiles.ChunkWriter(directory, 2)) {
+            for (int i = 0; i < 5; i++) {
+                writer.write(document(i));
+            }
+            writer.close();
+            assertEquals(5, writer.getDocuments());
+            assertEquals(3, writer.getFiles());
+            assertTrue(writer.getBytes() > 0);
+        }
+
+        List<Path> parts = NdjsonFiles.listParts(directory);
+        assertEquals(3, parts.size());
+        assertEquals("part-00000.ndjson.gz", parts.get(0).getFileName().toString());
+
+        List<String> ids = parts.stream().flatMap(part -> NdjsonFiles.read(part).toStream())
+                .map(node -> node.get("id").textValue()).collect(Collectors.toList());
+        assertEquals(List.of("0", "1", "2", "3", "4"), ids);
+        assertEquals("寺田", NdjsonFiles.read(parts.get(0)).blockFirst().get("lastName").textValue());
+    }
+
+    @Test
+    public void readsAcrossMappedWindows(@TempDir Path base) throws Exception {
+        Path directory = NdjsonFiles.resolve(base, "backup-1");
+        try (NdjsonFiles.ChunkWriter writer = new NdjsonFiles.ChunkWriter(directory, 100)) {
+            for (int i = 0; i < 50; i++) {
+                writer.write(document(i));
+            }
+        }
+
+        // 7 バイト毎にマップしても、ウィンドウの境界をまたいで読み込める
+        Path part = NdjsonFiles.listParts(directory).get(0);
+        List<String> ids = NdjsonFiles.read(part, 7).map(node -> node.get("id").textValue()).collectList().block();
+        assertEquals(50, ids.size());
+        assertEquals("49", ids.get(49));
+    }
+
+    @Test
+    public void abortDeletesThePartialExport(@TempDir Path base) throws Exception {
+        Path directory = NdjsonFiles.resolve(base, "backup-1");
+        IOException cause = new IOException("failed");
+        NdjsonFiles.ChunkWriter writer = new NdjsonFiles.ChunkWriter(directory, 2);
+        for (int i = 0; i < 3; i++) {
+            writer.write(document(i));
+        }
+        writer.abort(cause);
+        writer.close();
+
+        assertFalse(Files.exists(directory));
+        assertEquals(0, cause.getSuppressed().length);
+        // 同じ名前で再実行できる
+        try (NdjsonFiles.ChunkWriter retry = new NdjsonFiles.ChunkWriter(directory, 2)) {
+            retry.write(document(1));
+        }
+    }
+
+    @Test
+    public void rejectsAnExistingExport(@TempDir Path base) throws Exception {
+        Path directory = NdjsonFiles.resolve(base, "backup-1");
+        try (NdjsonFiles.ChunkWriter writer = new NdjsonFiles.ChunkWriter(directory, 10)) {
+            writer.write(document(1));
+        }
+        assertThrows(FileAlreadyExistsException.class, () -> new NdjsonFiles.ChunkWriter(directory, 10));
+    }
+
+    @Test
+    public void rejectsMissingDirectoryAndInvalidNames(@TempDir Path base) {
+        assertThrows(NoSuchFileException.class, () -> NdjsonFiles.listParts(base.resolve("missing")));
+        assertThrows(IllegalArgumentException.class, () -> NdjsonFiles.resolve(base, "../etc"));
+        assertThrows(IllegalArgumentException.class, () -> NdjsonFiles.resolve(base, ".hidden"));
+        assertThrows(IllegalArgumentException.class, () -> NdjsonFiles.resolve(base, ""));
+    }
+
+    @Test
+    public void partitionKeyIsReadFromThePath() throws Exception {
+        JsonNode node = MAPPER.readTree("{\"id\":\"1\",\"address\":{\"city\":\"Tokyo\"},\"age\":30}");
+        assertEquals(new PartitionKey("Tokyo"), ContainerTransfer.partitionKeyOf(node, "/address/city"));
+        assertEquals(new PartitionKey(30.0), ContainerTransfer.partitionKeyOf(node, "/age"));
+        assertEquals(PartitionKey.NONE, ContainerTransfer.partitionKeyOf(node, "/lastName"));
+    }
+}
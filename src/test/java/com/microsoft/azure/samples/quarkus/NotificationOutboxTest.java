@@ -0,0 +1,121 @@
+package com.microsoft.azure.samples.quarkus;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class NotificationOutboxTest {
+
+    @TempDir
+    Path directory;
+
+    private HttpServer server;
+    private final List<String> received = new CopyOnWriteArrayList<>();
+    // 0 より大きい間は 503 を返す
+    private final AtomicInteger failures = new AtomicInteger();
+
+    // Logic App の代わりのローカルの HTTP サーバ
+    @BeforeEach
+    public void startStub() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/notify", exchange -> {
+            try (InputStream body = exchange.getRequestBody()) {
+                String json = new String(body.readAllBytes(), StandardCharsets.UTF_8);
+                int status = failures.getAndDecrement() > 0 ? 503 : 202;
+                if (status == 202) {
+                    received.add(json);
+                }
+                exchange.sendResponseHeaders(status, -1);
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    public void stopStub() {
+        server.stop(0);
+    }
+
+    private NotificationOutbox outbox() {
+        NotificationOutbox outbox = new NotificationOutbox();
+        outbox.endpoint = "http://127.0.0.1:" + server.getAddress().getPort() + "/notify";
+        outbox.directory = directory.toString();
+        outbox.segmentSize = 4096;
+        outbox.batchSize = 2;
+        outbox.concurrency = 1;
+        outbox.requestTimeout = Duration.ofSeconds(5);
+        outbox.minBackoff = Duration.ofMillis(100);
+        outbox.maxBackoff = Duration.ofSeconds(1);
+        outbox.tracing = new Tracing();
+        outbox.open();
+        return outbox;
+    }
+
+    @Test
+    public void deliversAllPendingNotificationsInBatches() {
+        NotificationOutbox outbox = outbox();
+        outbox.append(Arrays.asList("{\"id\":\"1\"}", "{\"id\":\"2\"}", "{\"id\":\"3\"}"));
+
+        outbox.drain().block(Duration.ofSeconds(10));
+
+        assertEquals(Arrays.asList("{\"id\":\"1\"}", "{\"id\":\"2\"}", "{\"id\":\"3\"}"), received);
+        assertEquals(0, outbox.pending());
+    }
+
+    @Test
+    public void failedDeliveryIsRetriedFromTheFirstUndelivered() {
+        NotificationOutbox outbox = outbox();
+        failures.set(1);
+        outbox.append(Arrays.asList("{\"id\":\"1\"}", "{\"id\":\"2\"}"));
+
+        outbox.drain().block(Duration.ofSeconds(10));
+        assertEquals(2, outbox.pending());
+
+        outbox.drain().block(Duration.ofSeconds(10));
+        assertEquals(Arrays.asList("{\"id\":\"1\"}", "{\"id\":\"2\"}"), received);
+        assertEquals(0, outbox.pending());
+    }
+
+    @Test
+    public void undeliveredNotificationsSurviveRestart() {
+        failures.set(Integer.MAX_VALUE);
+        NotificationOutbox first = outbox();
+        first.append(Arrays.asList("{\"id\":\"1\"}"));
+        first.drain().block(Duration.ofSeconds(10));
+        first.close();
+
+        failures.set(0);
+        NotificationOutbox restarted = outbox();
+        assertEquals(1, restarted.pending());
+        restarted.drain().block(Duration.ofSeconds(10));
+        assertEquals(Arrays.asList("{\"id\":\"1\"}"), received);
+    }
+
+    @Test
+    public void backoffDoublesUpToTheMaximum() {
+        Duration min = Duration.ofSeconds(1);
+        Duration max = Duration.ofSeconds(30);
+
+        assertEquals(Duration.ofSeconds(1), NotificationOutbox.backoff(1, min, max));
+        assertEquals(Duration.ofSeconds(4), NotificationOutbox.backoff(3, min, max));
+        assertEquals(max, NotificationOutbox.backoff(10, min, max));
+        assertTrue(NotificationOutbox.backoff(100, min, max).compareTo(max) <= 0);
+    }
+}
@@ -0,0 +1,113 @@
+package com.microsoft.azure.samples.quarkus;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OutboxLogTest {
+
+    private static final int SEGMENT_SIZE = 128;
+
+    @TempDir
+    Path directory;
+
+    private static List<byte[]> records(String... values) {
+        return Arrays.stream(values).map(value -> value.getBytes(StandardCharsets.UTF_8)).collect(Collectors.toList());
+    }
+
+    private static List<String> values(List<OutboxLog.Entry> entries) {
+        return entries.stream().map(entry -> new String(entry.getRecord(), StandardCharsets.UTF_8))
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void readsInOrderAcrossSegments() throws Exception {
+        OutboxLog log = OutboxLog.open(directory, SEGMENT_SIZE);
+        // 1 レコード 8 + 30 バイトのため、1 セグメントに 3 件
+        String[] messages = Stream.iterate(0, i -> i + 1).limit(10).map(i -> String.format("message-%022d", i))
+                .toArray(String[]::new);
+        log.append(records(messages));
+
+        assertEquals(Arrays.asList(messages), values(log.read(100)));
+        assertEquals(10, log.pending());
+        assertTrue(Files.exists(directory.resolve(String.format("segment-%019d.log", 3))));
+    }
+
+    @Test
+    public void rewindRedeliversUncommittedRecords() throws Exception {
+        OutboxLog log = OutboxLog.open(directory, SEGMENT_SIZE);
+        log.append(records("a", "b", "c"));
+
+        List<OutboxLog.Entry> batch = log.read(3);
+        log.commit(batch.get(0), 1);
+        log.rewind();
+
+        assertEquals(Arrays.asList("b", "c"), values(log.read(10)));
+        assertEquals(2, log.pending());
+    }
+
+    @Test
+    public void reopenResumesFromCommittedPosition() throws Exception {
+        OutboxLog log = OutboxLog.open(directory, SEGMENT_SIZE);
+        log.append(records("a", "b", "c", "d", "e", "f", "g", "h", "i", "j"));
+        List<OutboxLog.Entry> batch = log.read(7);
+        log.commit(batch.get(6), 7);
+        log.close();
+
+        OutboxLog reopened = OutboxLog.open(directory, SEGMENT_SIZE);
+        assertEquals(3, reopened.pending());
+        reopened.append(records("k"));
+        assertEquals(Arrays.asList("h", "i", "j", "k"), values(reopened.read(10)));
+    }
+
+    @Test
+    public void committedSegmentsAreDeleted() throws Exception {
+        OutboxLog log = OutboxLog.open(directory, SEGMENT_SIZE);
+        log.append(records(Stream.generate(() -> String.format("%030d", 0)).limit(7).toArray(String[]::new)));
+        List<OutboxLog.Entry> batch = log.read(7);
+        log.commit(batch.get(6), 7);
+
+        assertFalse(Files.exists(directory.resolve(String.format("segment-%019d.log", 0))));
+        assertFalse(Files.exists(directory.resolve(String.format("segment-%019d.log", 1))));
+        assertEquals(0, log.pending());
+    }
+
+    @Test
+    public void tornRecordIsDiscardedOnRecovery() throws Exception {
+        OutboxLog log = OutboxLog.open(directory, SEGMENT_SIZE);
+        log.append(records("first", "second"));
+        log.close();
+
+        // 2 件目の本文を壊して、書き込み途中のクラッシュを再現
+        try (RandomAccessFile file = new RandomAccessFile(
+                directory.resolve(String.format("segment-%019d.log", 0)).toFile(), "rw")) {
+            file.seek(8 + 5 + 8);
+            file.write('X');
+        }
+
+        OutboxLog reopened = OutboxLog.open(directory, SEGMENT_SIZE);
+        assertEquals(1, reopened.pending());
+        reopened.append(records("third"));
+        assertEquals(Arrays.asList("first", "third"), values(reopened.read(10)));
+    }
+
+    @Test
+    public void recordLargerThanSegmentIsRejected() throws Exception {
+        OutboxLog log = OutboxLog.open(directory, SEGMENT_SIZE);
+        assertThrows(IllegalArgumentException.class, () -> log.append(Arrays.asList(new byte[SEGMENT_SIZE])));
+        assertEquals(0, log.pending());
+    }
+}
@@ -0,0 +1,80 @@
+package com.microsoft.azure.samples.quarkus;
+
+import com.microsoft.azure.samples.quarkus.jsonmapper.Person;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PartitionKeyStrategyTest {
+
+    private static PartitionKeyStrategy strategy(String name, int buckets) {
+        PartitionKeyStrategy strategy = new PartitionKeyStrategy();
+        strategy.strategy = name;
+        strategy.buckets = buckets;
+        strategy.validate();
+        return strategy;
+    }
+
+    private static Person person(String lastName) {
+        Person person = new Person();
+        person.setId(UUID.randomUUID().toString());
+        person.setLastName(lastName);
+        return person;
+    }
+
+    @Test
+    public void noneKeepsLastName() {
+        PartitionKeyStrategy strategy = strategy("none", 16);
+        Person person = person("Terada");
+        strategy.apply(person);
+
+        assertNull(person.getPartitionKey());
+        assertEquals("Terada", strategy.partitionKeyValueOf("Terada", person.getId()));
+    }
+
+    @Test
+    public void hashedSuffixSpreadsSameLastNameAcrossBuckets() {
+        PartitionKeyStrategy strategy = strategy("hashed-suffix", 8);
+        Map<String, Integer> counts = new HashMap<>();
+        IntStream.range(0, 8000).forEach(i -> {
+            Person person = person("Sato");
+            strategy.apply(person);
+            assertEquals(person.getPartitionKey(), strategy.partitionKeyValueOf("Sato", person.getId()));
+            counts.merge(person.getPartitionKey(), 1, Integer::sum);
+        });
+
+        assertEquals(8, counts.size());
+        counts.values().forEach(count -> assertTrue(count > 800 && count < 1200, "unbalanced bucket: " + count));
+    }
+
+    @Test
+    public void compositeUsesLastNameAndId() {
+        PartitionKeyStrategy strategy = strategy("composite", 16);
+        Person person = person("Suzuki");
+        strategy.apply(person);
+
+        assertEquals("Suzuki|" + person.getId(), person.getPartitionKey());
+    }
+
+    @Test
+    public void strategyIsCaseInsensitive() {
+        PartitionKeyStrategy strategy = strategy("Composite", 16);
+
+        assertTrue(strategy.isSynthetic());
+        assertEquals("Suzuki|1", strategy.partitionKeyValueOf("Suzuki", "1"));
+    }
+
+    @Test
+    public void unknownStrategyFailsAtStartup() {
+        assertThrows(IllegalArgumentException.class, () -> strategy("hashed", 16));
+        assertThrows(IllegalArgumentException.class, () -> strategy("hashed-suffix", 0));
+    }
+}
@@ -0,0 +1,39 @@
+package com.microsoft.azure.samples.quarkus;
+
+import com.microsoft.azure.samples.quarkus.jsonmapper.RequestPatchOperation;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class PatchOperationsTest {
+
+    @Test
+    public void supportedOperationsAreConverted() {
+        assertNotNull(ReactiveRouteApp.toPatchOperations(Arrays.asList(
+                new RequestPatchOperation("set", "/age", 40),
+                new RequestPatchOperation("increment", "/age", 1),
+                new RequestPatchOperation("increment", "/score", 0.5),
+                new RequestPatchOperation("replace", "/firstName", "Yoshio"),
+                new RequestPatchOperation("add", "/nickName", "yoshio"),
+                new RequestPatchOperation("remove", "/nickName", null))));
+    }
+
+    @Test
+    public void invalidOperationsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> ReactiveRouteApp.toPatchOperations(null));
+        assertThrows(IllegalArgumentException.class,
+                () -> ReactiveRouteApp.toPatchOperations(Collections.emptyList()));
+        assertThrows(IllegalArgumentException.class, () -> ReactiveRouteApp
+                .toPatchOperations(Collections.singletonList(new RequestPatchOperation("move", "/age", 1))));
+        assertThrows(IllegalArgumentException.class, () -> ReactiveRouteApp
+                .toPatchOperations(Collections.singletonList(new RequestPatchOperation("set", "age", 1))));
+        assertThrows(IllegalArgumentException.class, () -> ReactiveRouteApp
+                .toPatchOperations(Collections.singletonList(new RequestPatchOperation("set", "/age", null))));
+        assertThrows(IllegalArgumentException.class, () -> ReactiveRouteApp
+                .toPatchOperations(Collections.singletonList(new RequestPatchOperation("increment", "/age", "1"))));
+    }
+}
@@ -0,0 +1,80 @@
+package com.microsoft.azure.samples.quarkus;
+
+import com.microsoft.azure.samples.quarkus.jsonmapper.Person;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+public class PersonAggregateViewTest {
+
+    private static PersonAggregateView view() {
+        PersonAggregateView view = new PersonAggregateView();
+        view.ageBucketWidth = 10;
+        return view;
+    }
+
+    private static Person person(String id, String lastName, int age) {
+        Person person = new Person();
+        person.setId(id);
+        person.setLastName(lastName);
+        person.setAge(age);
+        return person;
+    }
+
+    @Test
+    public void countsByLastNameAndAgeBucket() {
+        PersonAggregateView view = view();
+        view.onChanges(Arrays.asList(person("1", "Yoshio", 25), person("2", "Yoshio", 31), person("3", "Terada", 29)));
+
+        assertEquals(3, view.total());
+        assertEquals(2, view.countByLastName("Yoshio"));
+        assertEquals(0, view.countByLastName("Unknown"));
+
+        Map<String, Long> expected = new LinkedHashMap<>();
+        expected.put("20-29", 2L);
+        expected.put("30-39", 1L);
+        assertEquals(expected, view.countsByAgeBucket());
+    }
+
+    @Test
+    public void updateMovesTheDocumentBetweenGroups() {
+        PersonAggregateView view = view();
+        view.onChanges(Arrays.asList(person("1", "Yoshio", 25)));
+        view.onChanges(Arrays.asList(person("1", "Yoshio", 41)));
+        // 同じ変更が再度通知されても件数は変わらない
+        view.onChanges(Arrays.asList(person("1", "Yoshio", 41)));
+
+        assertEquals(1, view.total());
+        assertEquals(Collections.singletonMap("40-49", 1L), view.countsByAgeBucket());
+        assertEquals(Collections.singletonMap("Yoshio", 1L), view.countsByLastName());
+    }
+
+    @Test
+    public void snapshotRestoresTheSameCounts() {
+        PersonAggregateView view = view();
+        view.onChanges(Arrays.asList(person("1", "Yoshio", 25), person("2", "Terada", 5)));
+
+        PersonAggregateView restored = view();
+        restored.restore(view.snapshot());
+
+        assertEquals(view.countsByLastName(), restored.countsByLastName());
+        assertEquals(view.countsByAgeBucket(), restored.countsByAgeBucket());
+
+        restored.reset();
+        assertFalse(restored.countsByLastName().containsKey("Yoshio"));
+    }
+
+    @Test
+    public void ageBucketLabels() {
+        assertEquals("0-9", PersonAggregateView.ageBucket(0, 10));
+        assertEquals("20-29", PersonAggregateView.ageBucket(29, 10));
+        assertEquals("-10--1", PersonAggregateView.ageBucket(-3, 10));
+        assertEquals("25-29", PersonAggregateView.ageBucket(27, 5));
+    }
+}
@@ -0,0 +1,51 @@
+package com.microsoft.azure.samples.quarkus;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.microsoft.azure.samples.quarkus.jsonmapper.Person;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class PersonColumnsTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void writesSameJsonAsPersonList() throws Exception {
+        PersonColumns columns = new PersonColumns();
+        IntStream.range(0, 200).forEach(i -> {
+            ObjectNode document = mapper.createObjectNode();
+            document.put("id", "id-" + i);
+            document.put("firstName", "Yoshio" + i);
+            document.put("lastName", "Terada\"\\\n" + i);
+            document.put("age", i);
+            document.put("_etag", "ignored");
+            columns.add(document);
+        });
+
+        List<Person> persons = mapper.readValue(columns.toJsonBuffer().getBytes(), new TypeReference<List<Person>>() {
+        });
+
+        assertEquals(200, persons.size());
+        assertEquals("id-199", persons.get(199).getId());
+        assertEquals("Terada\"\\\n7", persons.get(7).getLastName());
+        assertEquals(42, persons.get(42).getAge());
+    }
+
+    @Test
+    public void writesNullAndNonAsciiValues() throws Exception {
+        PersonColumns columns = new PersonColumns().add("1", null, "寺田", 47);
+
+        List<Person> persons = mapper.readValue(columns.toJsonBuffer().getBytes(), new TypeReference<List<Person>>() {
+        });
+
+        assertNull(persons.get(0).getFirstName());
+        assertEquals("寺田", persons.get(0).getLastName());
+    }
+}
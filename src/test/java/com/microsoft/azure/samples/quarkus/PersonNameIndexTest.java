@@ -0,0 +1,95 @@
+package com.microsoft.azure.samples.quarkus;
+
+import com.microsoft.azure.samples.quarkus.jsonmapper.Person;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PersonNameIndexTest {
+
+    private static PersonNameIndex index() {
+        PersonNameIndex index = new PersonNameIndex();
+        index.enabled = true;
+        return index;
+    }
+
+    private static Person person(String id, String firstName, String lastName) {
+        Person person = new Person();
+        person.setId(id);
+        person.setFirstName(firstName);
+        person.setLastName(lastName);
+        return person;
+    }
+
+    private static List<String> ids(List<PersonNameIndex.DocumentRef> refs) {
+        return refs.stream().map(PersonNameIndex.DocumentRef::getId).collect(Collectors.toList());
+    }
+
+    @Test
+    public void prefixSearchIsCaseInsensitiveAndOrderedByName() {
+        PersonNameIndex index = index();
+        index.onChanges(Arrays.asList(person("1", "Taro", "Yoshio"), person("2", "takeshi", "Terada"),
+                person("3", "Hanako", "Yamada")));
+
+        assertEquals(Arrays.asList("2", "1"), ids(index.search("firstName", "TA", 10)));
+        assertEquals(Arrays.asList("3", "1"), ids(index.search("lastName", "y", 10)));
+        assertEquals(Collections.singletonList("3"), ids(index.search("lastName", "y", 1)));
+        assertTrue(index.search("lastName", "z", 10).isEmpty());
+    }
+
+    @Test
+    public void partitionKeyFallsBackToLastName() {
+        PersonNameIndex index = index();
+        Person synthetic = person("1", "Taro", "Yoshio");
+        synthetic.setPartitionKey("Yoshio-3");
+        index.onChanges(Arrays.asList(synthetic, person("2", "Taro", "Terada")));
+
+        List<PersonNameIndex.DocumentRef> refs = index.search("firstName", "taro", 10);
+        assertEquals(Arrays.asList("Yoshio-3", "Terada"),
+                refs.stream().map(PersonNameIndex.DocumentRef::getPartitionKey).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void updateReplacesTheOldNames() {
+        PersonNameIndex index = index();
+        index.onChanges(Arrays.asList(person("1", "Taro", "Yoshio")));
+        index.onChanges(Arrays.asList(person("1", "Jiro", "Yoshio")));
+
+        assertTrue(index.search("firstName", "ta", 10).isEmpty());
+        assertEquals(Collections.singletonList("1"), ids(index.search("firstName", "ji", 10)));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void snapshotRestoresTheIndex() {
+        PersonNameIndex index = index();
+        index.onChanges(Arrays.asList(person("1", "Taro", "Yoshio"), person("2", "Hanako", "Yamada")));
+
+        PersonNameIndex restored = index();
+        restored.restore(index.snapshot());
+
+        assertEquals(ids(index.search("lastName", "ya", 10)), ids(restored.search("lastName", "ya", 10)));
+        assertEquals(2, restored.size());
+    }
+
+    @Test
+    public void disabledIndexIgnoresChanges() {
+        PersonNameIndex index = new PersonNameIndex();
+        index.onChanges(Arrays.asList(person("1", "Taro", "Yoshio")));
+
+        assertEquals(0, index.size());
+        assertTrue(index.snapshot().isNull());
+    }
+
+    @Test
+    public void unknownFieldIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> index().search("age", "1", 10));
+    }
+}
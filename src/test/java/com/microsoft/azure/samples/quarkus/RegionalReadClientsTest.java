@@ -0,0 +1,128 @@
+package com.microsoft.azure.samples.quarkus;
+
+import com.azure.cosmos.CosmosAsyncClient;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RegionalReadClientsTest {
+
+    private static final List<String> REGIONS = Arrays.asList("Japan East", "Japan West");
+
+    private final List<List<String>> builds = new CopyOnWriteArrayList<>();
+    private final AtomicInteger nonBlockingBuilds = new AtomicInteger();
+
+    // 生成したリージョンの順と、生成したスレッドを記録するプロデューサー
+    // (CosmosAsyncClient は final で、生成時に接続するため、テストではクライアントを生成しない)
+    private CosmosClientProducer clientProducer() {
+        CosmosClientProducer clientProducer = new CosmosClientProducer() {
+            @Override
+            public CosmosAsyncClient buildAsyncClient(List<String> regions) {
+                if (Schedulers.isInNonBlockingThread()) {
+                    nonBlockingBuilds.incrementAndGet();
+                }
+                builds.add(regions);
+                return null;
+            }
+        };
+        clientProducer.preferredRegions = REGIONS;
+        return clientProducer;
+    }
+
+    // measured が true の場合は、計測の結果 Japan West が最も近いリージョン
+    private static RegionLatencyMonitor latencyMonitor(boolean measured) {
+        RegionLatencyMonitor latencyMonitor = new RegionLatencyMonitor() {
+            @Override
+            public void probe() {
+            }
+
+            @Override
+            public boolean hasMeasurements() {
+                return measured;
+            }
+
+            @Override
+            public List<String> orderedRegions() {
+                return Arrays.asList("Japan West", "Japan East");
+            }
+        };
+        latencyMonitor.regions = REGIONS;
+        return latencyMonitor;
+    }
+
+    private RegionalReadClients readClients() {
+        RegionalReadClients readClients = new RegionalReadClients();
+        readClients.clientProducer = clientProducer();
+        readClients.latencyMonitor = latencyMonitor(true);
+        readClients.closeDelay = Duration.ofMinutes(1);
+        return readClients;
+    }
+
+    @Test
+    public void reevaluateBuildsPrimaryAndSecondaryClients() {
+        RegionalReadClients readClients = readClients();
+        readClients.reevaluate();
+
+        assertEquals(Arrays.asList(Arrays.asList("Japan West", "Japan East"),
+                Arrays.asList("Japan East", "Japan West")), builds);
+        assertEquals(Arrays.asList("Japan West", "Japan East"), readClients.currentRegions());
+
+        // 順が変わらない場合は作り直さない
+        readClients.reevaluate();
+        assertEquals(2, builds.size());
+    }
+
+    @Test
+    public void hedgeDoesNotBuildClients() {
+        RegionalReadClients readClients = readClients();
+        readClients.reevaluate();
+        HedgedReads hedgedReads = new HedgedReads();
+        hedgedReads.enabled = true;
+        hedgedReads.percentile = 0.95;
+        hedgedReads.initialDelay = Duration.ofMillis(10);
+        hedgedReads.minDelay = Duration.ofMillis(1);
+        hedgedReads.maxRate = 1.0;
+        hedgedReads.readClients = readClients;
+        AtomicInteger calls = new AtomicInteger();
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("hedge", hedgedReads.read(client -> calls.incrementAndGet() % 2 == 1
+                    ? Mono.delay(Duration.ofSeconds(5)).thenReturn("primary")
+                    : Mono.just("hedge")).block(Duration.ofSeconds(2)));
+        }
+
+        // ヘッジ (parallel スケジューラ) ではクライアントを生成しない
+        assertEquals(2, builds.size());
+        assertEquals(0, nonBlockingBuilds.get());
+    }
+
+    @Test
+    public void unmeasuredRegionsDoNotRebuild() {
+        RegionalReadClients readClients = readClients();
+        readClients.latencyMonitor = latencyMonitor(false);
+        readClients.reevaluate();
+
+        assertTrue(builds.isEmpty());
+        assertEquals(REGIONS, readClients.currentRegions());
+    }
+
+    @Test
+    public void reevaluateAfterDestroyBuildsNothing() {
+        RegionalReadClients readClients = readClients();
+        readClients.destroy();
+        readClients.reevaluate();
+
+        assertTrue(builds.isEmpty());
+        assertFalse(readClients.currentRegions().isEmpty());
+    }
+}
@@ -0,0 +1,154 @@
+package com.microsoft.azure.samples.quarkus;
+
+import io.smallrye.mutiny.Multi;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.RoutingContext;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import reactor.test.publisher.TestPublisher;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RequestCancellationTest {
+
+    private final RequestCancellation cancellation = new RequestCancellation();
+    private final List<Handler<AsyncResult<Void>>> endHandlers = new CopyOnWriteArrayList<>();
+    private final AtomicReference<Handler<Void>> closeHandler = new AtomicReference<>();
+    private final HttpServerResponse response = response();
+    private final RoutingContext rc = routingContext();
+
+    // closeHandler() だけを記録する HttpServerResponse
+    @SuppressWarnings("unchecked")
+    private HttpServerResponse response() {
+        return (HttpServerResponse) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { HttpServerResponse.class }, (proxy, method, args) -> {
+                    if ("closeHandler".equals(method.getName())) {
+                        closeHandler.set((Handler<Void>) args[0]);
+                        return proxy;
+                    }
+                    return null;
+                });
+    }
+
+    // addEndHandler() を記録し、response() を返す RoutingContext
+    @SuppressWarnings("unchecked")
+    private RoutingContext routingContext() {
+        return (RoutingContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { RoutingContext.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "addEndHandler":
+                            endHandlers.add((Handler<AsyncResult<Void>>) args[0]);
+                            return endHandlers.size() - 1;
+                        case "response":
+                            return response;
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    private RequestCancellation.Guard guard(Duration deadline) {
+        return cancellation.new Guard(rc, deadline);
+    }
+
+    // コネクションの切断 (Vert.x はレスポンスの closeHandler と、失敗の結果で end handler を呼び出す)
+    private void disconnect() {
+        if (closeHandler.get() != null) {
+            closeHandler.get().handle(null);
+        }
+        endHandlers.forEach(handler -> handler.handle(Future.failedFuture("Connection closed")));
+    }
+
+    @Test
+    public void disconnectCancelsUpstreamAndCountsWastedCharge() {
+        RequestCancellation.Guard guard = guard(Duration.ofMinutes(1));
+        TestPublisher<String> pages = TestPublisher.create();
+
+        StepVerifier.create(guard.apply(pages.flux()))
+                .then(() -> {
+                    guard.charge(5.0);
+                    pages.next("page-1");
+                })
+                .expectNext("page-1")
+                .then(this::disconnect)
+                .verifyComplete();
+
+        pages.assertCancelled();
+        assertEquals(5.0, cancellation.getWastedRequestCharge());
+
+        // キャンセル後に届いたページの RU も無駄として記録
+        guard.charge(2.5);
+        assertEquals(7.5, cancellation.getWastedRequestCharge());
+    }
+
+    @Test
+    public void timeoutFailsMonoAndCancelsUpstream() {
+        RequestCancellation.Guard guard = guard(Duration.ofMillis(50));
+        TestPublisher<String> query = TestPublisher.create();
+        guard.charge(3.0);
+
+        StepVerifier.create(guard.apply(query.mono())).expectError(TimeoutException.class)
+                .verify(Duration.ofSeconds(5));
+
+        query.assertCancelled();
+        assertEquals(3.0, cancellation.getWastedRequestCharge());
+    }
+
+    @Test
+    public void streamEndsAtDeadline() {
+        RequestCancellation.Guard guard = guard(Duration.ofMillis(50));
+
+        StepVerifier.create(guard.apply(Flux.interval(Duration.ofMillis(10)))).thenConsumeWhile(tick -> true)
+                .expectComplete().verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    public void completedRequestIsNotWasted() {
+        RequestCancellation.Guard guard = guard(Duration.ofMinutes(1));
+        guard.charge(4.0);
+
+        StepVerifier.create(guard.apply(Mono.just("done"))).expectNext("done").verifyComplete();
+        endHandlers.forEach(handler -> handler.handle(Future.succeededFuture()));
+
+        assertEquals(0.0, cancellation.getWastedRequestCharge());
+    }
+
+    @Test
+    public void disconnectCancelsMultiStreamWithoutReplacingCloseHandler() {
+        // Quarkus が Multi をレスポンスに書き込む際に設定する closeHandler の代わり
+        AtomicBoolean routeNotified = new AtomicBoolean();
+        Handler<Void> routeCloseHandler = unused -> routeNotified.set(true);
+        rc.response().closeHandler(routeCloseHandler);
+
+        RequestCancellation.Guard guard = guard(Duration.ofMinutes(1));
+        TestPublisher<String> pages = TestPublisher.create();
+        List<String> received = new CopyOnWriteArrayList<>();
+        AtomicBoolean completed = new AtomicBoolean();
+        Multi.createFrom().publisher(guard.apply(pages.flux())).subscribe().with(received::add,
+                () -> completed.set(true));
+
+        pages.next("page-1");
+        disconnect();
+
+        assertEquals(List.of("page-1"), received);
+        assertTrue(completed.get());
+        pages.assertCancelled();
+        // Guard はレスポンスの closeHandler を置き換えない
+        assertEquals(routeCloseHandler, closeHandler.get());
+        assertTrue(routeNotified.get());
+    }
+}
@@ -0,0 +1,108 @@
+package com.microsoft.azure.samples.quarkus;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.microsoft.azure.samples.quarkus.jsonmapper.RequestSyntheticData;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SyntheticPersonsTest {
+
+    private static SyntheticPersons generator(String strategy) {
+        PartitionKeyStrategy partitionKeyStrategy = new PartitionKeyStrategy();
+        partitionKeyStrategy.strategy = strategy;
+        partitionKeyStrategy.buckets = 16;
+        SyntheticPersons generator = new SyntheticPersons();
+        generator.partitionKeyStrategy = partitionKeyStrategy;
+        return generator;
+    }
+
+    private static RequestSyntheticData spec(long count, long seed) {
+        RequestSyntheticData spec = new RequestSyntheticData();
+        spec.setCount(count);
+        spec.setSeed(seed);
+        return spec;
+    }
+
+    @Test
+    public void sameSeedGeneratesSameDocuments() {
+        List<JsonNode> first = generator("none").generate(spec(100, 7)).collectList().block();
+        List<JsonNode> second = generator("none").generate(spec(100, 7)).collectList().block();
+        List<JsonNode> other = generator("none").generate(spec(100, 8)).collectList().block();
+
+        assertEquals(100, first.size());
+        assertEquals(first, second);
+        assertNotEquals(first, other);
+        assertEquals(100, first.stream().map(node -> node.get("id").textValue()).distinct().count());
+        assertFalse(first.get(0).has("partitionKey"));
+    }
+
+    @Test
+    public void generatesLazily() {
+        // 1 億件を指定しても、要求した分だけ生成する
+        List<JsonNode> head = generator("none").generate(spec(100_000_000, 1)).take(5).collectList().block();
+        assertEquals(5, head.size());
+    }
+
+    @Test
+    public void skewConcentratesOnCommonLastNames() {
+        RequestSyntheticData spec = spec(10_000, 3);
+        spec.setLastNames(100);
+        spec.setSkew(1.5);
+        Map<String, Long> skewed = countByLastName(generator("none").generate(spec).collectList().block());
+        spec.setSkew(0);
+        Map<String, Long> uniform = countByLastName(generator("none").generate(spec).collectList().block());
+
+        assertTrue(skewed.get(SyntheticPersons.lastName(0)) > 3000);
+        assertTrue(uniform.get(SyntheticPersons.lastName(0)) < 300);
+        assertTrue(uniform.size() <= 100);
+    }
+
+    @Test
+    public void appliesWidthAgeRangeAndSyntheticPartitionKey() {
+        RequestSyntheticData spec = spec(1000, 5);
+        spec.setWidth(256);
+        spec.setAgeStdDev(100);
+        List<JsonNode> documents = generator("composite").generate(spec).collectList().block();
+
+        for (JsonNode document : documents) {
+            assertEquals(256, document.get("payload").textValue().length());
+            int age = document.get("age").intValue();
+            assertTrue(age >= 0 && age <= 120);
+            assertEquals(document.get("lastName").textValue() + "|" + document.get("id").textValue(),
+                    document.get("partitionKey").textValue());
+        }
+    }
+
+    @Test
+    public void rejectsInvalidSpec() {
+        SyntheticPersons generator = generator("none");
+        assertThrows(IllegalArgumentException.class, () -> generator.generate(spec(0, 1)));
+        RequestSyntheticData spec = spec(10, 1);
+        spec.setSkew(-1);
+        assertThrows(IllegalArgumentException.class, () -> generator.generate(spec));
+        spec.setSkew(1);
+        spec.setWidth(SyntheticPersons.MAX_WIDTH + 1);
+        assertThrows(IllegalArgumentException.class, () -> generator.generate(spec));
+    }
+
+    @Test
+    public void lastNamesBeyondTheBaseListAreNumbered() {
+        assertEquals("Sato", SyntheticPersons.lastName(0));
+        assertEquals("Sato1", SyntheticPersons.lastName(20));
+    }
+
+    private static Map<String, Long> countByLastName(List<JsonNode> documents) {
+        return documents.stream().map(node -> node.get("lastName").textValue())
+                .collect(Collectors.groupingBy(Function.identity(), Collectors.counting()));
+    }
+}
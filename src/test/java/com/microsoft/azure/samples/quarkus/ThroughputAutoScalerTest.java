@@ -0,0 +1,40 @@
+package com.microsoft.azure.samples.quarkus;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ThroughputAutoScalerTest {
+
+    private static int decide(int current, double requestUnitsPerSecond, double throttleRate) {
+        return ThroughputAutoScaler.decide(current, requestUnitsPerSecond, throttleRate, 400, 10000, 0.7, 0.01);
+    }
+
+    @Test
+    public void throttlingScalesUpByAtLeastHalf() {
+        assertEquals(1500, decide(1000, 300, 0.05));
+        assertEquals(3000, decide(1000, 2100, 0.05));
+    }
+
+    @Test
+    public void highUtilizationScalesUpToTarget() {
+        assertEquals(1300, decide(1000, 900, 0));
+    }
+
+    @Test
+    public void moderateUtilizationKeepsThroughput() {
+        assertEquals(1000, decide(1000, 500, 0));
+        assertEquals(1000, decide(1000, 400, 0));
+    }
+
+    @Test
+    public void lowUtilizationScalesDownToMin() {
+        assertEquals(500, decide(2000, 350, 0));
+        assertEquals(400, decide(2000, 0, 0));
+    }
+
+    @Test
+    public void resultIsClampedToMax() {
+        assertEquals(10000, decide(8000, 9000, 0.5));
+    }
+}
@@ -0,0 +1,166 @@
+package com.microsoft.azure.samples.quarkus;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.opentelemetry.api.trace.Span;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.RoutingContext;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TracingTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private static Tracing tracing(Path file, double sampleRatio, long maxFileSize) {
+        Tracing tracing = new Tracing();
+        tracing.enabled = true;
+        tracing.sampleRatio = sampleRatio;
+        tracing.file = file.toString();
+        tracing.maxFileSize = maxFileSize;
+        tracing.init();
+        return tracing;
+    }
+
+    @Test
+    public void writesSampledSpansAsNdjson(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("spans.ndjson");
+        Tracing tracing = tracing(file, 1.0, 1024 * 1024);
+        Span batch = tracing.startSpan("outbox.batch");
+        Span deliver = tracing.startSpan("outbox.deliver", batch);
+        deliver.setAttribute("http.status_code", 200);
+        deliver.end();
+        batch.end();
+        assertEquals("ok", tracing.inSpan(null, "serialize", () -> "ok"));
+        tracing.close();
+
+        List<JsonNode> spans = new ArrayList<>();
+        for (String line : Files.readAllLines(file)) {
+            spans.add(mapper.readTree(line));
+        }
+        assertEquals(2, spans.size());
+        JsonNode child = spans.get(0);
+        JsonNode parent = spans.get(1);
+        assertEquals("outbox.deliver", child.get("name").textValue());
+        assertEquals(parent.get("traceId"), child.get("traceId"));
+        assertEquals(parent.get("spanId"), child.get("parentSpanId"));
+        assertFalse(parent.has("parentSpanId"));
+        assertEquals(200, child.get("attributes").get("http.status_code").intValue());
+    }
+
+    @Test
+    public void unsampledAndDisabledSpansAreNotRecorded(@TempDir Path directory) {
+        Tracing unsampled = tracing(directory.resolve("spans.ndjson"), 0.0, 1024 * 1024);
+        Span span = unsampled.startSpan("changefeed.batch");
+        assertFalse(span.isRecording());
+        span.end();
+        unsampled.close();
+        assertFalse(Files.exists(directory.resolve("spans.ndjson")));
+
+        assertFalse(new Tracing().startSpan("changefeed.batch").isRecording());
+    }
+
+    // GET /persons を受け付け、addBodyEndHandler() と addEndHandler() を記録する RoutingContext
+    @SuppressWarnings("unchecked")
+    private static RoutingContext routingContext(List<Handler<Void>> bodyEndHandlers,
+            List<Handler<AsyncResult<Void>>> endHandlers) {
+        HttpServerRequest request = (HttpServerRequest) Proxy.newProxyInstance(TracingTest.class.getClassLoader(),
+                new Class<?>[] { HttpServerRequest.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "method":
+                            return HttpMethod.GET;
+                        case "uri":
+                        case "path":
+                            return "/persons";
+                        default:
+                            return null;
+                    }
+                });
+        HttpServerResponse response = (HttpServerResponse) Proxy.newProxyInstance(
+                TracingTest.class.getClassLoader(), new Class<?>[] { HttpServerResponse.class },
+                (proxy, method, args) -> "getStatusCode".equals(method.getName()) ? 200 : null);
+        return (RoutingContext) Proxy.newProxyInstance(TracingTest.class.getClassLoader(),
+                new Class<?>[] { RoutingContext.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "request":
+                            return request;
+                        case "response":
+                            return response;
+                        case "addBodyEndHandler":
+                            bodyEndHandlers.add((Handler<Void>) args[0]);
+                            return bodyEndHandlers.size() - 1;
+                        case "addEndHandler":
+                            endHandlers.add((Handler<AsyncResult<Void>>) args[0]);
+                            return endHandlers.size() - 1;
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    @Test
+    public void disconnectEndsRequestSpanAsError(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("spans.ndjson");
+        Tracing tracing = tracing(file, 1.0, 1024 * 1024);
+        List<Handler<Void>> bodyEndHandlers = new CopyOnWriteArrayList<>();
+        List<Handler<AsyncResult<Void>>> endHandlers = new CopyOnWriteArrayList<>();
+        tracing.traceRequest(routingContext(bodyEndHandlers, endHandlers));
+
+        // 切断ではレスポンスの書き込みが終わらないため、body end handler は呼ばれない
+        endHandlers.forEach(handler -> handler.handle(Future.failedFuture("Connection reset")));
+        endHandlers.forEach(handler -> handler.handle(Future.failedFuture("Connection reset")));
+        tracing.close();
+
+        List<String> lines = Files.readAllLines(file);
+        assertEquals(1, lines.size());
+        JsonNode span = mapper.readTree(lines.get(0));
+        assertEquals("GET /persons", span.get("name").textValue());
+        assertEquals("ERROR", span.get("status").textValue());
+        assertTrue(span.get("attributes").get("http.cancelled").booleanValue());
+        assertFalse(span.get("attributes").has("http.status_code"));
+    }
+
+    @Test
+    public void completedResponseEndsRequestSpanOnce(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("spans.ndjson");
+        Tracing tracing = tracing(file, 1.0, 1024 * 1024);
+        List<Handler<Void>> bodyEndHandlers = new CopyOnWriteArrayList<>();
+        List<Handler<AsyncResult<Void>>> endHandlers = new CopyOnWriteArrayList<>();
+        tracing.traceRequest(routingContext(bodyEndHandlers, endHandlers));
+
+        bodyEndHandlers.forEach(handler -> handler.handle(null));
+        endHandlers.forEach(handler -> handler.handle(Future.succeededFuture()));
+        tracing.close();
+
+        List<String> lines = Files.readAllLines(file);
+        assertEquals(1, lines.size());
+        JsonNode span = mapper.readTree(lines.get(0));
+        assertEquals("UNSET", span.get("status").textValue());
+        assertEquals(200, span.get("attributes").get("http.status_code").intValue());
+    }
+
+    @Test
+    public void rollsOverLargeFiles(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("spans.ndjson");
+        Tracing tracing = tracing(file, 1.0, 1);
+        tracing.startSpan("first").end();
+        tracing.close();
+        assertTrue(Files.exists(directory.resolve("spans.ndjson.1")));
+    }
+}
@@ -0,0 +1,214 @@
+package com.microsoft.azure.samples.quarkus.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * /react-route/... の全ルートに対して、設定した比率でリクエストを送信する負荷試験
+ *
+ * 対象のアプリケーションは Cosmos DB Emulator (ローカルで動作する Cosmos DB の代替) に接続した状態で起動しておきます。
+ *
+ * ./mvnw quarkus:dev -Dquarkus.profile=loadtest
+ *
+ * ./mvnw test -Ploadtest [-Dloadtest.duration=PT60S] [-Dloadtest.concurrency=32]
+ * [-Dloadtest.mix=point=40,list=10,paged=5,insert=40,admin=5] [-Dloadtest.base-url=http://localhost:8080]
+ *
+ * ルート毎のスループットとレイテンシのパーセンタイル (HdrHistogram) を出力し、
+ * src/test/resources/loadtest/baseline.properties に記録した値から loadtest.tolerance 以上悪化した場合は失敗します。
+ * -Dloadtest.update-baseline=true を指定すると、計測結果を target/loadtest/baseline.properties に出力します。
+ */
+@EnabledIfSystemProperty(named = "loadtest", matches = "true")
+public class LoadTestHarnessTest {
+
+    private static final Logger LOGGER = Logger.getLogger(LoadTestHarnessTest.class);
+
+    private static final String BASE_URL = System.getProperty("loadtest.base-url", "http://localhost:8080");
+    private static final String DATABASE = System.getProperty("loadtest.database", "LOADTEST_DB");
+    private static final String CONTAINER = System.getProperty("loadtest.container", "personmanage");
+    private static final Duration WARM_UP = Duration.parse(System.getProperty("loadtest.warm-up", "PT10S"));
+    private static final Duration DURATION = Duration.parse(System.getProperty("loadtest.duration", "PT60S"));
+    private static final int CONCURRENCY = Integer.getInteger("loadtest.concurrency", 32);
+    private static final int SEED_ITEMS = Integer.getInteger("loadtest.seed-items", 100);
+    private static final double TOLERANCE = Double.parseDouble(System.getProperty("loadtest.tolerance", "0.2"));
+    private static final RouteMix MIX = RouteMix
+            .parse(System.getProperty("loadtest.mix", "point=40,list=10,paged=5,insert=40,admin=5"));
+
+    private static final String[] LAST_NAMES = { "Sato", "Suzuki", "Takahashi", "Tanaka", "Watanabe", "Ito",
+            "Yamamoto", "Nakamura", "Kobayashi", "Kato" };
+
+    private final HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final List<String[]> knownItems = new CopyOnWriteArrayList<>();
+    private final Random random = new Random(42);
+
+    @Test
+    public void replayTrafficMix() throws Exception {
+        setUp();
+
+        run(WARM_UP, new EnumMap<>(RouteMix.RouteType.class));
+        Map<RouteMix.RouteType, RouteStats> stats = new EnumMap<>(RouteMix.RouteType.class);
+        long elapsedNanos = run(DURATION, stats);
+
+        Properties baseline = loadBaseline();
+        Properties measured = new Properties();
+        List<String> regressions = new ArrayList<>();
+        double seconds = elapsedNanos / 1_000_000_000.0;
+
+        LOGGER.info(String.format("%-8s %10s %8s %10s %10s %10s %10s", "route", "req/s", "errors", "p50(ms)",
+                "p90(ms)", "p99(ms)", "p99.9(ms)"));
+        stats.forEach((type, routeStats) -> {
+            String route = type.name().toLowerCase();
+            double throughput = routeStats.count() / seconds;
+            double p99 = routeStats.percentileMillis(99);
+            LOGGER.info(String.format("%-8s %10.1f %8d %10.2f %10.2f %10.2f %10.2f", route, throughput,
+                    routeStats.errors(), routeStats.percentileMillis(50), routeStats.percentileMillis(90), p99,
+                    routeStats.percentileMillis(99.9)));
+
+            measured.setProperty(route + ".throughput", String.format("%.1f", throughput));
+            measured.setProperty(route + ".p99.ms", String.format("%.2f", p99));
+
+            String baselineThroughput = baseline.getProperty(route + ".throughput");
+            if (baselineThroughput != null && throughput < Double.parseDouble(baselineThroughput) * (1 - TOLERANCE)) {
+                regressions.add(route + " throughput " + throughput + " < baseline " + baselineThroughput);
+            }
+            String baselineP99 = baseline.getProperty(route + ".p99.ms");
+            if (baselineP99 != null && p99 > Double.parseDouble(baselineP99) * (1 + TOLERANCE)) {
+                regressions.add(route + " p99 " + p99 + " ms > baseline " + baselineP99 + " ms");
+            }
+        });
+
+        if (Boolean.getBoolean("loadtest.update-baseline")) {
+            Path output = Paths.get("target", "loadtest", "baseline.properties");
+            Files.createDirectories(output.getParent());
+            try (OutputStream out = Files.newOutputStream(output)) {
+                measured.store(out, "Measured by LoadTestHarnessTest (mix=" + System.getProperty("loadtest.mix",
+                        "default") + ", concurrency=" + CONCURRENCY + ")");
+            }
+            LOGGER.info("BASELINE WRITTEN: " + output.toAbsolutePath());
+        }
+        assertTrue(regressions.isEmpty(), "Regressed past baseline: " + regressions);
+    }
+
+    private void setUp() throws Exception {
+        send(post("/react-route/database/create-database", "{\"dbName\":\"" + DATABASE + "\"}")).join();
+        send(post("/react-route/database/" + DATABASE + "/container/create-container",
+                "{\"containerName\":\"" + CONTAINER + "\",\"partitionName\":\"/lastName\",\"requestUnit\":1000}"))
+                .join();
+        for (int i = 0; i < SEED_ITEMS; i++) {
+            send(insertRequest()).thenAccept(this::rememberItem).join();
+        }
+    }
+
+    /*
+     * duration の間、CONCURRENCY 並列でリクエストを送信し続ける
+     */
+    private long run(Duration duration, Map<RouteMix.RouteType, RouteStats> stats) throws InterruptedException {
+        Semaphore inFlight = new Semaphore(CONCURRENCY);
+        long start = System.nanoTime();
+        long deadline = start + duration.toNanos();
+        while (System.nanoTime() < deadline) {
+            inFlight.acquire();
+            RouteMix.RouteType type = MIX.next(random);
+            HttpRequest request = request(type);
+            RouteStats routeStats = stats.computeIfAbsent(type, t -> new RouteStats());
+            long sent = System.nanoTime();
+            send(request).whenComplete((response, error) -> {
+                boolean success = error == null && response.statusCode() < 400;
+                routeStats.record(System.nanoTime() - sent, success);
+                if (success && type == RouteMix.RouteType.INSERT) {
+                    rememberItem(response);
+                }
+                inFlight.release();
+            });
+        }
+        inFlight.acquire(CONCURRENCY);
+        return System.nanoTime() - start;
+    }
+
+    private HttpRequest request(RouteMix.RouteType type) {
+        String itemPath = "/react-route/database/" + DATABASE + "/container/" + CONTAINER + "/item";
+        switch (type) {
+            case POINT:
+                if (knownItems.isEmpty()) {
+                    return get(itemPath);
+                }
+                String[] item = knownItems.get(random.nextInt(knownItems.size()));
+                return get(itemPath + "/" + item[0] + "/lastName/" + item[1]);
+            case LIST:
+                return get(itemPath);
+            case PAGED:
+                return get(itemPath + "/preferred");
+            case INSERT:
+                return insertRequest();
+            default:
+                return get("/react-route/database/" + DATABASE + "/container");
+        }
+    }
+
+    private HttpRequest insertRequest() {
+        String body = "{\"firstName\":\"Load" + random.nextInt(100000) + "\",\"lastName\":\""
+                + LAST_NAMES[random.nextInt(LAST_NAMES.length)] + "\",\"age\":" + random.nextInt(100) + "}";
+        return post("/react-route/database/" + DATABASE + "/container/" + CONTAINER + "/item/addItem", body);
+    }
+
+    private void rememberItem(HttpResponse<String> response) {
+        try {
+            JsonNode person = mapper.readTree(response.body());
+            if (person != null && person.hasNonNull("id") && knownItems.size() < 10000) {
+                knownItems.add(new String[] { person.get("id").asText(), person.get("lastName").asText() });
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Unexpected insert response: " + response.body());
+        }
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(URI.create(BASE_URL + path)).timeout(Duration.ofSeconds(30)).GET().build();
+    }
+
+    private HttpRequest post(String path, String json) {
+        return HttpRequest.newBuilder(URI.create(BASE_URL + path)).timeout(Duration.ofSeconds(30))
+                .header("Content-Type", "application/json").POST(HttpRequest.BodyPublishers.ofString(json)).build();
+    }
+
+    private CompletableFuture<HttpResponse<String>> send(HttpRequest request) {
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString()).orTimeout(60, TimeUnit.SECONDS);
+    }
+
+    private Properties loadBaseline() throws IOException {
+        Properties baseline = new Properties();
+        try (InputStream in = getClass().getResourceAsStream("/loadtest/baseline.properties")) {
+            if (in != null) {
+                baseline.load(in);
+            }
+        }
+        return baseline;
+    }
+}
@@ -0,0 +1,44 @@
+package com.microsoft.azure.samples.quarkus.loadtest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * ルート毎のリクエストの比率
+ *
+ * "point=40,list=10,paged=5,insert=40,admin=5" の形式で指定します。
+ */
+final class RouteMix {
+
+    enum RouteType {
+        POINT, LIST, PAGED, INSERT, ADMIN
+    }
+
+    private final List<RouteType> weighted;
+
+    private RouteMix(List<RouteType> weighted) {
+        this.weighted = weighted;
+    }
+
+    static RouteMix parse(String mix) {
+        Map<RouteType, Integer> weights = new LinkedHashMap<>();
+        for (String entry : mix.split(",")) {
+            String[] pair = entry.trim().split("=");
+            weights.put(RouteType.valueOf(pair[0].trim().toUpperCase()), Integer.parseInt(pair[1].trim()));
+        }
+        List<RouteType> weighted = new ArrayList<>();
+        weights.forEach((type, weight) -> weighted.addAll(Collections.nCopies(weight, type)));
+        if (weighted.isEmpty()) {
+            throw new IllegalArgumentException("Empty route mix: " + mix);
+        }
+        return new RouteMix(weighted);
+    }
+
+    RouteType next(Random random) {
+        return weighted.get(random.nextInt(weighted.size()));
+    }
+}